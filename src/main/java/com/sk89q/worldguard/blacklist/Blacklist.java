@@ -41,12 +41,22 @@
  * @author sk89q
  */
 public abstract class Blacklist {
+    /**
+     * Highest item ID that is looked up in the entry table rather than
+     * the map.
+     */
+    private static final int MAX_TABLE_ID = Short.MAX_VALUE;
 
     /**
      * List of entries by block ID.
      */
     private Map<Integer,List<BlacklistEntry>> blacklist
             = new HashMap<Integer,List<BlacklistEntry>>();
+    /**
+     * Entries indexed by block ID, built from {@link #blacklist} when it is
+     * loaded. IDs that are not in the table are looked up in the map.
+     */
+    private BlacklistEntry[][] table = new BlacklistEntry[0][];
     /**
      * Logger.
      */
@@ -125,19 +135,58 @@ public BlacklistLogger getLogger() {
      * @return Whether the event is allowed
      */
     public boolean check(BlacklistEvent event, boolean forceRepeat, boolean silent) {
-        List<BlacklistEntry> entries = getEntries(event.getType());
+        int id = event.getType();
+        BlacklistEntry[] entries;
+
+        if (id >= 0 && id < table.length) {
+            entries = table[id];
+        } else if (id < 0 || id > MAX_TABLE_ID) {
+            List<BlacklistEntry> list = getEntries(id);
+            entries = list != null ? list.toArray(new BlacklistEntry[list.size()]) : null;
+        } else {
+            entries = null;
+        }
+
         if (entries == null) {
             return true;
         }
+
+        int eventType = BlacklistEntry.getEventType(event);
         boolean ret = true;
         for (BlacklistEntry entry : entries) {
-            if (!entry.check(useAsWhitelist, event, forceRepeat, silent)) {
+            if (!entry.check(useAsWhitelist, event, eventType, forceRepeat, silent)) {
                 ret = false;
             }
         }
         return ret;
     }
 
+    /**
+     * Build the table of entries indexed by block ID.
+     *
+     * @param blacklist The entries by block ID
+     * @return The table
+     */
+    private static BlacklistEntry[][] buildTable(Map<Integer,List<BlacklistEntry>> blacklist) {
+        int maxId = -1;
+        for (int id : blacklist.keySet()) {
+            if (id <= MAX_TABLE_ID) {
+                maxId = Math.max(maxId, id);
+            }
+        }
+
+        BlacklistEntry[][] table = new BlacklistEntry[maxId + 1][];
+        for (Map.Entry<Integer,List<BlacklistEntry>> entry : blacklist.entrySet()) {
+            int id = entry.getKey();
+            if (id >= 0 && id <= MAX_TABLE_ID) {
+                List<BlacklistEntry> entries = entry.getValue();
+                table[id] = entries.toArray(new BlacklistEntry[entries.size()]);
+            }
+        }
+
+        return table;
+    }
+
     /**
      * Load the blacklist.
      *
@@ -242,6 +291,7 @@ public void load(File file) throws IOException {
                 }
             }
 
+            this.table = buildTable(blacklist);
             this.blacklist = blacklist;
         } finally {
             try {
@@ -293,6 +343,7 @@ public void notify(BlacklistEvent event, String comment) {
      */
     public void forgetPlayer(LocalPlayer player) {
         lastAffected.remove(player.getName());
+        forgetPermissions(player);
     }
 
     /**
@@ -300,6 +351,33 @@ public void forgetPlayer(LocalPlayer player) {
      */
     public void forgetAllPlayers() {
         lastAffected.clear();
+        forgetAllPermissions();
+    }
+
+    /**
+     * Forget which entries ignore a player, so that their groups and
+     * permissions are checked again.
+     *
+     * @param player The player to forget
+     */
+    public void forgetPermissions(LocalPlayer player) {
+        for (List<BlacklistEntry> entries : blacklist.values()) {
+            for (BlacklistEntry entry : entries) {
+                entry.forgetIgnore(player.getName());
+            }
+        }
+    }
+
+    /**
+     * Forget which entries ignore any player, so that groups and
+     * permissions are checked again.
+     */
+    public void forgetAllPermissions() {
+        for (List<BlacklistEntry> entries : blacklist.values()) {
+            for (BlacklistEntry entry : entries) {
+                entry.forgetAllIgnores();
+            }
+        }
     }
 
     /**
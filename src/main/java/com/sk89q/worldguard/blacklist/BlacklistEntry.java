@@ -21,7 +21,11 @@
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.bukkit.ChatColor;
 
@@ -41,6 +45,47 @@
  * @author sk89q
  */
 public class BlacklistEntry {
+    /**
+     * Event types, used to index {@link #actions}.
+     */
+    static final int BREAK = 0;
+    static final int DESTROY_WITH = 1;
+    static final int PLACE = 2;
+    static final int INTERACT = 3;
+    static final int USE = 4;
+    static final int DROP = 5;
+    static final int ACQUIRE = 6;
+    static final int UNKNOWN = -1;
+    private static final int EVENT_TYPES = 7;
+
+    /**
+     * Action flags.
+     */
+    private static final int DENY = 1;
+    private static final int ALLOW = 1 << 1;
+    private static final int KICK = 1 << 2;
+    private static final int BAN = 1 << 3;
+    private static final int NOTIFY = 1 << 4;
+    private static final int LOG = 1 << 5;
+    private static final int TELL = 1 << 6;
+    /**
+     * Set when the first of deny and allow in the list of actions is allow,
+     * which decides silent checks.
+     */
+    private static final int FIRST_ALLOW = 1 << 7;
+    /**
+     * Set when the last of deny and allow in the list of actions is allow,
+     * which decides other checks.
+     */
+    private static final int LAST_ALLOW = 1 << 8;
+
+    /**
+     * How long an ignore decision is remembered for a player, in
+     * milliseconds, in case their groups or permissions change without
+     * the cache being cleared.
+     */
+    private static final long IGNORE_CACHE_TIME = TimeUnit.SECONDS.toMillis(30);
+
     /**
      * Parent blacklist entry.
      */
@@ -54,7 +99,13 @@ public class BlacklistEntry {
     /**
      * List of permissions to not affect.
      */
-    private Set<String> ignorePermissions;
+    private String[] ignorePermissions;
+
+    /**
+     * Whether players should be ignored, by player name.
+     */
+    private final ConcurrentMap<String,IgnoreDecision> ignoreCache =
+            new ConcurrentHashMap<String,IgnoreDecision>();
 
     private String[] breakActions;
     private String[] destroyWithActions;
@@ -64,6 +115,11 @@ public class BlacklistEntry {
     private String[] dropActions;
     private String[] acquireActions;
 
+    /**
+     * Action flags by event type.
+     */
+    private final int[] actions = new int[EVENT_TYPES];
+
     private String message;
     private String comment;
 
@@ -87,7 +143,7 @@ public String[] getIgnoreGroups() {
      * @return the ignoreGroups
      */
     public String[] getIgnorePermissions() {
-        return ignorePermissions.toArray(new String[ignorePermissions.size()]);
+        return ignorePermissions.clone();
     }
 
     /**
@@ -99,15 +155,18 @@ public void setIgnoreGroups(String[] ignoreGroups) {
             ignoreGroupsSet.add(group.toLowerCase());
         }
         this.ignoreGroups = ignoreGroupsSet;
+        ignoreCache.clear();
     }
 
     /**
      * @param ignorePermissions the ignorePermissions to set
      */
     public void setIgnorePermissions(String[] ignorePermissions) {
-        Set<String> ignorePermissionsSet = new HashSet<String>();
+        Set<String> ignorePermissionsSet = new LinkedHashSet<String>();
         Collections.addAll(ignorePermissionsSet, ignorePermissions);
-        this.ignorePermissions = ignorePermissionsSet;
+        this.ignorePermissions =
+                ignorePermissionsSet.toArray(new String[ignorePermissionsSet.size()]);
+        ignoreCache.clear();
     }
 
     /**
@@ -122,6 +181,7 @@ public String[] getBreakActions() {
      */
     public void setBreakActions(String[] actions) {
         this.breakActions = actions;
+        this.actions[BREAK] = compileActions(actions);
     }
 
     /**
@@ -136,6 +196,7 @@ public String[] getDestroyWithActions() {
      */
     public void setDestroyWithActions(String[] actions) {
         this.destroyWithActions = actions;
+        this.actions[DESTROY_WITH] = compileActions(actions);
     }
 
     /**
@@ -150,6 +211,7 @@ public String[] getPlaceActions() {
      */
     public void setPlaceActions(String[] actions) {
         this.placeActions = actions;
+        this.actions[PLACE] = compileActions(actions);
     }
 
     /**
@@ -164,6 +226,7 @@ public String[] getInteractActions() {
      */
     public void setInteractActions(String[] actions) {
         this.interactActions = actions;
+        this.actions[INTERACT] = compileActions(actions);
     }
 
     /**
@@ -178,6 +241,7 @@ public String[] getUseActions() {
      */
     public void setUseActions(String[] actions) {
         this.useActions = actions;
+        this.actions[USE] = compileActions(actions);
     }
 
     /**
@@ -192,6 +256,7 @@ public String[] getDropActions() {
      */
     public void setDropActions(String[] actions) {
         this.dropActions = actions;
+        this.actions[DROP] = compileActions(actions);
     }
 
     /**
@@ -206,6 +271,7 @@ public String[] getAcquireActions() {
      */
     public void setAcquireActions(String[] actions) {
         this.acquireActions = actions;
+        this.actions[ACQUIRE] = compileActions(actions);
     }
 
     /**
@@ -237,12 +303,64 @@ public void setComment(String comment) {
     }
 
     /**
-     * Returns true if this player should be ignored.
+     * Returns true if this player should be ignored. The answer is
+     * remembered for up to 30 seconds, so that the player's groups and
+     * permissions are not looked up for every event.
      *
      * @param player The player to check
      * @return whether this player should be ignored for blacklist blocking
      */
     public boolean shouldIgnore(LocalPlayer player) {
+        return shouldIgnore(player, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns true if this player should be ignored at the given time.
+     *
+     * @param player The player to check
+     * @param now The current time, in milliseconds
+     * @return whether this player should be ignored for blacklist blocking
+     */
+    boolean shouldIgnore(LocalPlayer player, long now) {
+        if (ignoreGroups == null && ignorePermissions == null) {
+            return false;
+        }
+
+        String name = player.getName();
+        IgnoreDecision decision = ignoreCache.get(name);
+
+        if (decision == null || now >= decision.expires) {
+            decision = new IgnoreDecision(resolveIgnore(player), now + IGNORE_CACHE_TIME);
+            ignoreCache.put(name, decision);
+        }
+
+        return decision.ignore;
+    }
+
+    /**
+     * Forget whether a player should be ignored.
+     *
+     * @param name The name of the player
+     */
+    void forgetIgnore(String name) {
+        ignoreCache.remove(name);
+    }
+
+    /**
+     * Forget whether any player should be ignored.
+     */
+    void forgetAllIgnores() {
+        ignoreCache.clear();
+    }
+
+    /**
+     * Check the player's groups and permissions to see whether they should
+     * be ignored.
+     *
+     * @param player The player to check
+     * @return whether this player should be ignored for blacklist blocking
+     */
+    private boolean resolveIgnore(LocalPlayer player) {
         if (ignoreGroups != null) {
             for (String group : player.getGroups()) {
                 if (ignoreGroups.contains(group.toLowerCase())) {
@@ -263,35 +381,71 @@ public boolean shouldIgnore(LocalPlayer player) {
     }
 
     /**
-     * Get the associated actions with an event.
+     * Turn a list of actions into action flags.
      *
-     * @param event The event to check
-     * @return The actions for the given event
+     * @param actions The actions, or null
+     * @return The action flags
      */
-    private String[] getActions(BlacklistEvent event) {
+    private static int compileActions(String[] actions) {
+        int flags = 0;
+
+        if (actions == null) {
+            return flags;
+        }
+
+        for (String action : actions) {
+            if (action.equalsIgnoreCase("deny") || action.equalsIgnoreCase("allow")) {
+                boolean allow = action.equalsIgnoreCase("allow");
+                if ((flags & (DENY | ALLOW)) == 0 && allow) {
+                    flags |= FIRST_ALLOW;
+                }
+                flags = allow ? flags | ALLOW | LAST_ALLOW : (flags | DENY) & ~LAST_ALLOW;
+            } else if (action.equalsIgnoreCase("kick")) {
+                flags |= KICK;
+            } else if (action.equalsIgnoreCase("ban")) {
+                flags |= BAN;
+            } else if (action.equalsIgnoreCase("notify")) {
+                flags |= NOTIFY;
+            } else if (action.equalsIgnoreCase("log")) {
+                flags |= LOG;
+            } else if (action.equalsIgnoreCase("tell")) {
+                flags |= TELL;
+            }
+        }
+
+        return flags;
+    }
+
+    /**
+     * Get the event type of an event.
+     *
+     * @param event The event
+     * @return The event type, or {@link #UNKNOWN}
+     */
+    static int getEventType(BlacklistEvent event) {
         if (event instanceof BlockBreakBlacklistEvent) {
-            return breakActions;
+            return BREAK;
 
         } else if (event instanceof BlockPlaceBlacklistEvent) {
-            return placeActions;
+            return PLACE;
 
         } else if (event instanceof BlockInteractBlacklistEvent) {
-            return interactActions;
+            return INTERACT;
 
         } else if (event instanceof DestroyWithBlacklistEvent) {
-            return destroyWithActions;
+            return DESTROY_WITH;
 
         } else if (event instanceof ItemAcquireBlacklistEvent) {
-            return acquireActions;
+            return ACQUIRE;
 
         } else if (event instanceof ItemDropBlacklistEvent) {
-            return dropActions;
+            return DROP;
 
         } else if (event instanceof ItemUseBlacklistEvent) {
-            return useActions;
+            return USE;
 
         } else {
-            return null;
+            return UNKNOWN;
         }
     }
 
@@ -305,6 +459,21 @@ private String[] getActions(BlacklistEvent event) {
      * @return Whether the action was allowed
      */
     public boolean check(boolean useAsWhitelist, BlacklistEvent event, boolean forceRepeat, boolean silent) {
+        return check(useAsWhitelist, event, getEventType(event), forceRepeat, silent);
+    }
+
+    /**
+     * Method to handle the event.
+     *
+     * @param useAsWhitelist Whether this entry is buing used in a whitelist
+     * @param event The event to check
+     * @param eventType The type of the event, from {@link #getEventType(BlacklistEvent)}
+     * @param forceRepeat Whether to force repeating notifications even within the delay limit
+     * @param silent Whether to prevent notifications from happening
+     * @return Whether the action was allowed
+     */
+    boolean check(boolean useAsWhitelist, BlacklistEvent event, int eventType,
+            boolean forceRepeat, boolean silent) {
         LocalPlayer player = event.getPlayer();
 
         if (shouldIgnore(player)) {
@@ -325,83 +494,67 @@ public boolean check(boolean useAsWhitelist, BlacklistEvent event, boolean force
             blacklist.lastAffected.put(name, new BlacklistTrackedEvent(event, now));
         }
 
-        String actions[] = getActions(event);
+        int flags = eventType != UNKNOWN ? actions[eventType] : 0;
+        boolean ret = !useAsWhitelist;
 
+        // Deny or allow
+        if ((flags & (DENY | ALLOW)) != 0) {
+            if (silent) {
+                return (flags & FIRST_ALLOW) != 0;
+            }
 
-        boolean ret = !useAsWhitelist;
+            ret = (flags & LAST_ALLOW) != 0;
+        }
 
-        // Nothing to do
-        if (actions == null) {
+        if (silent) {
             return ret;
         }
 
-        for (String action : actions) {
-            // Deny
-            if (action.equalsIgnoreCase("deny")) {
-                if (silent) {
-                    return false;
-                }
-
-                ret = false;
-
-            // Allow
-            } else if (action.equalsIgnoreCase("allow")) {
-                if (silent) {
-                    return true;
-                }
-
-                ret = true;
-
-            // Kick
-            } else if (action.equalsIgnoreCase("kick")) {
-                if (silent) {
-                    continue;
-                }
-
-                if (this.message != null) {
-                    player.kick(String.format(this.message,
-                            getFriendlyItemName(event.getType())));
-                } else {
-                    player.kick("You can't " + event.getDescription() + " "
-                            + getFriendlyItemName(event.getType()));
-                }
+        if (!repeating || forceRepeat) {
+            // Notify
+            if ((flags & NOTIFY) != 0) {
+                blacklist.notify(event, comment);
+            }
 
-            // Ban
-            } else if (action.equalsIgnoreCase("ban")) {
-                if (silent) {
-                    continue;
-                }
+            // Log
+            if ((flags & LOG) != 0) {
+                blacklist.getLogger().logEvent(event, comment);
+            }
 
+            // Tell
+            if ((flags & TELL) != 0) {
                 if (this.message != null) {
-                    player.ban("Banned: " + String.format(this.message,
-                            getFriendlyItemName(event.getType())));
+                    player.printRaw(ChatColor.YELLOW +
+                            String.format(message, getFriendlyItemName(event.getType()))
+                            + ".");
                 } else {
-                    player.ban("Banned: You can't "
+                    player.printRaw(ChatColor.YELLOW + "You're not allowed to "
                             + event.getDescription() + " "
-                            + getFriendlyItemName(event.getType()));
+                            + getFriendlyItemName(event.getType()) + ".");
                 }
+            }
+        }
 
-            } else if (!silent && (!repeating || forceRepeat)) {
-                // Notify
-                if (action.equalsIgnoreCase("notify")) {
-                    blacklist.notify(event, comment);
-
-                // Log
-                } else if (action.equalsIgnoreCase("log")) {
-                    blacklist.getLogger().logEvent(event, comment);
-
-                // Tell
-                } else if (action.equalsIgnoreCase("tell")) {
-                    if (this.message != null) {
-                        player.printRaw(ChatColor.YELLOW +
-                                String.format(message, getFriendlyItemName(event.getType()))
-                                + ".");
-                    } else {
-                        player.printRaw(ChatColor.YELLOW + "You're not allowed to "
-                                + event.getDescription() + " "
-                                + getFriendlyItemName(event.getType()) + ".");
-                    }
-                }
+        // Kick
+        if ((flags & KICK) != 0) {
+            if (this.message != null) {
+                player.kick(String.format(this.message,
+                        getFriendlyItemName(event.getType())));
+            } else {
+                player.kick("You can't " + event.getDescription() + " "
+                        + getFriendlyItemName(event.getType()));
+            }
+        }
+
+        // Ban
+        if ((flags & BAN) != 0) {
+            if (this.message != null) {
+                player.ban("Banned: " + String.format(this.message,
+                        getFriendlyItemName(event.getType())));
+            } else {
+                player.ban("Banned: You can't "
+                        + event.getDescription() + " "
+                        + getFriendlyItemName(event.getType()));
             }
         }
 
@@ -421,4 +574,17 @@ private static String getFriendlyItemName(int id) {
             return "#" + id + "";
         }
     }
+
+    /**
+     * A remembered answer to whether a player should be ignored.
+     */
+    private static class IgnoreDecision {
+        private final boolean ignore;
+        private final long expires;
+
+        private IgnoreDecision(boolean ignore, long expires) {
+            this.ignore = ignore;
+            this.expires = expires;
+        }
+    }
 }
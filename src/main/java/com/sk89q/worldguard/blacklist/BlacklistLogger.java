@@ -19,6 +19,7 @@
 
 package com.sk89q.worldguard.blacklist;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -61,6 +62,15 @@ public void clearHandlers() {
         handlers.clear();
     }
 
+    /**
+     * Get the handlers.
+     *
+     * @return The handlers, which cannot be modified
+     */
+    public Set<BlacklistLoggerHandler> getHandlers() {
+        return Collections.unmodifiableSet(handlers);
+    }
+
     /**
      * Log an event.
      *
@@ -19,10 +19,16 @@
 
 package com.sk89q.worldguard.blacklist.loggers;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,25 +42,47 @@
 import com.sk89q.worldguard.blacklist.events.ItemAcquireBlacklistEvent;
 import com.sk89q.worldguard.blacklist.events.ItemDropBlacklistEvent;
 import com.sk89q.worldguard.blacklist.events.ItemUseBlacklistEvent;
+import com.sk89q.worldguard.util.ConnectionPool;
+import com.sk89q.worldguard.util.PooledConnection;
 
 /**
+ * Logs blacklist events to a database table. Events are queued without
+ * locking and written by a background thread, several rows per statement,
+ * so a slow database does not hold up the server.
  *
  * @author sk89q
  */
 public class DatabaseLoggerHandler implements BlacklistLoggerHandler {
 
     /**
-     * DSN.
+     * The most rows written with one statement.
      */
-    private final String dsn;
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Numbers of rows per statement that batches are split into. Keeping
+     * to a few sizes keeps the number of different statements that the
+     * connections prepare and cache small.
+     */
+    private static final int[] STATEMENT_SIZES = { BATCH_SIZE, 10, 1 };
+
+    /**
+     * How long queued events may wait before they are written.
+     */
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
     /**
-     * Username.
+     * How long an event waits for room in a full queue when events are not
+     * dropped right away. If there is still no room, the event is dropped,
+     * and so are the following events until there is room again.
      */
-    private final String user;
+    private static final long FULL_WAIT = TimeUnit.SECONDS.toNanos(1);
+
     /**
-     * Password.
+     * How long {@link #close()} waits for the queued events to be written.
      */
-    private final String pass;
+    private static final long CLOSE_TIMEOUT = 10000;
+
     /**
      * Table.
      */
@@ -64,12 +92,43 @@ public class DatabaseLoggerHandler implements BlacklistLoggerHandler {
      */
     private final String worldName;
     /**
-     * Database connection.
+     * Database connections.
      */
-    private Connection conn;
+    private final ConnectionPool pool;
     
     private final Logger logger;
 
+    /**
+     * Events waiting to be written, and their number.
+     */
+    private final Queue<Row> queue = new ConcurrentLinkedQueue<Row>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * The most events that may wait to be written.
+     */
+    private final int queueSize;
+
+    /**
+     * Whether events are dropped when the queue is full, rather than making
+     * the caller wait a short while for room.
+     */
+    private final boolean dropWhenFull;
+
+    /**
+     * Set when an event waited for room in vain, so that the following
+     * events are dropped without waiting.
+     */
+    private volatile boolean stalled;
+
+    /**
+     * Number of events dropped since it was last reported.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread writer;
+    private volatile boolean closed;
+
     /**
      * Construct the object.
      *
@@ -81,29 +140,43 @@ public class DatabaseLoggerHandler implements BlacklistLoggerHandler {
      * @param logger The logger to log errors to
      */
     public DatabaseLoggerHandler(String dsn, String user, String pass, String table, String worldName, Logger logger) {
-        this.dsn = dsn;
-        this.user = user;
-        this.pass = pass;
-        this.table = table;
-        this.worldName = worldName;
-        this.logger = logger;
+        this(dsn, user, pass, table, worldName, logger, 10000, true);
     }
 
     /**
-     * Gets the database connection.
+     * Construct the object.
      *
-     * @return The database connection
-     * @throws SQLException when the connection cannot be created
+     * @param dsn The DSN for the connection
+     * @param user The username to connect with
+     * @param pass The password to connect with
+     * @param table The table to log to
+     * @param worldName The name of the world to log
+     * @param logger The logger to log errors to
+     * @param queueSize The most events that may wait to be written
+     * @param dropWhenFull Whether to drop events when the queue is full,
+     *                     rather than to wait a short while for room
      */
-    private Connection getConnection() throws SQLException {
-        if (conn == null || conn.isClosed()) {
-            conn = DriverManager.getConnection(dsn, user, pass);
-        }
-        return conn;
+    public DatabaseLoggerHandler(String dsn, String user, String pass, String table, String worldName,
+            Logger logger, int queueSize, boolean dropWhenFull) {
+        this.pool = ConnectionPool.acquire(dsn, user, pass);
+        this.table = table;
+        this.worldName = worldName;
+        this.logger = logger;
+        this.queueSize = Math.max(BATCH_SIZE, queueSize);
+        this.dropWhenFull = dropWhenFull;
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueued();
+            }
+        }, "WorldGuard Blacklist Logger");
+        writer.setDaemon(true);
+        writer.start();
     }
 
     /**
-     * Log an event to the database.
+     * Queue an event to be written to the database.
      *
      * @param event The event to log
      * @param player The player associated with the event
@@ -113,28 +186,148 @@ private Connection getConnection() throws SQLException {
      */
     private void logEvent(String event, LocalPlayer player, Vector pos, int item,
             String comment) {
+        if (closed) {
+            return;
+        }
+
+        boolean waiting = false;
+        long deadline = 0;
+
+        while (true) {
+            int count = queued.get();
+
+            if (count >= queueSize) {
+                if (dropWhenFull || stalled || !writer.isAlive()) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+
+                long now = System.nanoTime();
+                if (!waiting) {
+                    waiting = true;
+                    deadline = now + FULL_WAIT;
+                } else if (now - deadline >= 0) {
+                    stalled = true;
+                    dropped.incrementAndGet();
+                    return;
+                }
+
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+
+                if (closed) {
+                    return;
+                }
+            } else if (queued.compareAndSet(count, count + 1)) {
+                if (stalled) {
+                    stalled = false;
+                }
+                queue.add(new Row(event, player.getName(), pos, item, comment));
+
+                // Don't wait for the timer when a full batch is ready
+                if (count + 1 == BATCH_SIZE) {
+                    LockSupport.unpark(writer);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write queued events until the handler is closed and nothing is left.
+     * Runs on the writer thread.
+     */
+    private void writeQueued() {
+        List<Row> batch = new ArrayList<Row>(BATCH_SIZE);
+
+        while (true) {
+            boolean closing = closed;
+            Row row;
+
+            while (batch.size() < BATCH_SIZE && (row = queue.poll()) != null) {
+                batch.add(row);
+            }
+
+            if (!batch.isEmpty()) {
+                queued.addAndGet(-batch.size());
+                write(batch);
+                batch.clear();
+            }
+
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                logger.warning("Dropped " + lost + " blacklist events because "
+                        + "the database could not keep up");
+            }
+
+            if (queue.isEmpty()) {
+                if (closing) {
+                    return;
+                }
+
+                LockSupport.parkNanos(FLUSH_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Write events to the database with as few statements as possible,
+     * using the fixed statement sizes.
+     *
+     * @param rows The events
+     */
+    private void write(List<Row> rows) {
         try {
-            Connection conn = getConnection();
-            PreparedStatement stmt = conn.prepareStatement(
-                    "INSERT INTO " + table
-                  + "(event, world, player, x, y, z, item, time, comment) VALUES "
-                  + "(?, ?, ?, ?, ?, ?, ?, ?, ?)");
-            stmt.setString(1, event);
-            stmt.setString(2, worldName);
-            stmt.setString(3, player.getName());
-            stmt.setInt(4, pos.getBlockX());
-            stmt.setInt(5, pos.getBlockY());
-            stmt.setInt(6, pos.getBlockZ());
-            stmt.setInt(7, item);
-            stmt.setInt(8, (int)(System.currentTimeMillis() / 1000));
-            stmt.setString(9, comment);
-            stmt.executeUpdate();
+            PooledConnection conn = pool.borrow();
+            try {
+                int offset = 0;
+
+                for (int size : STATEMENT_SIZES) {
+                    for (; rows.size() - offset >= size; offset += size) {
+                        write(conn, rows.subList(offset, offset + size));
+                    }
+                }
+            } finally {
+                pool.release(conn);
+            }
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to log blacklist event to database: "
-                    + e.getMessage());
+            logger.log(Level.SEVERE, "Failed to log " + rows.size()
+                    + " blacklist events to database: " + e.getMessage());
         }
     }
 
+    /**
+     * Write events to the database with one statement.
+     *
+     * @param conn The connection to use
+     * @param rows The events
+     * @throws SQLException on a database error
+     */
+    private void write(PooledConnection conn, List<Row> rows) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append("(event, world, player, x, y, z, item, time, comment) VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+
+        PreparedStatement stmt = conn.prepareStatement(sql.toString());
+        int index = 1;
+
+        for (Row row : rows) {
+            stmt.setString(index++, row.event);
+            stmt.setString(index++, worldName);
+            stmt.setString(index++, row.player);
+            stmt.setInt(index++, row.x);
+            stmt.setInt(index++, row.y);
+            stmt.setInt(index++, row.z);
+            stmt.setInt(index++, row.item);
+            stmt.setInt(index++, row.time);
+            stmt.setString(index++, row.comment);
+        }
+
+        stmt.executeUpdate();
+    }
+
     /**
      * Log an event.
      *
@@ -191,15 +384,48 @@ public void logEvent(BlacklistEvent event, String comment) {
     }
 
     /**
-     * Close the connection.
+     * Write the queued events, then release the connection pool.
      */
     public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+
         try {
-            if (conn != null && !conn.isClosed()) {
-                conn.close();
-            }
-        } catch (SQLException ignore) {
+            writer.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (writer.isAlive()) {
+            logger.warning("Gave up waiting for " + queued.get()
+                    + " blacklist events to be written to the database");
+        }
+
+        pool.close();
+    }
+
+    /**
+     * An event waiting to be written.
+     */
+    private static class Row {
+        private final String event;
+        private final String player;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final int item;
+        private final int time;
+        private final String comment;
 
+        private Row(String event, String player, Vector pos, int item, String comment) {
+            this.event = event;
+            this.player = player;
+            this.x = pos.getBlockX();
+            this.y = pos.getBlockY();
+            this.z = pos.getBlockZ();
+            this.item = item;
+            this.time = (int) (System.currentTimeMillis() / 1000);
+            this.comment = comment;
         }
     }
 }
@@ -23,17 +23,23 @@
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.ItemType;
@@ -41,19 +47,41 @@
 import com.sk89q.worldguard.blacklist.events.BlacklistEvent;
 
 /**
+ * Logs blacklist events to files. Lines are queued and written by a
+ * background thread, which flushes each file once for all the lines it
+ * wrote to it.
  *
  * @author sk89q
  */
 public class FileLoggerHandler implements BlacklistLoggerHandler {
     /**
-     * Regex for patterns in the path.
+     * Number of queued lines at which they are written without waiting
+     * for the timer.
      */
-    private static Pattern pattern = Pattern.compile("%.");
+    private static final int FLUSH_LINES = 256;
     /**
-     * Date format.
+     * How long queued lines may wait before they are written.
      */
-    private static SimpleDateFormat dateFormat =
-            new SimpleDateFormat("yyyyy-MM-dd HH:mm:ss");
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * The most lines that may wait to be written.
+     */
+    private static final int MAX_QUEUED = 10000;
+    /**
+     * How long {@link #close()} waits for the queued lines to be written.
+     */
+    private static final long CLOSE_TIMEOUT = 10000;
+    /**
+     * How many closed paths are remembered to tell reopens apart from
+     * first opens.
+     */
+    private static final int REMEMBERED_PATHS = 1000;
+
+    /**
+     * Path segment kinds that are not calendar fields.
+     */
+    private static final int SEGMENT_TEXT = -1;
+    private static final int SEGMENT_PLAYER = -2;
 
     /**
      * Number of files to keep open at a time.
@@ -63,18 +91,80 @@ public class FileLoggerHandler implements BlacklistLoggerHandler {
      * Path pattern.
      */
     private String pathPattern;
+    /**
+     * The path pattern split into its parts.
+     */
+    private final List<Segment> segments;
     /**
      * World name.
      */
     private String worldName;
     /**
-     * Cache of writers.
+     * How long a file may go unwritten before it is closed, in
+     * milliseconds. 0 keeps files open until the cache is full.
+     */
+    private final long idleTimeout;
+    /**
+     * Cache of writers, least recently used first. Only used by the
+     * writer thread.
+     */
+    private final Map<String,FileLoggerWriter> writers =
+            new LinkedHashMap<String,FileLoggerWriter>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,FileLoggerWriter> eldest) {
+            if (size() > cacheSize) {
+                closeQuietly(eldest.getValue());
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    /**
+     * Writers that were written to but not yet flushed. Only used by the
+     * writer thread.
      */
-    private TreeMap<String,FileLoggerWriter> writers =
-            new TreeMap<String,FileLoggerWriter>();
+    private final Set<FileLoggerWriter> unflushed = new LinkedHashSet<FileLoggerWriter>();
+    /**
+     * Paths that were recently closed. Only used by the writer thread.
+     */
+    private final Map<String,Boolean> closedPaths =
+            new LinkedHashMap<String,Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+            return size() > REMEMBERED_PATHS;
+        }
+    };
     
     private final Logger logger;
 
+    /**
+     * Lines waiting to be written, and their number.
+     */
+    private final Queue<Line> queue = new ConcurrentLinkedQueue<Line>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * Number of lines dropped since it was last reported.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * File handle statistics.
+     */
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong reopens = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong idleCloses = new AtomicLong();
+    private volatile int openFiles;
+
+    private final Thread writer;
+    private volatile boolean closed;
+
     /**
      * Construct the object.
      *
@@ -83,9 +173,7 @@ public class FileLoggerHandler implements BlacklistLoggerHandler {
      * @param logger The logger used to log errors
      */
     public FileLoggerHandler(String pathPattern, String worldName, Logger logger) {
-        this.pathPattern = pathPattern;
-        this.worldName = worldName;
-        this.logger = logger;
+        this(pathPattern, 10, worldName, logger);
     }
 
     /**
@@ -97,6 +185,21 @@ public FileLoggerHandler(String pathPattern, String worldName, Logger logger) {
      * @param logger The logger to log errors with
      */
     public FileLoggerHandler(String pathPattern, int cacheSize, String worldName, Logger logger) {
+        this(pathPattern, cacheSize, worldName, logger, 60);
+    }
+
+    /**
+     * Construct the object.
+     *
+     * @param pathPattern The pattern for logfile paths
+     * @param cacheSize The size of the file cache
+     * @param worldName The name of the associated world
+     * @param logger The logger to log errors with
+     * @param idleSeconds Seconds a file may go unwritten before it is
+     *            closed, or 0 to keep it open
+     */
+    public FileLoggerHandler(String pathPattern, int cacheSize, String worldName, Logger logger,
+            int idleSeconds) {
         if (cacheSize < 1) {
             throw new IllegalArgumentException("Cache size cannot be less than 1");
         }
@@ -104,64 +207,130 @@ public FileLoggerHandler(String pathPattern, int cacheSize, String worldName, Lo
         this.cacheSize = cacheSize;
         this.worldName = worldName;
         this.logger = logger;
+        this.idleTimeout = TimeUnit.SECONDS.toMillis(Math.max(0, idleSeconds));
+        this.segments = compile(pathPattern, worldName);
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueued();
+            }
+        }, "WorldGuard Blacklist File Logger");
+        writer.setDaemon(true);
+        writer.start();
     }
 
     /**
-     * Build the path.
+     * Split a path pattern into the text and the placeholders between it.
      *
-     * @param playerName The name of the playername
-     * @return The path for the logfile
+     * @param pathPattern The pattern for logfile paths
+     * @param worldName The name of the world, which never changes
+     * @return The parts of the pattern
      */
-    private String buildPath(String playerName) {
-        GregorianCalendar calendar = new GregorianCalendar();
+    private static List<Segment> compile(String pathPattern, String worldName) {
+        List<Segment> segments = new ArrayList<Segment>();
+        StringBuilder text = new StringBuilder();
 
-        Matcher m = pattern.matcher(pathPattern);
-        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < pathPattern.length(); i++) {
+            char c = pathPattern.charAt(i);
 
-        // Pattern replacements
-        while (m.find()) {
-            String group = m.group();
-            String rep = "?";
-
-            if (group.matches("%%")) {
-                rep = "%";
-            } else if (group.matches("%u")) {
-                rep = playerName.toLowerCase().replaceAll("[^A-Za-z0-9_]", "_");
-                if (rep.length() > 32) { // Actual max length is 16
-                    rep = rep.substring(0, 32);
-                }
+            if (c != '%' || i + 1 == pathPattern.length()) {
+                text.append(c);
+                continue;
+            }
 
-            }else if (group.matches("%w")) {
-                rep = worldName.toLowerCase().replaceAll("[^A-Za-z0-9_]", "_");
-                if (rep.length() > 32) { // Actual max length is 16
-                    rep = rep.substring(0, 32);
-                }
+            int field;
+            switch (pathPattern.charAt(++i)) {
+                case '%': text.append('%'); continue;
+                case 'w': text.append(sanitize(worldName)); continue;
+                case 'u': field = SEGMENT_PLAYER; break;
+                case 'Y': field = Calendar.YEAR; break;
+                case 'm': field = Calendar.MONTH; break;
+                case 'd': field = Calendar.DAY_OF_MONTH; break;
+                case 'W': field = Calendar.WEEK_OF_YEAR; break;
+                case 'H': field = Calendar.HOUR_OF_DAY; break;
+                case 'h': field = Calendar.HOUR; break;
+                case 'i': field = Calendar.MINUTE; break;
+                case 's': field = Calendar.SECOND; break;
+                default: text.append('?'); continue;
+            }
 
-            // Date and time
-            } else if (group.matches("%Y")) {
-                rep = String.valueOf(calendar.get(Calendar.YEAR));
-            } else if (group.matches("%m")) {
-                rep = String.format("%02d", calendar.get(Calendar.MONTH));
-            } else if (group.matches("%d")) {
-                rep = String.format("%02d", calendar.get(Calendar.DAY_OF_MONTH));
-            } else if (group.matches("%W")) {
-                rep = String.format("%02d", calendar.get(Calendar.WEEK_OF_YEAR));
-            } else if (group.matches("%H")) {
-                rep = String.format("%02d", calendar.get(Calendar.HOUR_OF_DAY));
-            } else if (group.matches("%h")) {
-                rep = String.format("%02d", calendar.get(Calendar.HOUR));
-            } else if (group.matches("%i")) {
-                rep = String.format("%02d", calendar.get(Calendar.MINUTE));
-            } else if (group.matches("%s")) {
-                rep = String.format("%02d", calendar.get(Calendar.SECOND));
+            if (text.length() > 0) {
+                segments.add(new Segment(SEGMENT_TEXT, text.toString()));
+                text.setLength(0);
             }
+            segments.add(new Segment(field, null));
+        }
 
-            m.appendReplacement(buffer, rep);
+        if (text.length() > 0) {
+            segments.add(new Segment(SEGMENT_TEXT, text.toString()));
         }
 
-        m.appendTail(buffer);
+        return segments;
+    }
 
-        return buffer.toString();
+    /**
+     * Make a name safe to use in a path.
+     *
+     * @param name The name
+     * @return The lowercase name with only letters, digits and underscores
+     */
+    private static String sanitize(String name) {
+        String rep = name.toLowerCase().replaceAll("[^A-Za-z0-9_]", "_");
+        if (rep.length() > 32) { // Actual max length is 16
+            rep = rep.substring(0, 32);
+        }
+        return rep;
+    }
+
+    /**
+     * Build the path.
+     *
+     * @param playerName The name of the playername
+     * @param calendar The time of the event
+     * @return The path for the logfile
+     */
+    private String buildPath(String playerName, Calendar calendar) {
+        StringBuilder path = new StringBuilder();
+
+        for (Segment segment : segments) {
+            if (segment.field == SEGMENT_TEXT) {
+                path.append(segment.text);
+            } else if (segment.field == SEGMENT_PLAYER) {
+                path.append(sanitize(playerName));
+            } else if (segment.field == Calendar.YEAR) {
+                path.append(calendar.get(Calendar.YEAR));
+            } else {
+                pad(path, calendar.get(segment.field), 2);
+            }
+        }
+
+        return path.toString();
+    }
+
+    /**
+     * Format the time of an event for a log line.
+     *
+     * @param calendar The time of the event
+     * @return The time, as yyyyy-MM-dd HH:mm:ss
+     */
+    private static String formatDate(Calendar calendar) {
+        StringBuilder date = new StringBuilder(20);
+        pad(date, calendar.get(Calendar.YEAR), 5).append('-');
+        pad(date, calendar.get(Calendar.MONTH) + 1, 2).append('-');
+        pad(date, calendar.get(Calendar.DAY_OF_MONTH), 2).append(' ');
+        pad(date, calendar.get(Calendar.HOUR_OF_DAY), 2).append(':');
+        pad(date, calendar.get(Calendar.MINUTE), 2).append(':');
+        pad(date, calendar.get(Calendar.SECOND), 2);
+        return date.toString();
+    }
+
+    private static StringBuilder pad(StringBuilder out, int value, int width) {
+        String digits = String.valueOf(value);
+        for (int i = digits.length(); i < width; i++) {
+            out.append('0');
+        }
+        return out.append(digits);
     }
 
     /**
@@ -172,27 +341,106 @@ private String buildPath(String playerName) {
      * @param comment The comment associated with the logged event
      */
     private void log(LocalPlayer player, String message, String comment) {
-        String path = buildPath(player.getName());
-        try {
-            String date = dateFormat.format(new Date());
-            String line = "[" + date + "] " + player.getName() + ": " + message
-                    + (comment != null ? " (" + comment + ")" : "") + "\r\n";
+        if (closed) {
+            return;
+        }
+
+        while (true) {
+            int count = queued.get();
+
+            if (count >= MAX_QUEUED) {
+                dropped.incrementAndGet();
+                return;
+            }
+
+            if (queued.compareAndSet(count, count + 1)) {
+                Calendar calendar = new GregorianCalendar();
+                String line = "[" + formatDate(calendar) + "] " + player.getName() + ": " + message
+                        + (comment != null ? " (" + comment + ")" : "") + "\r\n";
+                queue.add(new Line(buildPath(player.getName(), calendar), line));
+
+                // Don't wait for the timer when many lines are waiting
+                if (count + 1 == FLUSH_LINES) {
+                    LockSupport.unpark(writer);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write queued lines until the handler is closed and nothing is left.
+     * Runs on the writer thread.
+     */
+    private void writeQueued() {
+        while (true) {
+            boolean closing = closed;
+            Line line;
 
-            FileLoggerWriter writer = writers.get(path);
+            while ((line = queue.poll()) != null) {
+                queued.decrementAndGet();
+                FileLoggerWriter fileWriter = write(line);
+                if (fileWriter != null) {
+                    unflushed.add(fileWriter);
+                }
+            }
 
-            // Writer already exists!
-            if (writer != null) {
+            // One flush per file for all its lines
+            for (FileLoggerWriter fileWriter : new ArrayList<FileLoggerWriter>(unflushed)) {
+                String path = fileWriter.getPath();
                 try {
-                    BufferedWriter out = writer.getWriter();
-                    out.write(line);
-                    out.flush();
-                    writer.updateLastUse();
-                    return;
+                    fileWriter.getWriter().flush();
                 } catch (IOException e) {
-                    // Failed initial rewrite... let's re-open
+                    logger.log(Level.WARNING, "Failed to log blacklist event to '"
+                            + path + "': " + e.getMessage());
+                    closeWriter(path);
                 }
             }
+            unflushed.clear();
+
+            if (!closing) {
+                closeIdleWriters();
+            }
+            openFiles = writers.size();
+
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                logger.warning("Dropped " + lost + " blacklist log lines because "
+                        + "the files could not be written fast enough");
+            }
+
+            if (closing) {
+                closeWriters();
+                return;
+            }
+
+            LockSupport.parkNanos(FLUSH_INTERVAL);
+        }
+    }
+
+    /**
+     * Write a line to its file, without flushing it.
+     *
+     * @param line The line
+     * @return The writer of the file, or null if the line was not written
+     */
+    private FileLoggerWriter write(Line line) {
+        String path = line.path;
+        FileLoggerWriter writer = writers.get(path);
+
+        // Writer already exists!
+        if (writer != null) {
+            try {
+                writer.getWriter().write(line.text);
+                writer.updateLastUse();
+                return writer;
+            } catch (IOException e) {
+                // Failed initial rewrite... let's re-open
+                closeWriter(path);
+            }
+        }
 
+        try {
             // Make parent directory
             File file = new File(path);
             File parent = file.getParentFile();
@@ -202,36 +450,132 @@ private void log(LocalPlayer player, String message, String comment) {
 
             FileWriter stream = new FileWriter(path, true);
             BufferedWriter out = new BufferedWriter(stream);
-            out.write(line);
-            out.flush();
+            out.write(line.text);
             writer = new FileLoggerWriter(path, out);
             writers.put(path, writer);
 
-            // Check to make sure our cache doesn't get too big!
-            if (writers.size() > cacheSize) {
-                Iterator<Map.Entry<String,FileLoggerWriter>> it =
-                        writers.entrySet().iterator();
-
-                // Remove some entries
-                for (; it.hasNext(); ) {
-                    Map.Entry<String,FileLoggerWriter> entry = it.next();
-                    try {
-                        entry.getValue().getWriter().close();
-                    } catch (IOException ignore) {
-                    }
-                    it.remove();
-
-                    // Trimmed enough
-                    if (writers.size() <= cacheSize) {
-                        break;
-                    }
-                }
+            opens.incrementAndGet();
+            if (closedPaths.remove(path) != null) {
+                reopens.incrementAndGet();
             }
 
+            return writer;
         } catch (IOException e) {
             logger.log(Level.WARNING, "Failed to log blacklist event to '"
                     + path + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Close the writer of a file.
+     *
+     * @param path The path of the file
+     */
+    private void closeWriter(String path) {
+        FileLoggerWriter writer = writers.remove(path);
+        if (writer != null) {
+            closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Close the writers of files that have not been written to for the
+     * idle timeout.
+     */
+    private void closeIdleWriters() {
+        if (idleTimeout <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Iterator<FileLoggerWriter> it = writers.values().iterator();
+
+        // Least recently used first, so stop at the first busy file
+        while (it.hasNext()) {
+            FileLoggerWriter writer = it.next();
+            if (now - writer.getLastUse() < idleTimeout) {
+                break;
+            }
+
+            closeQuietly(writer);
+            it.remove();
+            idleCloses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Close all writers.
+     */
+    private void closeWriters() {
+        for (FileLoggerWriter writer : writers.values()) {
+            closeQuietly(writer);
         }
+
+        writers.clear();
+        openFiles = 0;
+    }
+
+    /**
+     * Close a writer, remembering its path to count it if it is reopened.
+     *
+     * @param writer The writer
+     */
+    private void closeQuietly(FileLoggerWriter writer) {
+        // Closing flushes the writer
+        unflushed.remove(writer);
+        closedPaths.put(writer.getPath(), Boolean.TRUE);
+        try {
+            writer.getWriter().close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Get the number of files that are open.
+     *
+     * @return The number of open files
+     */
+    public int getOpenFileCount() {
+        return openFiles;
+    }
+
+    /**
+     * Get the number of times a file was opened.
+     *
+     * @return The number of opens
+     */
+    public long getOpenCount() {
+        return opens.get();
+    }
+
+    /**
+     * Get the number of times a recently closed file was opened again.
+     * A high number compared to {@link #getOpenCount()} means the cache
+     * is too small for the number of files written to.
+     *
+     * @return The number of reopens
+     */
+    public long getReopenCount() {
+        return reopens.get();
+    }
+
+    /**
+     * Get the number of files closed to make room in the cache.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of files closed because they were not written to.
+     *
+     * @return The number of idle closes
+     */
+    public long getIdleCloseCount() {
+        return idleCloses.get();
     }
 
     /**
@@ -274,16 +618,47 @@ private static String getFriendlyItemName(int id) {
     }
 
     /**
-     * Close handles.
+     * Write the queued lines and close handles.
      */
     public void close() {
-        for (Map.Entry<String,FileLoggerWriter> entry : writers.entrySet()) {
-            try {
-                entry.getValue().getWriter().close();
-            } catch (IOException ignore) {
-            }
+        closed = true;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
-        writers.clear();
+        if (writer.isAlive()) {
+            logger.warning("Gave up waiting for " + queued.get()
+                    + " blacklist log lines to be written");
+        }
+    }
+
+    /**
+     * A part of the path pattern.
+     */
+    private static class Segment {
+        private final int field;
+        private final String text;
+
+        private Segment(int field, String text) {
+            this.field = field;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A line waiting to be written.
+     */
+    private static class Line {
+        private final String path;
+        private final String text;
+
+        private Line(String path, String text) {
+            this.path = path;
+            this.text = text;
+        }
     }
 }
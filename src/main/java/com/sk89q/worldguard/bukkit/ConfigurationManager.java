@@ -96,6 +96,7 @@ public class ConfigurationManager {
 
     public boolean useRegionsScheduler;
     public boolean useRegionsCreatureSpawnEvent;
+    public boolean useChunkIndex;
     public boolean activityHaltToggle = false;
     public boolean autoGodMode;
     public boolean usePlayerMove;
@@ -108,6 +109,12 @@ public class ConfigurationManager {
      * Region Storage Configuration method, and config values
      */
     public boolean useSqlDatabase = false;
+    public boolean useBinaryDatabase = false;
+    public boolean useRegionJournal = false;
+    public int regionJournalCompactSize;
+    public boolean useLazyRegionLoading = false;
+    public int regionIdleUnloadMinutes;
+    public boolean reloadChangedRegions = false;
     public String sqlDsn;
     public String sqlUsername;
     public String sqlPassword;
@@ -142,6 +149,7 @@ public void load() {
         config.removeProperty("suppress-tick-sync-warnings");
         useRegionsScheduler = config.getBoolean("regions.use-scheduler", true);
         useRegionsCreatureSpawnEvent = config.getBoolean("regions.use-creature-spawn-event", true);
+        useChunkIndex = config.getBoolean("regions.use-chunk-index", false);
         autoGodMode = config.getBoolean("auto-invincible", config.getBoolean("auto-invincible-permission", false));
         config.removeProperty("auto-invincible-permission");
         usePlayerMove = config.getBoolean("use-player-move-event", true);
@@ -164,6 +172,18 @@ public void load() {
 
         useSqlDatabase = config.getBoolean(
                 "regions.sql.use", false);
+        useBinaryDatabase = config.getBoolean(
+                "regions.binary.use", false);
+        useRegionJournal = config.getBoolean(
+                "regions.journal.use", false);
+        regionJournalCompactSize = config.getInt(
+                "regions.journal.compact-size-kb", 1024);
+        useLazyRegionLoading = config.getBoolean(
+                "regions.lazy-load.use", false);
+        regionIdleUnloadMinutes = config.getInt(
+                "regions.lazy-load.unload-after-minutes", 10);
+        reloadChangedRegions = config.getBoolean(
+                "regions.reload-changed-files", false);
 
         sqlDsn = config.getString("regions.sql.dsn", "jdbc:mysql://localhost/worldguard");
         sqlUsername = config.getString("regions.sql.username", "worldguard");
@@ -182,12 +202,29 @@ public void load() {
     }
 
     /**
-     * Unload the configuration.
+     * Unload the configuration. Blacklist loggers are closed, which writes
+     * the events they still have queued.
      */
     public void unload() {
+        for (WorldConfiguration config : worlds.values()) {
+            closeBlacklist(config);
+        }
+
         worlds.clear();
     }
 
+    /**
+     * Close the blacklist logger of a world configuration.
+     *
+     * @param config The world configuration
+     */
+    private static void closeBlacklist(WorldConfiguration config) {
+        Blacklist bl = config.getBlacklist();
+        if (bl != null) {
+            bl.getLogger().close();
+        }
+    }
+
     /**
      * Get the configuration for a world.
      *
@@ -207,6 +244,11 @@ public WorldConfiguration get(World world) {
             config = worlds.get(world.getName());
         }
 
+        // Another thread loaded the world first
+        if (newConfig != null && newConfig != config) {
+            closeBlacklist(newConfig);
+        }
+
         return config;
     }
 
@@ -230,6 +272,32 @@ public void forgetPlayer(LocalPlayer player) {
         hasAmphibious.remove(player.getName());
     }
 
+    /**
+     * Forget the groups and permissions remembered for a player.
+     *
+     * @param player The player to forget about
+     */
+    public void forgetPermissions(LocalPlayer player) {
+        for (WorldConfiguration config : worlds.values()) {
+            Blacklist bl = config.getBlacklist();
+            if (bl != null) {
+                bl.forgetPermissions(player);
+            }
+        }
+    }
+
+    /**
+     * Forget the groups and permissions remembered for all players.
+     */
+    public void forgetAllPermissions() {
+        for (WorldConfiguration config : worlds.values()) {
+            Blacklist bl = config.getBlacklist();
+            if (bl != null) {
+                bl.forgetAllPermissions();
+            }
+        }
+    }
+
     /**
      * Enable god mode for a player.
      *
@@ -19,12 +19,11 @@
 
 package com.sk89q.worldguard.bukkit;
 
-import static com.sk89q.worldguard.bukkit.BukkitUtil.toVector;
-
 import java.util.HashMap;
 import java.util.Map;
 
 import org.bukkit.GameMode;
+import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 
@@ -83,9 +82,7 @@ public void run() {
                 }
             }
 
-            Vector playerLocation = toVector(player.getLocation());
-            RegionManager regionManager = plugin.getGlobalRegionManager().get(player.getWorld());
-            ApplicableRegionSet applicable = regionManager.getApplicableRegions(playerLocation);
+            ApplicableRegionSet applicable = getApplicableRegions(state, player.getLocation());
 
             if (!RegionQueryUtil.isInvincible(plugin, player, applicable)
                     && !plugin.getGlobalStateManager().hasGodMode(player)
@@ -224,6 +221,56 @@ public synchronized PlayerFlagState getState(Player player) {
         return state;
     }
 
+    /**
+     * Get the regions at a location for a player. The set from the player's
+     * previous lookup is reused if it was for the same block and the
+     * regions have not changed since. The set remembers the flag values it
+     * resolves, so a change to the player's groups is only seen once the
+     * player moves to another block.
+     *
+     * @param player The player
+     * @param location The location, usually the player's
+     * @return The set of applicable regions
+     */
+    public ApplicableRegionSet getApplicableRegions(Player player, Location location) {
+        return getApplicableRegions(getState(player), location);
+    }
+
+    /**
+     * Get the regions at a location, using the set cached in a state.
+     *
+     * @param state The player's state
+     * @param location The location
+     * @return The set of applicable regions
+     */
+    private ApplicableRegionSet getApplicableRegions(PlayerFlagState state, Location location) {
+        RegionManager mgr = plugin.getGlobalRegionManager().get(location.getWorld());
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+
+        if (state.lastRegionSet != null
+                && state.lastRegionManager == mgr
+                && state.lastRegionVersion == mgr.getVersion()
+                && state.lastRegionX == x
+                && state.lastRegionY == y
+                && state.lastRegionZ == z) {
+            return state.lastRegionSet;
+        }
+
+        ApplicableRegionSet set = mgr.getApplicableRegions(new Vector(x, y, z));
+        set.rememberResults();
+
+        state.lastRegionSet = set;
+        state.lastRegionManager = mgr;
+        state.lastRegionVersion = mgr.getVersion();
+        state.lastRegionX = x;
+        state.lastRegionY = y;
+        state.lastRegionZ = z;
+
+        return set;
+    }
+
     /**
      * Keeps state per player.
      */
@@ -247,5 +294,13 @@ public static class PlayerFlagState {
         public int lastInvincibleY;
         public int lastInvincibleZ;
         public boolean wasInvincible;
+
+        /* Used to cache the regions at the last looked up block */
+        public ApplicableRegionSet lastRegionSet;
+        public RegionManager lastRegionManager;
+        public long lastRegionVersion;
+        public int lastRegionX;
+        public int lastRegionY;
+        public int lastRegionZ;
     }
 }
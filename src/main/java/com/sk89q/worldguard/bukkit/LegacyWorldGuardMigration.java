@@ -87,7 +87,7 @@ public static void migrateRegions(WorldGuardPlugin plugin) {
                     + "and set as your primary world's database.");
 
             World w = plugin.getServer().getWorlds().get(0);
-            RegionManager mgr = plugin.getGlobalRegionManager().get(w);
+            RegionManager mgr = plugin.getGlobalRegionManager().getLoaded(w);
 
             // First load up the old database using the CSV loader
             CSVDatabase db = new CSVDatabase(oldDatabase, plugin.getLogger());
@@ -35,6 +35,8 @@
 import org.bukkit.entity.Entity;
 import org.bukkit.plugin.Plugin;
 
+import com.sk89q.worldguard.blacklist.loggers.BlacklistLoggerHandler;
+import com.sk89q.worldguard.blacklist.loggers.FileLoggerHandler;
 import com.sk89q.worldguard.protection.GlobalRegionManager;
 import com.sk89q.worldguard.protection.flags.DefaultFlag;
 import com.sk89q.worldguard.protection.flags.Flag;
@@ -286,6 +288,19 @@ private void appendWorldConfigurations(WorldGuardPlugin plugin, List<World> worl
                         config.getBlacklist().getItemCount());
                 blacklistLog.put("Is whitelist",
                         config.getBlacklist().isWhitelist());
+
+                for (BlacklistLoggerHandler handler
+                        : config.getBlacklist().getLogger().getHandlers()) {
+                    if (handler instanceof FileLoggerHandler) {
+                        FileLoggerHandler fileHandler = (FileLoggerHandler) handler;
+                        LogListBlock fileLog = blacklistLog.putChild("Log files");
+                        fileLog.put("Open", fileHandler.getOpenFileCount());
+                        fileLog.put("Opened", fileHandler.getOpenCount());
+                        fileLog.put("Reopened", fileHandler.getReopenCount());
+                        fileLog.put("Closed to make room", fileHandler.getEvictionCount());
+                        fileLog.put("Closed when idle", fileHandler.getIdleCloseCount());
+                    }
+                }
             }
 
             RegionManager worldRegions = regionMgr.get(world);
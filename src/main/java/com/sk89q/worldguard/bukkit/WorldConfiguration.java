@@ -458,11 +458,14 @@ private void loadConfiguration() {
         String user = getString("blacklist.logging.database.user", "root");
         String pass = getString("blacklist.logging.database.pass", "");
         String table = getString("blacklist.logging.database.table", "blacklist_events");
+        int queueSize = getInt("blacklist.logging.database.queue-size", 10000);
+        boolean dropWhenFull = getBoolean("blacklist.logging.database.drop-when-full", true);
 
         // File log configuration
         boolean logFile = getBoolean("blacklist.logging.file.enable", false);
         String logFilePattern = getString("blacklist.logging.file.path", "worldguard/logs/%Y-%m-%d.log");
         int logFileCacheSize = Math.max(1, getInt("blacklist.logging.file.open-files", 10));
+        int logFileIdleSeconds = Math.max(0, getInt("blacklist.logging.file.close-after-seconds", 60));
 
         // Load the blacklist
         try {
@@ -488,7 +491,8 @@ private void loadConfiguration() {
                 BlacklistLogger blacklistLogger = blist.getLogger();
 
                 if (logDatabase) {
-                    blacklistLogger.addHandler(new DatabaseLoggerHandler(dsn, user, pass, table, worldName, plugin.getLogger()));
+                    blacklistLogger.addHandler(new DatabaseLoggerHandler(dsn, user, pass, table, worldName,
+                            plugin.getLogger(), queueSize, dropWhenFull));
                 }
 
                 if (logConsole) {
@@ -497,7 +501,8 @@ private void loadConfiguration() {
 
                 if (logFile) {
                     FileLoggerHandler handler =
-                            new FileLoggerHandler(logFilePattern, logFileCacheSize, worldName, plugin.getLogger());
+                            new FileLoggerHandler(logFilePattern, logFileCacheSize, worldName,
+                                    plugin.getLogger(), logFileIdleSeconds);
                     blacklistLogger.addHandler(handler);
                 }
             }
@@ -20,6 +20,9 @@
 
 import static com.sk89q.worldguard.bukkit.BukkitUtil.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -867,16 +870,19 @@ public void onBlockPistonExtend(BlockPistonExtendEvent event) {
         WorldConfiguration wcfg = cfg.get(event.getBlock().getWorld());
 
         if (wcfg.useRegions) {
-            if (!plugin.getGlobalRegionManager().allows(DefaultFlag.PISTONS, event.getBlock().getLocation())) {
+            // Look the regions up once for the piston and all pushed blocks
+            List<Block> blocks = event.getBlocks();
+            List<Vector> points = new ArrayList<Vector>(blocks.size() + 1);
+            points.add(toVector(event.getBlock()));
+            for (Block block : blocks) {
+                points.add(toVector(block));
+            }
+
+            RegionManager mgr = plugin.getGlobalRegionManager().get(event.getBlock().getWorld());
+            if (!mgr.allowsAll(DefaultFlag.PISTONS, points)) {
                 event.setCancelled(true);
                 return;
             }
-            for (Block block : event.getBlocks()) {
-                if (!plugin.getGlobalRegionManager().allows(DefaultFlag.PISTONS, block.getLocation())) {
-                    event.setCancelled(true);
-                    return;
-                }
-            }
         }
     }
 
@@ -20,6 +20,8 @@
 
 import static com.sk89q.worldguard.bukkit.BukkitUtil.toVector;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import org.bukkit.ChatColor;
@@ -79,6 +81,7 @@
 import com.sk89q.worldguard.protection.GlobalRegionManager;
 import com.sk89q.worldguard.protection.events.DisallowedPVPEvent;
 import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
 import com.sk89q.worldguard.protection.managers.RegionManager;
 
 /**
@@ -602,12 +605,10 @@ public void onEntityExplode(EntityExplodeEvent event) {
             if (wcfg.useRegions) {
                 RegionManager mgr = plugin.getGlobalRegionManager().get(world);
 
-                for (Block block : event.blockList()) {
-                    if (!mgr.getApplicableRegions(toVector(block)).allows(DefaultFlag.CREEPER_EXPLOSION)) {
-                        event.blockList().clear();
-                        if (wcfg.explosionFlagCancellation) event.setCancelled(true);
-                        return;
-                    }
+                if (!allowsAll(mgr, DefaultFlag.CREEPER_EXPLOSION, event.blockList())) {
+                    event.blockList().clear();
+                    if (wcfg.explosionFlagCancellation) event.setCancelled(true);
+                    return;
                 }
             }
         } else if (ent instanceof EnderDragon) {
@@ -619,12 +620,10 @@ public void onEntityExplode(EntityExplodeEvent event) {
             if (wcfg.useRegions) {
                 RegionManager mgr = plugin.getGlobalRegionManager().get(world);
 
-                for (Block block : event.blockList()) {
-                    if (!mgr.getApplicableRegions(toVector(block)).allows(DefaultFlag.ENDERDRAGON_BLOCK_DAMAGE)) {
-                        event.blockList().clear();
-                        if (wcfg.explosionFlagCancellation) event.setCancelled(true);
-                        return;
-                    }
+                if (!allowsAll(mgr, DefaultFlag.ENDERDRAGON_BLOCK_DAMAGE, event.blockList())) {
+                    event.blockList().clear();
+                    if (wcfg.explosionFlagCancellation) event.setCancelled(true);
+                    return;
                 }
             }
         } else if (ent instanceof TNTPrimed || ent instanceof ExplosiveMinecart) {
@@ -640,12 +639,10 @@ public void onEntityExplode(EntityExplodeEvent event) {
             if (wcfg.useRegions) {
                 RegionManager mgr = plugin.getGlobalRegionManager().get(world);
 
-                for (Block block : event.blockList()) {
-                    if (!mgr.getApplicableRegions(toVector(block)).allows(DefaultFlag.TNT)) {
-                        event.blockList().clear();
-                        if (wcfg.explosionFlagCancellation) event.setCancelled(true);
-                        return;
-                    }
+                if (!allowsAll(mgr, DefaultFlag.TNT, event.blockList())) {
+                    event.blockList().clear();
+                    if (wcfg.explosionFlagCancellation) event.setCancelled(true);
+                    return;
                 }
             }
         } else if (ent instanceof Fireball) {
@@ -672,12 +669,10 @@ public void onEntityExplode(EntityExplodeEvent event) {
             if (wcfg.useRegions) {
                 RegionManager mgr = plugin.getGlobalRegionManager().get(world);
 
-                for (Block block : event.blockList()) {
-                    if (!mgr.getApplicableRegions(toVector(block)).allows(DefaultFlag.GHAST_FIREBALL)) {
-                        event.blockList().clear();
-                        if (wcfg.explosionFlagCancellation) event.setCancelled(true);
-                        return;
-                    }
+                if (!allowsAll(mgr, DefaultFlag.GHAST_FIREBALL, event.blockList())) {
+                    event.blockList().clear();
+                    if (wcfg.explosionFlagCancellation) event.setCancelled(true);
+                    return;
                 }
             }
         } else if (ent instanceof Wither) {
@@ -985,6 +980,23 @@ private boolean isInvincible(Player player) {
         }
     }
 
+    /**
+     * Check whether a flag is allowed at every one of the given blocks, such
+     * as the blocks destroyed by an explosion.
+     *
+     * @param mgr The region manager of the blocks' world
+     * @param flag The flag to check
+     * @param blocks The blocks
+     * @return Whether the flag is allowed for all blocks
+     */
+    private static boolean allowsAll(RegionManager mgr, StateFlag flag, List<Block> blocks) {
+        List<Vector> points = new ArrayList<Vector>(blocks.size());
+        for (Block block : blocks) {
+            points.add(toVector(block));
+        }
+        return mgr.allowsAll(flag, points);
+    }
+
     /**
      * Using a DisallowedPVPEvent, notifies other plugins that WorldGuard
      * wants to cancel a PvP damage event.<br />
@@ -138,9 +138,7 @@ public static boolean checkMove(WorldGuardPlugin plugin, Player player, Location
         boolean hasBypass = plugin.getGlobalRegionManager().hasBypass(player, world);
         boolean hasRemoteBypass = plugin.getGlobalRegionManager().hasBypass(player, toWorld);
 
-        RegionManager mgr = plugin.getGlobalRegionManager().get(toWorld);
-        Vector pt = new Vector(to.getBlockX(), to.getBlockY(), to.getBlockZ());
-        ApplicableRegionSet set = mgr.getApplicableRegions(pt);
+        ApplicableRegionSet set = plugin.getFlagStateManager().getApplicableRegions(player, to);
 
         /*
         // check if region is full
@@ -328,6 +326,9 @@ public void onPlayerJoin(PlayerJoinEvent event) {
         ConfigurationManager cfg = plugin.getGlobalStateManager();
         WorldConfiguration wcfg = cfg.get(world);
 
+        // Permissions may have changed while the player was away
+        cfg.forgetPermissions(plugin.wrapPlayer(player));
+
         if (cfg.activityHaltToggle) {
             player.sendMessage(ChatColor.YELLOW
                     + "Intensive server activity has been HALTED.");
@@ -1339,9 +1340,7 @@ public void onPlayerRespawn(PlayerRespawnEvent event) {
         WorldConfiguration wcfg = cfg.get(player.getWorld());
 
         if (wcfg.useRegions) {
-            Vector pt = toVector(location);
-            RegionManager mgr = plugin.getGlobalRegionManager().get(player.getWorld());
-            ApplicableRegionSet set = mgr.getApplicableRegions(pt);
+            ApplicableRegionSet set = plugin.getFlagStateManager().getApplicableRegions(player, location);
 
             LocalPlayer localPlayer = plugin.wrapPlayer(player);
             com.sk89q.worldedit.Location spawn = set.getFlag(DefaultFlag.SPAWN_LOC, localPlayer);
@@ -1435,9 +1434,7 @@ public void onPlayerCommandPreprocess(PlayerCommandPreprocessEvent event) {
         WorldConfiguration wcfg = cfg.get(world);
 
         if (wcfg.useRegions && !plugin.getGlobalRegionManager().hasBypass(player, world)) {
-            Vector pt = toVector(player.getLocation());
-            RegionManager mgr = plugin.getGlobalRegionManager().get(world);
-            ApplicableRegionSet set = mgr.getApplicableRegions(pt);
+            ApplicableRegionSet set = plugin.getFlagStateManager().getApplicableRegions(player, player.getLocation());
 
             String usedCommand = event.getMessage().toLowerCase();
 
@@ -61,6 +61,7 @@
 import com.sk89q.worldguard.bukkit.commands.ToggleCommands;
 import com.sk89q.worldguard.protection.GlobalRegionManager;
 import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.util.ConnectionPool;
 import com.sk89q.worldguard.util.FatalConfigurationLoadingException;
 
 /**
@@ -174,6 +175,24 @@ public void run() {
                     FlagStateManager.RUN_DELAY, FlagStateManager.RUN_DELAY);
         }
 
+        // Unload the regions of worlds that are no longer used
+        getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+            @Override
+            public void run() {
+                globalRegionManager.unloadIdle();
+            }
+        }, 20 * 60, 20 * 60);
+
+        // Pick up region files that were edited by hand
+        getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+            @Override
+            public void run() {
+                if (configuration.reloadChangedRegions) {
+                    globalRegionManager.reloadChanged();
+                }
+            }
+        }, 20 * 5, 20 * 5);
+
         // Register events
         (new WorldGuardPlayerListener(this)).registerEvents();
         (new WorldGuardBlockListener(this)).registerEvents();
@@ -212,7 +231,10 @@ public void run() {
     @Override
     public void onDisable() {
         globalRegionManager.unload();
+        // Closes the blacklist loggers, which need the pools to write
+        // their queued events
         configuration.unload();
+        ConnectionPool.closeAll();
         this.getServer().getScheduler().cancelTasks(this);
     }
 
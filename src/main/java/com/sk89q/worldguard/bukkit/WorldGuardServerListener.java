@@ -27,6 +27,9 @@ public void onPluginEnable(PluginEnableEvent event) {
         if (event.getPlugin().getDescription().getName().equalsIgnoreCase("CommandBook")) {
             plugin.getGlobalStateManager().updateCommandBookGodMode();
         }
+
+        // A permissions plugin may have been loaded or reloaded
+        plugin.getGlobalStateManager().forgetAllPermissions();
     }
 
     @EventHandler
@@ -34,5 +37,7 @@ public void onPluginDisable(PluginDisableEvent event) {
         if (event.getPlugin().getDescription().getName().equalsIgnoreCase("CommandBook")) {
             plugin.getGlobalStateManager().updateCommandBookGodMode();
         }
+
+        plugin.getGlobalStateManager().forgetAllPermissions();
     }
 }
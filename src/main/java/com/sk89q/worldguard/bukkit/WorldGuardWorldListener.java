@@ -5,13 +5,19 @@
 */
 package com.sk89q.worldguard.bukkit;
 
+import org.bukkit.Chunk;
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.WorldLoadEvent;
 
+import com.sk89q.worldguard.protection.managers.ChunkRegionManager;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+
 public class WorldGuardWorldListener implements Listener {
 
     private WorldGuardPlugin plugin;
@@ -53,6 +59,22 @@ public void onChunkLoad(ChunkLoadEvent event) {
         }
     }
 
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        ConfigurationManager cfg = plugin.getGlobalStateManager();
+
+        if (!cfg.useChunkIndex) {
+            return;
+        }
+
+        Chunk chunk = event.getChunk();
+        RegionManager mgr = plugin.getGlobalRegionManager().getIfLoaded(chunk.getWorld());
+
+        if (mgr instanceof ChunkRegionManager) {
+            ((ChunkRegionManager) mgr).unloadChunk(chunk.getX(), chunk.getZ());
+        }
+    }
+
     @EventHandler
     public void onWorldLoad(WorldLoadEvent event) {
         initWorld(event.getWorld());
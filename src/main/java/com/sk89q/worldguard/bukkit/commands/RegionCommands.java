@@ -18,17 +18,24 @@
 
 package com.sk89q.worldguard.bukkit.commands;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.bukkit.ChatColor;
 import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitScheduler;
 
 import com.sk89q.minecraft.util.commands.Command;
 import com.sk89q.minecraft.util.commands.CommandContext;
@@ -289,9 +296,16 @@ private static ProtectedRegion createRegionFromSelection(Player player, String i
         }
     }
 
-    private static void commitChanges(CommandSender sender, RegionManager regionManager)
-            throws CommandException {
-        commitChanges(sender, regionManager, false);
+    /**
+     * Save the region database in the background, so that region edits
+     * don't hold up the server. Errors are logged by the region manager,
+     * and the sender is told about them once the save is done.
+     * 
+     * @param sender the sender
+     * @param regionManager the region manager
+     */
+    private void commitChanges(CommandSender sender, RegionManager regionManager) {
+        new SaveReporter(sender, regionManager.saveChanges()).start();
     }
 
     private static void reloadChanges(CommandSender sender, RegionManager regionManager)
@@ -422,7 +436,7 @@ public void define(CommandContext args, CommandSender sender)
         String id = validateRegionId(args.getString(0), false);
         
         // Can't replace regions with this command
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(player.getWorld());
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(player.getWorld());
         if (regionManager.hasRegion(id)) {
             throw new CommandException(
                     "That region is already defined. To change the shape, use " +
@@ -480,7 +494,7 @@ public void redefine(CommandContext args, CommandSender sender)
         String id = validateRegionId(args.getString(0), false);
 
         // Lookup the existing region
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion existing = findExistingRegion(regionManager, id, false);
 
         // Check permissions
@@ -543,7 +557,7 @@ public void claim(CommandContext args, CommandSender sender) throws CommandExcep
         String id = validateRegionId(args.getString(0), false);
 
         // Can't replace existing regions
-        RegionManager mgr = plugin.getGlobalRegionManager().get(player.getWorld());
+        RegionManager mgr = plugin.getGlobalRegionManager().getLoaded(player.getWorld());
         if (mgr.hasRegion(id)) {
             throw new CommandException(
                     "That region already exists. Please choose a different name.");
@@ -648,7 +662,7 @@ public void claim(CommandContext args, CommandSender sender) throws CommandExcep
     public void select(CommandContext args, CommandSender sender) throws CommandException {
         Player player = plugin.checkPlayer(sender);
         World world = player.getWorld();
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion existing;
         
         // If no arguments were given, get the region that the player is inside
@@ -684,7 +698,7 @@ public void info(CommandContext args, CommandSender sender) throws CommandExcept
         RegionPermissionModel permModel = getPermissionModel(sender);
 
         // Lookup the existing region
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion existing;
         
         if (args.argsLength() == 0) { // Get region from where the player is
@@ -756,27 +770,34 @@ public void list(CommandContext args, CommandSender sender) throws CommandExcept
             }
         }
 
-        RegionManager mgr = plugin.getGlobalRegionManager().get(world);
-        Map<String, ProtectedRegion> regions = mgr.getRegions();
+        RegionManager mgr = plugin.getGlobalRegionManager().getLoaded(world);
 
         // Build a list of regions to show
         List<RegionListEntry> entries = new ArrayList<RegionListEntry>();
         
         int index = 0;
-        for (String id : regions.keySet()) {
-            RegionListEntry entry = new RegionListEntry(id, index++);
-            
-            // Filtering by owner?
-            if (ownedBy != null) {
-                entry.isOwner = regions.get(id).isOwner(ownedBy);
-                entry.isMember = regions.get(id).isMember(ownedBy);
-
-                if (!entry.isOwner && !entry.isMember) {
-                    continue; // Skip
+        if (ownedBy == null) {
+            for (String id : mgr.getRegions().keySet()) {
+                entries.add(new RegionListEntry(id, index++));
+            }
+        } else {
+            // Filtering by owner, so only look at the player's regions
+            List<ProtectedRegion> regions =
+                    new ArrayList<ProtectedRegion>(mgr.getRegionsOfPlayer(ownedBy));
+            Collections.sort(regions, new Comparator<ProtectedRegion>() {
+                @Override
+                public int compare(ProtectedRegion o1, ProtectedRegion o2) {
+                    return o1.getId().toLowerCase().compareTo(o2.getId().toLowerCase());
                 }
+            });
+
+            for (ProtectedRegion region : regions) {
+                RegionListEntry entry = new RegionListEntry(
+                        region.getId().toLowerCase(), index++);
+                entry.isOwner = region.isOwner(ownedBy);
+                entry.isMember = region.isMember(ownedBy);
+                entries.add(entry);
             }
-
-            entries.add(entry);
         }
         
         Collections.sort(entries);
@@ -821,7 +842,7 @@ public void flag(CommandContext args, CommandSender sender) throws CommandExcept
         RegionPermissionModel permModel = getPermissionModel(sender);
 
         // Lookup the existing region
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion existing = findExistingRegion(regionManager,
                 args.getString(0), true);
 
@@ -959,7 +980,7 @@ public void setPriority(CommandContext args, CommandSender sender)
         int priority = args.getInteger(1);
 
         // Lookup the existing region
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion existing = findExistingRegion(regionManager,
                 args.getString(0), false);
 
@@ -994,7 +1015,7 @@ public void setParent(CommandContext args, CommandSender sender) throws CommandE
         ProtectedRegion child;
 
         // Lookup the existing region
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
         
         // Get parent and child
         child = findExistingRegion(regionManager, args.getString(0), false);
@@ -1059,7 +1080,7 @@ public void remove(CommandContext args, CommandSender sender) throws CommandExce
         World world = getWorld(args, sender, 'w'); // Get the world
 
         // Lookup the existing region
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion existing = findExistingRegion(regionManager,
                 args.getString(0), true);
 
@@ -1100,7 +1121,7 @@ public void load(CommandContext args, CommandSender sender) throws CommandExcept
         }
 
         if (world != null) {
-            RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+            RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
             if (regionManager == null) {
                 throw new CommandException("No region manager exists for world '" + world.getName() + "'.");
             }
@@ -1108,7 +1129,7 @@ public void load(CommandContext args, CommandSender sender) throws CommandExcept
         } else {
             sender.sendMessage(ChatColor.YELLOW + "Loading all region databases... This might take a bit.");
             for (World w : plugin.getServer().getWorlds()) {
-                RegionManager regionManager = plugin.getGlobalRegionManager().get(w);
+                RegionManager regionManager = plugin.getGlobalRegionManager().getIfLoaded(w);
                 if (regionManager == null) {
                     continue;
                 }
@@ -1144,15 +1165,15 @@ public void save(CommandContext args, CommandSender sender) throws CommandExcept
         }
 
         if (world != null) {
-            RegionManager regionManager = plugin.getGlobalRegionManager().get(world);
+            RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(world);
             if (regionManager == null) {
                 throw new CommandException("No region manager exists for world '" + world.getName() + "'.");
             }
-            commitChanges(sender, regionManager);
+            commitChanges(sender, regionManager, false);
         } else {
             sender.sendMessage(ChatColor.YELLOW + "Saving all region databases... This might take a bit.");
             for (World w : plugin.getServer().getWorlds()) {
-                RegionManager regionManager = plugin.getGlobalRegionManager().get(w);
+                RegionManager regionManager = plugin.getGlobalRegionManager().getIfLoaded(w);
                 if (regionManager == null) {
                     continue;
                 }
@@ -1170,8 +1191,9 @@ public void save(CommandContext args, CommandSender sender) throws CommandExcept
      * @throws CommandException any error
      */
     @Command(aliases = {"migratedb"}, usage = "<from> <to>",
-            desc = "Migrate from one Protection Database to another.", min = 1)
-    public void migrateDB(CommandContext args, CommandSender sender) throws CommandException {
+            desc = "Migrate from one Protection Database to another.",
+            flags = "r", min = 1)
+    public void migrateDB(CommandContext args, final CommandSender sender) throws CommandException {
         // Check permissions
         if (!getPermissionModel(sender).mayMigrateRegionStore()) {
             throw new CommandPermissionsException();
@@ -1209,6 +1231,33 @@ public void migrateDB(CommandContext args, CommandSender sender) throws CommandE
         try {
             AbstractDatabaseMigrator migrator = cls.getConstructor(WorldGuardPlugin.class).newInstance(plugin);
 
+            // A failed migration continues where it stopped when run again,
+            // unless -r is given to start over
+            migrator.setProgressFile(new File(plugin.getDataFolder(),
+                    "migration-" + from + "-" + to + ".progress"));
+            if (args.hasFlag('r')) {
+                migrator.resetProgress();
+            }
+            migrator.setProgressListener(new AbstractDatabaseMigrator.ProgressListener() {
+                @Override
+                public void worldsSkipped(Set<String> worlds) {
+                    StringBuilder names = new StringBuilder();
+                    for (String world : new TreeSet<String>(worlds)) {
+                        if (names.length() > 0) {
+                            names.append(", ");
+                        }
+                        names.append(world);
+                    }
+                    sender.sendMessage(ChatColor.YELLOW + "Skipping worlds that an earlier migration "
+                            + "already migrated: " + names + ". Use -r to migrate all worlds again.");
+                }
+
+                @Override
+                public void worldMigrated(String world, int regions, int done, int total) {
+                    sender.sendMessage(ChatColor.GRAY + "Migrated " + regions + " regions of '"
+                            + world + "' (" + done + "/" + total + " worlds)");
+                }
+            });
             migrator.migrate();
         } catch (IllegalArgumentException ignore) {
         } catch (SecurityException ignore) {
@@ -1217,7 +1266,8 @@ public void migrateDB(CommandContext args, CommandSender sender) throws CommandE
         } catch (InvocationTargetException ignore) {
         } catch (NoSuchMethodException ignore) {
         } catch (MigrationException e) {
-            throw new CommandException("Error migrating database: " + e.getMessage());
+            throw new CommandException("Error migrating database: " + e.getMessage()
+                    + "\nRun the command again to continue, or with -r to start over.");
         }
 
         sender.sendMessage(ChatColor.YELLOW + "Regions have been migrated successfully.\n" +
@@ -1241,7 +1291,7 @@ public void teleport(CommandContext args, CommandSender sender) throws CommandEx
         Location teleportLocation;
 
         // Lookup the existing region
-        RegionManager regionManager = plugin.getGlobalRegionManager().get(player.getWorld());
+        RegionManager regionManager = plugin.getGlobalRegionManager().getLoaded(player.getWorld());
         ProtectedRegion existing = findExistingRegion(regionManager,
                 args.getString(0), false);
 
@@ -1270,4 +1320,45 @@ public void teleport(CommandContext args, CommandSender sender) throws CommandEx
         player.teleport(BukkitUtil.toLocation(teleportLocation));
         sender.sendMessage("Teleported you to the region '" + existing.getId() + "'.");
     }
+
+    /**
+     * Checks a background save on the main thread until it is done, and
+     * tells the sender if it failed.
+     */
+    private class SaveReporter implements Runnable {
+        private final CommandSender sender;
+        private final Future<Void> save;
+        private final BukkitScheduler scheduler;
+        private int taskId = -1;
+        private boolean done;
+
+        SaveReporter(CommandSender sender, Future<Void> save) {
+            this.sender = sender;
+            this.save = save;
+            this.scheduler = plugin.getServer().getScheduler();
+        }
+
+        void start() {
+            taskId = scheduler.scheduleSyncRepeatingTask(plugin, this, 1, 10);
+        }
+
+        @Override
+        public void run() {
+            if (done || !save.isDone()) {
+                return;
+            }
+
+            done = true;
+            scheduler.cancelTask(taskId);
+
+            try {
+                save.get();
+            } catch (ExecutionException e) {
+                sender.sendMessage(ChatColor.RED + "Uh oh, regions did not save: "
+                        + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
@@ -30,7 +30,6 @@
 import com.sk89q.worldguard.LocalPlayer;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
 import com.sk89q.worldguard.domains.DefaultDomain;
-import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
 import com.sk89q.worldguard.protection.databases.RegionDBUtil;
 import com.sk89q.worldguard.protection.flags.DefaultFlag;
 import com.sk89q.worldguard.protection.managers.RegionManager;
@@ -70,7 +69,7 @@ public void addMember(CommandContext args, CommandSender sender) throws CommandE
 
         String id = args.getString(0);
 
-        RegionManager mgr = plugin.getGlobalRegionManager().get(world);
+        RegionManager mgr = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion region = mgr.getRegion(id);
 
         if (region == null) {
@@ -94,12 +93,7 @@ public void addMember(CommandContext args, CommandSender sender) throws CommandE
         sender.sendMessage(ChatColor.YELLOW
                 + "Region '" + id + "' updated.");
 
-        try {
-            mgr.save();
-        } catch (ProtectionDatabaseException e) {
-            throw new CommandException("Failed to write regions: "
-                    + e.getMessage());
-        }
+        mgr.saveChanges();
     }
 
     @Command(aliases = {"addowner", "addowner"},
@@ -127,7 +121,7 @@ public void addOwner(CommandContext args, CommandSender sender) throws CommandEx
 
         String id = args.getString(0);
 
-        RegionManager mgr = plugin.getGlobalRegionManager().get(world);
+        RegionManager mgr = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion region = mgr.getRegion(id);
 
         if (region == null) {
@@ -164,12 +158,7 @@ public void addOwner(CommandContext args, CommandSender sender) throws CommandEx
         sender.sendMessage(ChatColor.YELLOW
                 + "Region '" + id + "' updated.");
 
-        try {
-            mgr.save();
-        } catch (ProtectionDatabaseException e) {
-            throw new CommandException("Failed to write regions: "
-                    + e.getMessage());
-        }
+        mgr.saveChanges();
     }
 
     @Command(aliases = {"removemember", "remmember", "removemem", "remmem"},
@@ -197,7 +186,7 @@ public void removeMember(CommandContext args, CommandSender sender) throws Comma
 
         String id = args.getString(0);
 
-        RegionManager mgr = plugin.getGlobalRegionManager().get(world);
+        RegionManager mgr = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion region = mgr.getRegion(id);
 
         if (region == null) {
@@ -228,12 +217,7 @@ public void removeMember(CommandContext args, CommandSender sender) throws Comma
         sender.sendMessage(ChatColor.YELLOW
                 + "Region '" + id + "' updated.");
 
-        try {
-            mgr.save();
-        } catch (ProtectionDatabaseException e) {
-            throw new CommandException("Failed to write regions: "
-                    + e.getMessage());
-        }
+        mgr.saveChanges();
     }
 
     @Command(aliases = {"removeowner", "remowner"},
@@ -262,7 +246,7 @@ public void removeOwner(CommandContext args,
 
         String id = args.getString(0);
 
-        RegionManager mgr = plugin.getGlobalRegionManager().get(world);
+        RegionManager mgr = plugin.getGlobalRegionManager().getLoaded(world);
         ProtectedRegion region = mgr.getRegion(id);
 
         if (region == null) {
@@ -293,11 +277,6 @@ public void removeOwner(CommandContext args,
         sender.sendMessage(ChatColor.YELLOW
                 + "Region '" + id + "' updated.");
 
-        try {
-            mgr.save();
-        } catch (ProtectionDatabaseException e) {
-            throw new CommandException("Failed to write regions: "
-                    + e.getMessage());
-        }
+        mgr.saveChanges();
     }
 }
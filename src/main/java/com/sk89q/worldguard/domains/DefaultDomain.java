@@ -32,34 +32,61 @@
 public class DefaultDomain implements Domain {
     private final Set<String> groups;
     private final Set<String> players;
+    private Observer observer;
     
     public DefaultDomain() {
         this.groups = new LinkedHashSet<String>();
         this.players = new HashSet<String>();
     }
+
+    /**
+     * Set the observer that is told about changes to this domain.
+     *
+     * @param observer the observer, or null
+     */
+    public void setObserver(Observer observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Get the observer that is told about changes to this domain.
+     *
+     * @return the observer, or null
+     */
+    public Observer getObserver() {
+        return observer;
+    }
     
     public void addPlayer(String name) {
-        players.add(name.toLowerCase());
+        if (players.add(name.toLowerCase())) {
+            changed();
+        }
     }
     
     public void addPlayer(LocalPlayer player) {
-        players.add(player.getName().toLowerCase());
+        addPlayer(player.getName());
     }
     
     public void removePlayer(String name) {
-        players.remove(name.toLowerCase());
+        if (players.remove(name.toLowerCase())) {
+            changed();
+        }
     }
     
     public void removePlayer(LocalPlayer player) {
-        players.remove(player.getName().toLowerCase());
+        removePlayer(player.getName());
     }
     
     public void addGroup(String name) {
-        groups.add(name.toLowerCase());
+        if (groups.add(name.toLowerCase())) {
+            changed();
+        }
     }
     
     public void removeGroup(String name) {
-        groups.remove(name.toLowerCase());
+        if (groups.remove(name.toLowerCase())) {
+            changed();
+        }
     }
     
     public Set<String> getGroups() {
@@ -137,7 +164,29 @@ public String toUserFriendlyString() {
     }
 
     public void removeAll() {
-        groups.clear();
-        players.clear();
+        if (size() > 0) {
+            groups.clear();
+            players.clear();
+            changed();
+        }
+    }
+
+    private void changed() {
+        if (observer != null) {
+            observer.domainChanged(this);
+        }
+    }
+
+    /**
+     * Receives notice of players or groups being added to or removed from
+     * a domain.
+     */
+    public interface Observer {
+        /**
+         * Called after a domain was changed.
+         *
+         * @param domain the domain
+         */
+        public void domainChanged(DefaultDomain domain);
     }
 }
@@ -32,13 +32,30 @@
  * region or point. This object contains the list of applicable regions and so
  * the expensive search of regions that are in the desired area has already
  * been completed.
+ *
+ * <p>Sets that are kept and queried again can remember the flag values they
+ * resolve, see {@link #rememberResults()}.</p>
  * 
  * @author sk89q
  */
 public class ApplicableRegionSet implements Iterable<ProtectedRegion> {
 
+    /**
+     * Scratch words for the bit sets used while resolving flags, so that
+     * flag queries don't allocate.
+     */
+    private static final ThreadLocal<long[]> scratch = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
     private Collection<ProtectedRegion> applicable;
+    private ProtectedRegion[] regions;
     private ProtectedRegion globalRegion;
+    private ResultCache states;
+    private ResultCache values;
 
     /**
      * Construct the object.
@@ -49,9 +66,29 @@ public class ApplicableRegionSet implements Iterable<ProtectedRegion> {
     public ApplicableRegionSet(Collection<ProtectedRegion> applicable,
             ProtectedRegion globalRegion) {
         this.applicable = applicable;
+        this.regions = applicable.toArray(new ProtectedRegion[applicable.size()]);
         this.globalRegion = globalRegion;
     }
     
+    /**
+     * Remember the flag values resolved from now on for the lifetime of
+     * this set, so that asking again is a map lookup. Most sets are only
+     * queried a few times, so they don't remember anything, and their
+     * state flag queries don't allocate.
+     *
+     * <p>Values that depend on a player are remembered per player, by
+     * name. Changes to the player's groups are therefore not seen by this
+     * set, and neither are changes to its regions, so a set that
+     * remembers its results should be dropped when either may have
+     * changed.</p>
+     */
+    public void rememberResults() {
+        if (states == null) {
+            states = new ResultCache();
+            values = new ResultCache();
+        }
+    }
+
     /**
      * Checks if a player can build in an area.
      * 
@@ -59,7 +96,7 @@ public ApplicableRegionSet(Collection<ProtectedRegion> applicable,
      * @return build ability
      */
     public boolean canBuild(LocalPlayer player) {
-        return internalGetState(DefaultFlag.BUILD, player, null);
+        return getState(DefaultFlag.BUILD, player, null);
     }
 
     public boolean canConstruct(LocalPlayer player) {
@@ -91,7 +128,7 @@ public boolean allows(StateFlag flag) {
         if (flag == DefaultFlag.BUILD) {
             throw new IllegalArgumentException("Can't use build flag with allows()");
         }
-        return internalGetState(flag, null, null);
+        return getState(flag, null, null);
     }
     
     /**
@@ -106,7 +143,7 @@ public boolean allows(StateFlag flag, LocalPlayer player) {
         if (flag == DefaultFlag.BUILD) {
             throw new IllegalArgumentException("Can't use build flag with allows()");
         }
-        return internalGetState(flag, null, player);
+        return getState(flag, null, player);
     }
     
     /**
@@ -116,7 +153,7 @@ public boolean allows(StateFlag flag, LocalPlayer player) {
      * @return whether the player is an owner of all regions
      */
     public boolean isOwnerOfAll(LocalPlayer player) {
-        for (ProtectedRegion region : applicable) {
+        for (ProtectedRegion region : regions) {
             if (!region.isOwner(player)) {
                 return false;
             }
@@ -133,7 +170,7 @@ public boolean isOwnerOfAll(LocalPlayer player) {
      * @return whether the player is a member of all regions
      */
     public boolean isMemberOfAll(LocalPlayer player) {
-        for (ProtectedRegion region : applicable) {
+        for (ProtectedRegion region : regions) {
             if (!region.isMember(player)) {
                 return false;
             }
@@ -142,6 +179,38 @@ public boolean isMemberOfAll(LocalPlayer player) {
         return true;
     }
 
+    /**
+     * Checks to see if a flag is permitted, using the remembered result
+     * if the same question was asked before.
+     *
+     * @param flag flag to check
+     * @param player null to not check owners and members
+     * @param groupPlayer player to use for the group flag check
+     * @return the allow/deny state for the flag
+     */
+    private boolean getState(StateFlag flag, LocalPlayer player,
+                             LocalPlayer groupPlayer) {
+        // The group player only matters for flags with a group flag
+        if (flag.getRegionGroupFlag() == null) {
+            groupPlayer = null;
+        }
+
+        if (states == null || (player != null && groupPlayer != null)) {
+            return internalGetState(flag, player, groupPlayer);
+        }
+
+        LocalPlayer key = player != null ? player : groupPlayer;
+        Object cached = states.get(flag, key);
+
+        if (cached != null) {
+            return (Boolean) cached;
+        }
+
+        boolean state = internalGetState(flag, player, groupPlayer);
+        states.put(flag, key, state);
+        return state;
+    }
+
     /**
      * Checks to see if a flag is permitted.
      * 
@@ -202,11 +271,16 @@ private boolean internalGetState(StateFlag flag, LocalPlayer player,
         // permission should not be given. If a parent has multiple children
         // and one child does not allow permissions, then it will be placed into
         // needsClear just like as if was a parent.
+        //
+        // Both sets are bit sets over the indices of this set's regions,
+        // stored next to each other in a reused scratch array.
 
-        Set<ProtectedRegion> needsClear = new HashSet<ProtectedRegion>();
-        Set<ProtectedRegion> hasCleared = new HashSet<ProtectedRegion>();
+        int words = getWords();
+        long[] bits = getScratch(words);
+
+        for (int i = 0; i < regions.length; i++) {
+            ProtectedRegion region = regions[i];
 
-        for (ProtectedRegion region : applicable) {
             // Ignore lower priority regions
             if (hasFlagDefined && region.getPriority() < lastPriority) {
                 break;
@@ -253,14 +327,14 @@ private boolean internalGetState(StateFlag flag, LocalPlayer player,
             if (player != null) {
                 hasFlagDefined = true;
 
-                if (hasCleared.contains(region)) {
+                if (isSet(bits, words, i)) {
                     // Already cleared, so do nothing
                 } else {
                     if (!region.isMember(player)) {
-                        needsClear.add(region);
+                        set(bits, 0, i);
                     } else {
                         // Need to clear all parents
-                        clearParents(needsClear, hasCleared, region);
+                        clearParents(bits, words, region);
                     }
                 }
             }
@@ -269,27 +343,7 @@ private boolean internalGetState(StateFlag flag, LocalPlayer player,
         }
 
         return !found ? def :
-                (allowed || (player != null && needsClear.size() == 0));
-    }
-
-    /**
-     * Clear a region's parents for isFlagAllowed().
-     * 
-     * @param needsClear The regions that should be cleared
-     * @param hasCleared The regions already cleared
-     * @param region The region to start from
-     */
-    private void clearParents(Set<ProtectedRegion> needsClear,
-            Set<ProtectedRegion> hasCleared, ProtectedRegion region) {
-        ProtectedRegion parent = region.getParent();
-
-        while (parent != null) {
-            if (!needsClear.remove(parent)) {
-                hasCleared.add(parent);
-            }
-
-            parent = parent.getParent();
-        }
+                (allowed || (player != null && isEmpty(bits, 0, words)));
     }
 
     /**
@@ -310,7 +364,36 @@ public <T extends Flag<V>, V> V getFlag(T flag) {
      * @return value of the flag
      * @throws IllegalArgumentException if a StateFlag is given
      */
+    @SuppressWarnings("unchecked")
     public <T extends Flag<V>, V> V getFlag(T flag, LocalPlayer groupPlayer) {
+        // The group player only matters for flags with a group flag
+        if (flag.getRegionGroupFlag() == null) {
+            groupPlayer = null;
+        }
+
+        if (values == null) {
+            return internalGetFlag(flag, groupPlayer);
+        }
+
+        Object cached = values.get(flag, groupPlayer);
+
+        if (cached != null) {
+            return cached == ResultCache.NONE ? null : (V) cached;
+        }
+
+        V value = internalGetFlag(flag, groupPlayer);
+        values.put(flag, groupPlayer, value != null ? value : ResultCache.NONE);
+        return value;
+    }
+
+    /**
+     * Resolves the value of a flag.
+     *
+     * @param flag flag to check
+     * @param groupPlayer player to check {@link RegionGroup}s against
+     * @return value of the flag
+     */
+    private <T extends Flag<V>, V> V internalGetFlag(T flag, LocalPlayer groupPlayer) {
         /*
         if (flag instanceof StateFlag) {
             throw new IllegalArgumentException("Cannot use StateFlag with getFlag()");
@@ -320,10 +403,13 @@ public <T extends Flag<V>, V> V getFlag(T flag, LocalPlayer groupPlayer) {
         int lastPriority = 0;
         boolean found = false;
 
-        Map<ProtectedRegion, V> needsClear = new HashMap<ProtectedRegion, V>();
-        Set<ProtectedRegion> hasCleared = new HashSet<ProtectedRegion>();
+        // needsClear holds the regions whose values are still candidates
+        int words = getWords();
+        long[] bits = getScratch(words);
+
+        for (int i = 0; i < regions.length; i++) {
+            ProtectedRegion region = regions[i];
 
-        for (ProtectedRegion region : applicable) {
             // Ignore lower priority regions
             if (found && region.getPriority() < lastPriority) {
                 break;
@@ -340,12 +426,12 @@ public <T extends Flag<V>, V> V getFlag(T flag, LocalPlayer groupPlayer) {
                 }
             }
 
-            if (hasCleared.contains(region)) {
+            if (isSet(bits, words, i)) {
                 // Already cleared, so do nothing
             } else if (region.getFlag(flag) != null) {
-                clearParents(needsClear, hasCleared, region);
+                clearParents(bits, words, region);
 
-                needsClear.put(region, region.getFlag(flag));
+                set(bits, 0, i);
 
                 found = true;
             }
@@ -353,8 +439,10 @@ public <T extends Flag<V>, V> V getFlag(T flag, LocalPlayer groupPlayer) {
             lastPriority = region.getPriority();
         }
         
-        if (!needsClear.isEmpty()) {
-            return needsClear.values().iterator().next();
+        int first = nextSet(bits, 0, words);
+
+        if (first != -1) {
+            return regions[first].getFlag(flag);
         } else {
             if (globalRegion != null) {
                 V gFlag = globalRegion.getFlag(flag);
@@ -365,24 +453,107 @@ public <T extends Flag<V>, V> V getFlag(T flag, LocalPlayer groupPlayer) {
     }
 
     /**
-     * Clear a region's parents for getFlag().
+     * Clear a region's parents. Parents that still need clearing are
+     * removed from needsClear, the others are added to hasCleared.
      * 
-     * @param needsClear The regions that should be cleared
-     * @param hasCleared The regions already cleared
+     * @param bits needsClear followed by hasCleared
+     * @param words the number of words in each set
      * @param region The region to start from
      */
-    private void clearParents(Map<ProtectedRegion, ?> needsClear,
-            Set<ProtectedRegion> hasCleared, ProtectedRegion region) {
+    private void clearParents(long[] bits, int words, ProtectedRegion region) {
         ProtectedRegion parent = region.getParent();
 
         while (parent != null) {
-            if (needsClear.remove(parent) == null) {
-                hasCleared.add(parent);
+            int index = indexOf(parent);
+
+            // Parents outside of this set are never visited
+            if (index != -1) {
+                if (isSet(bits, 0, index)) {
+                    clear(bits, 0, index);
+                } else {
+                    set(bits, words, index);
+                }
             }
 
             parent = parent.getParent();
         }
     }
+
+    /**
+     * Get the index of a region in this set.
+     *
+     * @param region the region
+     * @return the index, or -1
+     */
+    private int indexOf(ProtectedRegion region) {
+        for (int i = 0; i < regions.length; i++) {
+            if (regions[i] == region || regions[i].equals(region)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the number of words needed for a bit set over this set's regions.
+     *
+     * @return the number of words
+     */
+    private int getWords() {
+        return (regions.length + 63) >>> 6;
+    }
+
+    /**
+     * Get this thread's scratch array, cleared for two bit sets.
+     *
+     * @param words the number of words in each set
+     * @return the array
+     */
+    private static long[] getScratch(int words) {
+        long[] bits = scratch.get();
+
+        if (bits.length < words * 2) {
+            bits = new long[words * 2];
+            scratch.set(bits);
+        } else {
+            Arrays.fill(bits, 0, words * 2, 0);
+        }
+
+        return bits;
+    }
+
+    private static boolean isSet(long[] bits, int offset, int index) {
+        return (bits[offset + (index >>> 6)] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, int offset, int index) {
+        bits[offset + (index >>> 6)] |= 1L << index;
+    }
+
+    private static void clear(long[] bits, int offset, int index) {
+        bits[offset + (index >>> 6)] &= ~(1L << index);
+    }
+
+    private static boolean isEmpty(long[] bits, int offset, int words) {
+        for (int i = 0; i < words; i++) {
+            if (bits[offset + i] != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int nextSet(long[] bits, int offset, int words) {
+        for (int i = 0; i < words; i++) {
+            if (bits[offset + i] != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(bits[offset + i]);
+            }
+        }
+
+        return -1;
+    }
     
     /**
      * Get the number of regions that are included.
@@ -399,4 +570,66 @@ public int size() {
     public Iterator<ProtectedRegion> iterator() {
         return applicable.iterator();
     }
+
+    /**
+     * Remembers resolved flag results, both for queries without a player
+     * and for queries made on behalf of a player.
+     */
+    private static class ResultCache {
+        /**
+         * Stored in place of a null result.
+         */
+        static final Object NONE = new Object();
+
+        private Map<Flag<?>, Object> results;
+        private Map<LocalPlayer, Map<Flag<?>, Object>> playerResults;
+
+        /**
+         * Get a remembered result.
+         *
+         * @param flag the flag
+         * @param player the player, or null
+         * @return the result, or null if there is none
+         */
+        Object get(Flag<?> flag, LocalPlayer player) {
+            Map<Flag<?>, Object> map;
+
+            if (player == null) {
+                map = results;
+            } else {
+                map = playerResults != null ? playerResults.get(player) : null;
+            }
+
+            return map != null ? map.get(flag) : null;
+        }
+
+        /**
+         * Remember a result.
+         *
+         * @param flag the flag
+         * @param player the player, or null
+         * @param result the result, which must not be null
+         */
+        void put(Flag<?> flag, LocalPlayer player, Object result) {
+            Map<Flag<?>, Object> map;
+
+            if (player == null) {
+                if (results == null) {
+                    results = new HashMap<Flag<?>, Object>();
+                }
+                map = results;
+            } else {
+                if (playerResults == null) {
+                    playerResults = new HashMap<LocalPlayer, Map<Flag<?>, Object>>();
+                }
+                map = playerResults.get(player);
+                if (map == null) {
+                    map = new HashMap<Flag<?>, Object>();
+                    playerResults.put(player, map);
+                }
+            }
+
+            map.put(flag, result);
+        }
+    }
 }
@@ -22,8 +22,20 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.bukkit.Location;
@@ -36,17 +48,25 @@
 import com.sk89q.worldguard.bukkit.ConfigurationManager;
 import com.sk89q.worldguard.bukkit.WorldConfiguration;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
+import com.sk89q.worldguard.protection.databases.AbstractProtectionDatabase;
+import com.sk89q.worldguard.protection.databases.BinaryDatabase;
+import com.sk89q.worldguard.protection.databases.JournaledDatabase;
 import com.sk89q.worldguard.protection.databases.MySQLDatabase;
 import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
 import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
 import com.sk89q.worldguard.protection.databases.YAMLDatabase;
 import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.ChunkRegionManager;
 import com.sk89q.worldguard.protection.managers.PRTreeRegionManager;
+import com.sk89q.worldguard.protection.managers.PendingRegionManager;
 import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 
 /**
  * This class keeps track of region information for every world. It loads
- * world region information as needed.
+ * world region information as needed. When lazy loading is enabled, worlds
+ * are loaded in the background the first time they are used, and unloaded
+ * again after they have been idle for a while.
  *
  * @author sk89q
  * @author Redecouverte
@@ -72,7 +92,39 @@ public class GlobalRegionManager {
      * Stores the list of modification dates for the world files. This allows
      * WorldGuard to reload files as needed.
      */
-    private HashMap<String, Long> lastModified;
+    private ConcurrentHashMap<String, Long> lastModified;
+
+    /**
+     * The background loads of worlds whose regions are not available yet.
+     * Only used with lazy loading. A load that failed stays here, so the
+     * world is protected until it is unloaded.
+     */
+    private ConcurrentHashMap<String, WorldLoad> loading;
+
+    /**
+     * The worlds whose changed files are being read again.
+     */
+    private ConcurrentHashMap<String, Boolean> reloading;
+
+    /**
+     * The worlds whose files are being saved by this plugin.
+     */
+    private ConcurrentHashMap<String, Boolean> saving;
+
+    /**
+     * The time each lazily loaded world was last used.
+     */
+    private ConcurrentHashMap<String, AtomicLong> lastAccess;
+
+    /**
+     * Handed out for worlds whose regions are still loading.
+     */
+    private final RegionManager pendingManager = new PendingRegionManager();
+
+    /**
+     * Threads that load the regions of worlds.
+     */
+    private final ThreadPoolExecutor loadExecutor;
 
     /**
      * Construct the object.
@@ -83,15 +135,37 @@ public GlobalRegionManager(WorldGuardPlugin plugin) {
         this.plugin = plugin;
         config = plugin.getGlobalStateManager();
         managers = new ConcurrentHashMap<String, RegionManager>();
-        lastModified = new HashMap<String, Long>();
+        lastModified = new ConcurrentHashMap<String, Long>();
+        loading = new ConcurrentHashMap<String, WorldLoad>();
+        lastAccess = new ConcurrentHashMap<String, AtomicLong>();
+        reloading = new ConcurrentHashMap<String, Boolean>();
+        saving = new ConcurrentHashMap<String, Boolean>();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        loadExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new LoaderThreadFactory());
+        loadExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
      * Unload region information.
      */
     public void unload() {
+        closeManagers();
         managers.clear();
         lastModified.clear();
+        loading.clear();
+        lastAccess.clear();
+    }
+
+    /**
+     * Wait for the background saves of all worlds to finish, and release
+     * their databases.
+     */
+    private void closeManagers() {
+        for (RegionManager manager : managers.values()) {
+            manager.close();
+        }
     }
 
     /**
@@ -102,7 +176,8 @@ public void unload() {
      */
     protected File getPath(String name) {
         return new File(plugin.getDataFolder(),
-                "worlds" + File.separator + name + File.separator + "regions.yml");
+                "worlds" + File.separator + name + File.separator
+                + (config.useBinaryDatabase ? "regions.dat" : "regions.yml"));
     }
 
     /**
@@ -113,7 +188,11 @@ protected File getPath(String name) {
     public void unload(String name) {
         RegionManager manager = managers.remove(name);
 
+        loading.remove(name);
+        lastAccess.remove(name);
+
         if (manager != null) {
+            manager.close();
             lastModified.remove(name);
         }
     }
@@ -122,13 +201,58 @@ public void unload(String name) {
      * Unload all region information.
      */
     public void unloadAll() {
+        closeManagers();
         managers.clear();
         lastModified.clear();
+        loading.clear();
+        lastAccess.clear();
+    }
+
+    /**
+     * Unload the regions of worlds that have no players and have not been
+     * used for the idle time set in the configuration. Only worlds that
+     * were loaded lazily are unloaded.
+     */
+    public void unloadIdle() {
+        if (!config.useLazyRegionLoading || config.regionIdleUnloadMinutes <= 0) {
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - config.regionIdleUnloadMinutes * 60000L;
+
+        for (Map.Entry<String, AtomicLong> entry : lastAccess.entrySet()) {
+            if (entry.getValue().get() > cutoff) {
+                continue;
+            }
+
+            World world = plugin.getServer().getWorld(entry.getKey());
+            if (world != null && !world.getPlayers().isEmpty()) {
+                continue;
+            }
+
+            unload(entry.getKey());
+            plugin.getLogger().info("Unloaded the regions of idle world '"
+                    + entry.getKey() + "'");
+        }
     }
 
     public RegionManager load(World world) {
+        RegionManager old = managers.get(world.getName());
+        if (old != null) {
+            // Don't read back regions that are still being written
+            old.flushSaves();
+        }
+
         RegionManager manager = create(world);
-        managers.put(world.getName(), manager);
+        if (manager != null) {
+            RegionManager replaced = managers.put(world.getName(), manager);
+            if (config.useLazyRegionLoading) {
+                lastAccess.put(world.getName(), new AtomicLong(System.currentTimeMillis()));
+            }
+            if (replaced != null && replaced != manager) {
+                replaced.close();
+            }
+        }
         return manager;
     }
 
@@ -141,13 +265,26 @@ public RegionManager load(World world) {
     public RegionManager create(World world) {
         String name = world.getName();
         boolean sql = config.useSqlDatabase;
-        ProtectionDatabase database;
+        ProtectionDatabase database = null;
         File file = null;
+        long start = System.nanoTime();
 
         try {
             if (!sql) {
                 file = getPath(name);
-                database = new YAMLDatabase(file, plugin.getLogger());
+                if (config.useBinaryDatabase) {
+                    database = new BinaryDatabase(file, plugin.getLogger());
+                } else {
+                    database = new YAMLDatabase(file, plugin.getLogger());
+                }
+
+                if (config.useRegionJournal) {
+                    database = new JournaledDatabase(database,
+                            new File(file.getParentFile(), "regions.journal"),
+                            config.regionJournalCompactSize * 1024L, plugin.getLogger());
+                }
+
+                database = new SaveTrackingDatabase(database, name, file);
 
                 // Store the last modification date so we can track changes
                 lastModified.put(name, file.lastModified());
@@ -156,12 +293,18 @@ public RegionManager create(World world) {
             }
 
             // Create a manager
-            RegionManager manager = new PRTreeRegionManager(database);
+            RegionManager manager;
+            if (config.useChunkIndex) {
+                manager = new ChunkRegionManager(database);
+            } else {
+                manager = new PRTreeRegionManager(database);
+            }
             manager.load();
 
             if (plugin.getGlobalStateManager().get(world).summaryOnStart) {
                 plugin.getLogger().info(manager.getRegions().size()
-                        + " regions loaded for '" + name + "'");
+                        + " regions loaded for '" + name + "' in "
+                        + (System.nanoTime() - start) / 1000000 + " ms");
             }
 
             return manager;
@@ -181,23 +324,140 @@ public RegionManager create(World world) {
             e.printStackTrace();
         }
 
+        if (database != null) {
+            database.close();
+        }
+
         // @TODO: THIS CREATES PROBLEMS!!one!!1!!eleven!!1!!!
         return null;
     }
 
     /**
-     * Preloads region managers for all worlds.
+     * Preloads region managers for all worlds. The worlds are read and
+     * indexed in parallel, and each world's manager is published as soon
+     * as it has finished loading. This method returns once every world
+     * has been loaded. With lazy loading, worlds are only loaded when
+     * they are first used, so nothing is loaded here.
      */
     public void preload() {
-        // Load regions
-        for (World world : plugin.getServer().getWorlds()) {
-            load(world);
+        if (config.useLazyRegionLoading) {
+            return;
+        }
+
+        List<World> worlds = plugin.getServer().getWorlds();
+        int threads = Math.min(worlds.size(), loadExecutor.getMaximumPoolSize());
+
+        if (threads <= 1) {
+            for (World world : worlds) {
+                load(world);
+            }
+            return;
+        }
+
+        // The world configurations are loaded here so that the loader
+        // threads only ever read them
+        boolean summary = false;
+        for (World world : worlds) {
+            summary |= config.get(world).summaryOnStart;
+        }
+
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try {
+            for (final World world : worlds) {
+                futures.add(loadExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        load(world);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Failed to load regions for world '"
+                            + worlds.get(i).getName() + "'", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (summary) {
+            plugin.getLogger().info("Regions of " + worlds.size() + " worlds loaded in "
+                    + (System.nanoTime() - start) / 1000000 + " ms using "
+                    + threads + " threads");
+        }
+    }
+
+    /**
+     * Loads the regions of a world in the background and publishes its
+     * manager, unless the world was unloaded in the meantime.
+     */
+    private class WorldLoad extends FutureTask<RegionManager> {
+        private final String name;
+
+        public WorldLoad(final World world) {
+            super(new Callable<RegionManager>() {
+                @Override
+                public RegionManager call() {
+                    return create(world);
+                }
+            });
+            name = world.getName();
+        }
+
+        @Override
+        protected void done() {
+            RegionManager manager;
+
+            try {
+                manager = get();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to load regions for world '"
+                        + name + "'", e.getCause());
+                return;
+            }
+
+            if (manager == null) {
+                return;
+            }
+
+            if (loading.get(name) == this) {
+                lastAccess.put(name, new AtomicLong(System.currentTimeMillis()));
+                managers.put(name, manager);
+                loading.remove(name, this);
+            } else {
+                // The world was unloaded while it was loading
+                manager.close();
+            }
+        }
+    }
+
+    /**
+     * Creates the daemon threads used to load worlds.
+     */
+    private static class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "WorldGuard Region Loader #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
     /**
      * Reloads the region information from file when region databases
-     * have changed.
+     * have changed. Changed files are read on a loader thread, and only the
+     * regions that were added, removed or changed are then replaced on the
+     * main thread. Must be called from the main thread.
      */
     public void reloadChanged() {
         if (config.useSqlDatabase) return;
@@ -211,27 +471,143 @@ public void reloadChanged() {
                 oldDate = 0L;
             }
 
+            long date = file.lastModified();
+            if (date > oldDate && !saving.containsKey(name)
+                    && reloading.putIfAbsent(name, Boolean.TRUE) == null) {
+                lastModified.put(name, date);
+                loadExecutor.execute(new ChangeReload(name, file));
+            }
+        }
+    }
+
+    /**
+     * Remembers the modification date of a world's regions file after this
+     * plugin saved it, so that only changes made by others cause the file
+     * to be read again.
+     */
+    private class SaveTrackingDatabase extends AbstractProtectionDatabase {
+        private final ProtectionDatabase database;
+        private final String name;
+        private final File file;
+
+        public SaveTrackingDatabase(ProtectionDatabase database, String name, File file) {
+            this.database = database;
+            this.name = name;
+            this.file = file;
+        }
+
+        @Override
+        public void load() throws ProtectionDatabaseException {
+            database.load();
+        }
+
+        @Override
+        public void save() throws ProtectionDatabaseException {
+            saving.put(name, Boolean.TRUE);
+
             try {
-                if (file.lastModified() > oldDate) {
-                    World world = plugin.getServer().getWorld(name);
+                database.save();
+            } finally {
+                lastModified.put(name, file.lastModified());
+                saving.remove(name);
+            }
+        }
 
-                    if (world != null) {
-                        load(world);
-                    }
+        @Override
+        public Map<String, ProtectedRegion> getRegions() {
+            return database.getRegions();
+        }
+
+        @Override
+        public void setRegions(Map<String, ProtectedRegion> regions) {
+            database.setRegions(regions);
+        }
+
+        @Override
+        public void close() {
+            database.close();
+        }
+    }
+
+    /**
+     * Reads a changed regions file and applies the changes to the world's
+     * manager on the main thread.
+     */
+    private class ChangeReload implements Runnable {
+        private final String name;
+        private final File file;
+
+        public ChangeReload(String name, File file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final RegionManager manager = managers.get(name);
+                if (manager == null) {
+                    return;
                 }
-            } catch (Exception ignore) {
+
+                // Later changes are noticed before they can be overwritten
+                final long version = manager.getVersion();
+                final Map<String, ProtectedRegion> regions = manager.readRegions();
+
+                plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (managers.get(name) != manager) {
+                            return;
+                        }
+
+                        if (manager.getVersion() != version) {
+                            // Try again once the new changes are saved
+                            lastModified.remove(name);
+                            return;
+                        }
+
+                        int count = manager.updateRegions(regions);
+                        if (count > 0) {
+                            plugin.getLogger().info(count + " regions reloaded for '" + name + "'");
+                        }
+                    }
+                });
+            } catch (ProtectionDatabaseException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to reload regions from file \""
+                        + file + "\": " + e.getMessage());
+            } finally {
+                reloading.remove(name);
             }
         }
     }
 
     /**
-     * Get the region manager for a particular world.
+     * Get the region manager for a particular world. With lazy loading, a
+     * world that is not loaded yet starts loading in the background, and a
+     * manager that denies building and other harmful actions everywhere is
+     * returned until it is done. Use {@link #getLoaded(World)} where the
+     * real regions are needed.
      *
      * @param world The world to get a RegionManager for
      * @return The region manager.
      */
     public RegionManager get(World world) {
         RegionManager manager = managers.get(world.getName());
+
+        if (config.useLazyRegionLoading) {
+            if (manager == null) {
+                loadLater(world);
+                return pendingManager;
+            }
+
+            AtomicLong access = lastAccess.get(world.getName());
+            if (access != null) {
+                access.lazySet(System.currentTimeMillis());
+            }
+            return manager;
+        }
+
         RegionManager newManager = null;
 
         while (manager == null) {
@@ -242,9 +618,79 @@ public RegionManager get(World world) {
             manager = managers.get(world.getName());
         }
 
+        // Another thread created the manager first
+        if (newManager != null && newManager != manager) {
+            newManager.close();
+        }
+
         return manager;
     }
 
+    /**
+     * Get the region manager for a particular world, waiting for its regions
+     * to be loaded if they are not yet. If the regions can't be loaded, the
+     * returned manager refuses to save.
+     *
+     * @param world The world to get a RegionManager for
+     * @return The region manager.
+     */
+    public RegionManager getLoaded(World world) {
+        if (!config.useLazyRegionLoading) {
+            return get(world);
+        }
+
+        RegionManager manager = get(world);
+        if (manager != pendingManager) {
+            return manager;
+        }
+
+        try {
+            manager = loadLater(world).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignore) {
+            // Logged by the load itself
+        }
+
+        return manager != null ? manager : pendingManager;
+    }
+
+    /**
+     * Get the region manager for a particular world if its regions are
+     * loaded, without loading them otherwise.
+     *
+     * @param world The world to get a RegionManager for
+     * @return The region manager, or null if the world is not loaded
+     */
+    public RegionManager getIfLoaded(World world) {
+        return managers.get(world.getName());
+    }
+
+    /**
+     * Start loading the regions of a world in the background, unless that
+     * has already been done.
+     *
+     * @param world The world to load
+     * @return the load
+     */
+    private WorldLoad loadLater(World world) {
+        WorldLoad load = loading.get(world.getName());
+
+        if (load == null) {
+            // Resolved here so that the loader thread only reads it
+            config.get(world);
+
+            WorldLoad newLoad = new WorldLoad(world);
+            load = loading.putIfAbsent(world.getName(), newLoad);
+            if (load == null) {
+                load = newLoad;
+                loadExecutor.execute(load);
+            }
+        }
+
+        return load;
+    }
+
     /**
      * Returns whether the player can bypass.
      *
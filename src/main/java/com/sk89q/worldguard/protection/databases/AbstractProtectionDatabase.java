@@ -42,5 +42,12 @@ public void save(RegionManager manager) throws ProtectionDatabaseException {
         setRegions(manager.getRegions());
         save();
     }
+
+    /**
+     * Release the resources held by this database. Databases that hold
+     * none don't need to override this.
+     */
+    public void close() {
+    }
     
 }
@@ -0,0 +1,153 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.protection.databases;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+/**
+ * Stores regions in a compact binary file. The file is read into memory in
+ * one go and is never kept open, so that it can always be replaced.
+ *
+ * @see BinaryRegionFormat
+ */
+public class BinaryDatabase extends AbstractProtectionDatabase {
+
+    private final File file;
+    private final BinaryRegionFormat format;
+    private Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+
+    public BinaryDatabase(File file, Logger logger) {
+        this.file = file;
+        this.format = new BinaryRegionFormat(logger);
+    }
+
+    public void load() throws ProtectionDatabaseException {
+        File source = file;
+
+        // A save may have stopped after moving the old file out of the way
+        if (!file.exists() && getBackupFile().exists()) {
+            source = getBackupFile();
+        }
+
+        if (!source.exists() || source.length() == 0) {
+            this.regions = new HashMap<String, ProtectedRegion>();
+            return;
+        }
+
+        ByteBuffer buffer;
+
+        try {
+            RandomAccessFile input = new RandomAccessFile(source, "r");
+            try {
+                long length = input.length();
+                if (length > Integer.MAX_VALUE) {
+                    throw new ProtectionDatabaseException(source + " is too large");
+                }
+                byte[] data = new byte[(int) length];
+                input.readFully(data);
+                buffer = ByteBuffer.wrap(data);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new ProtectionDatabaseException(e);
+        }
+
+        Map<ProtectedRegion, String> parentSets = new HashMap<ProtectedRegion, String>();
+        Map<String, ProtectedRegion> regions;
+
+        try {
+            regions = format.read(buffer, parentSets);
+        } catch (ProtectionDatabaseException e) {
+            throw new ProtectionDatabaseException("Failed to read " + source + ": " + e.getMessage());
+        }
+
+        format.relinkParents(regions, parentSets);
+
+        for (ProtectedRegion region : regions.values()) {
+            region.setDirty(false);
+        }
+
+        this.regions = regions;
+    }
+
+    public void save() throws ProtectionDatabaseException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        file.getParentFile().mkdirs();
+
+        try {
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                format.write(output, regions);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw new ProtectionDatabaseException(e);
+        }
+
+        // Some systems can't rename over an existing file, so move the old
+        // file aside first and only delete it once the new one is in place
+        if (!tempFile.renameTo(file)) {
+            File backupFile = getBackupFile();
+            backupFile.delete();
+
+            if (!file.renameTo(backupFile)) {
+                throw new ProtectionDatabaseException("Failed to rename " + file + " to " + backupFile);
+            }
+
+            if (!tempFile.renameTo(file)) {
+                backupFile.renameTo(file);
+                throw new ProtectionDatabaseException("Failed to rename " + tempFile + " to " + file);
+            }
+
+            backupFile.delete();
+        }
+    }
+
+    /**
+     * Get the file that holds the previous regions while they are replaced.
+     *
+     * @return the backup file
+     */
+    private File getBackupFile() {
+        return new File(file.getParentFile(), file.getName() + ".bak");
+    }
+
+    public Map<String, ProtectedRegion> getRegions() {
+        return regions;
+    }
+
+    public void setRegions(Map<String, ProtectedRegion> regions) {
+        this.regions = regions;
+    }
+}
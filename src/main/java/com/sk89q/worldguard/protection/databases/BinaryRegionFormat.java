@@ -0,0 +1,539 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.protection.databases;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldguard.domains.DefaultDomain;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.Flag;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedPolygonalRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion.CircularInheritanceException;
+
+/**
+ * Reads and writes regions in a compact binary format.
+ *
+ * <p>The data starts with a magic number and a format version, followed by
+ * sections that each start with a tag and their length, so that readers
+ * can skip sections they don't know. The string section holds every
+ * string once; region IDs, player and group names and flag names are
+ * stored as indexes into it. Numbers are stored as variable-length
+ * integers, and polygon points as the difference to the previous point.</p>
+ */
+class BinaryRegionFormat {
+
+    /**
+     * "WGRB" in ASCII.
+     */
+    private static final int MAGIC = 0x57475242;
+    private static final int VERSION = 1;
+
+    private static final byte SECTION_STRINGS = 1;
+    private static final byte SECTION_REGIONS = 2;
+
+    private static final byte TYPE_CUBOID = 0;
+    private static final byte TYPE_POLY2D = 1;
+    private static final byte TYPE_GLOBAL = 2;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_FALSE = 1;
+    private static final byte VALUE_TRUE = 2;
+    private static final byte VALUE_INT = 3;
+    private static final byte VALUE_LONG = 4;
+    private static final byte VALUE_FLOAT = 5;
+    private static final byte VALUE_DOUBLE = 6;
+    private static final byte VALUE_STRING = 7;
+    private static final byte VALUE_LIST = 8;
+    private static final byte VALUE_MAP = 9;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Logger logger;
+
+    BinaryRegionFormat(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Read regions. Parents are not linked yet, but put in the given map.
+     *
+     * @param buffer the data
+     * @param parentSets a map to put the parent ID of every region in
+     * @return the regions, by ID
+     * @throws ProtectionDatabaseException if the data is not valid
+     */
+    Map<String, ProtectedRegion> read(ByteBuffer buffer, Map<ProtectedRegion, String> parentSets)
+            throws ProtectionDatabaseException {
+        try {
+            return readSections(buffer, parentSets);
+        } catch (BufferUnderflowException e) {
+            throw new ProtectionDatabaseException("The region data is truncated");
+        } catch (IndexOutOfBoundsException e) {
+            throw new ProtectionDatabaseException("The region data is corrupt");
+        }
+    }
+
+    private Map<String, ProtectedRegion> readSections(ByteBuffer buffer,
+            Map<ProtectedRegion, String> parentSets) throws ProtectionDatabaseException {
+        if (buffer.getInt() != MAGIC) {
+            throw new ProtectionDatabaseException("The data is not in the binary region format");
+        }
+
+        int version = buffer.getInt();
+        if (version > VERSION) {
+            throw new ProtectionDatabaseException("The region data was written by a newer "
+                    + "version (format " + version + ")");
+        }
+
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+        String[] strings = new String[0];
+
+        while (buffer.hasRemaining()) {
+            byte section = buffer.get();
+            int length = buffer.getInt();
+            int end = buffer.position() + length;
+
+            if (section == SECTION_STRINGS) {
+                strings = readStrings(buffer);
+            } else if (section == SECTION_REGIONS) {
+                regions = readRegions(buffer, strings, parentSets);
+            }
+
+            buffer.position(end);
+        }
+
+        return regions;
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        String[] strings = new String[readVarInt(buffer)];
+        byte[] bytes = new byte[64];
+
+        for (int i = 0; i < strings.length; i++) {
+            int length = readVarInt(buffer);
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, UTF_8);
+        }
+
+        return strings;
+    }
+
+    private Map<String, ProtectedRegion> readRegions(ByteBuffer buffer, String[] strings,
+            Map<ProtectedRegion, String> parentSets) {
+        Map<String, Flag<?>> flags = new HashMap<String, Flag<?>>();
+        for (Flag<?> flag : DefaultFlag.getFlags()) {
+            flags.put(flag.getName(), flag);
+            if (flag.getRegionGroupFlag() != null) {
+                flags.put(flag.getRegionGroupFlag().getName(), flag.getRegionGroupFlag());
+            }
+        }
+
+        int count = readVarInt(buffer);
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>(count * 2);
+
+        for (int i = 0; i < count; i++) {
+            String id = strings[readVarInt(buffer)];
+            byte type = buffer.get();
+            ProtectedRegion region;
+
+            if (type == TYPE_CUBOID) {
+                BlockVector min = new BlockVector(readSignedVarInt(buffer),
+                        readSignedVarInt(buffer), readSignedVarInt(buffer));
+                BlockVector max = new BlockVector(readSignedVarInt(buffer),
+                        readSignedVarInt(buffer), readSignedVarInt(buffer));
+                region = new ProtectedCuboidRegion(id, min, max);
+            } else if (type == TYPE_POLY2D) {
+                int minY = readSignedVarInt(buffer);
+                int maxY = readSignedVarInt(buffer);
+                int size = readVarInt(buffer);
+                List<BlockVector2D> points = new ArrayList<BlockVector2D>(size);
+                int x = 0;
+                int z = 0;
+                for (int j = 0; j < size; j++) {
+                    x += readSignedVarInt(buffer);
+                    z += readSignedVarInt(buffer);
+                    points.add(new BlockVector2D(x, z));
+                }
+                region = new ProtectedPolygonalRegion(id, points, minY, maxY);
+            } else if (type == TYPE_GLOBAL) {
+                region = new GlobalProtectedRegion(id);
+            } else {
+                throw new IndexOutOfBoundsException("Unknown region type " + type);
+            }
+
+            region.setPriority(readSignedVarInt(buffer));
+
+            int parent = readVarInt(buffer);
+            if (parent > 0) {
+                parentSets.put(region, strings[parent - 1]);
+            }
+
+            region.setOwners(readDomain(buffer, strings));
+            region.setMembers(readDomain(buffer, strings));
+
+            int flagCount = readVarInt(buffer);
+            for (int j = 0; j < flagCount; j++) {
+                Flag<?> flag = flags.get(strings[readVarInt(buffer)]);
+                Object value = readValue(buffer, strings);
+                if (flag != null && value != null) {
+                    setFlag(region, flag, value);
+                }
+            }
+
+            regions.put(id, region);
+        }
+
+        return regions;
+    }
+
+    /**
+     * Link regions to their parents.
+     *
+     * @param regions the regions, by ID
+     * @param parentSets the parent ID of every region that has one
+     */
+    void relinkParents(Map<String, ProtectedRegion> regions, Map<ProtectedRegion, String> parentSets) {
+        for (Map.Entry<ProtectedRegion, String> entry : parentSets.entrySet()) {
+            ProtectedRegion parent = regions.get(entry.getValue());
+            if (parent != null) {
+                try {
+                    entry.getKey().setParent(parent);
+                } catch (CircularInheritanceException e) {
+                    logger.warning("Circular inheritance detect with '"
+                            + entry.getValue() + "' detected as a parent");
+                }
+            } else {
+                logger.warning("Unknown region parent: " + entry.getValue());
+            }
+        }
+    }
+
+    private static DefaultDomain readDomain(ByteBuffer buffer, String[] strings) {
+        DefaultDomain domain = new DefaultDomain();
+
+        int players = readVarInt(buffer);
+        for (int i = 0; i < players; i++) {
+            domain.addPlayer(strings[readVarInt(buffer)]);
+        }
+
+        int groups = readVarInt(buffer);
+        for (int i = 0; i < groups; i++) {
+            domain.addGroup(strings[readVarInt(buffer)]);
+        }
+
+        return domain;
+    }
+
+    private static Object readValue(ByteBuffer buffer, String[] strings) {
+        byte type = buffer.get();
+
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_TRUE:
+                return true;
+            case VALUE_INT:
+                return readSignedVarInt(buffer);
+            case VALUE_LONG:
+                return buffer.getLong();
+            case VALUE_FLOAT:
+                return buffer.getFloat();
+            case VALUE_DOUBLE:
+                return buffer.getDouble();
+            case VALUE_STRING:
+                return strings[readVarInt(buffer)];
+            case VALUE_LIST:
+                int size = readVarInt(buffer);
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer, strings));
+                }
+                return list;
+            case VALUE_MAP:
+                int entries = readVarInt(buffer);
+                Map<String, Object> map = new HashMap<String, Object>();
+                for (int i = 0; i < entries; i++) {
+                    String key = strings[readVarInt(buffer)];
+                    map.put(key, readValue(buffer, strings));
+                }
+                return map;
+            default:
+                throw new IndexOutOfBoundsException("Unknown value type " + type);
+        }
+    }
+
+    private <T> void setFlag(ProtectedRegion region, Flag<T> flag, Object rawValue) {
+        T val = flag.unmarshal(rawValue);
+        if (val == null) {
+            logger.warning("Failed to parse flag '" + flag.getName()
+                    + "' with value '" + rawValue.toString() + "'");
+            return;
+        }
+        region.setFlag(flag, val);
+    }
+
+    /**
+     * Write regions.
+     *
+     * @param output the stream to write to
+     * @param regions the regions, by ID
+     * @throws IOException on a write error
+     */
+    void write(OutputStream output, Map<String, ProtectedRegion> regions) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream regionData = new ByteArrayOutputStream();
+        int count = 0;
+
+        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
+            if (writeRegion(regionData, entry.getKey(), entry.getValue(), strings)) {
+                count++;
+            }
+        }
+
+        ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+        writeVarInt(stringData, strings.size());
+        for (String str : strings.keySet()) {
+            byte[] bytes = str.getBytes(UTF_8);
+            writeVarInt(stringData, bytes.length);
+            stringData.write(bytes, 0, bytes.length);
+        }
+
+        ByteArrayOutputStream regionSection = new ByteArrayOutputStream(regionData.size() + 5);
+        writeVarInt(regionSection, count);
+        regionData.writeTo(regionSection);
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        output.write(header.array());
+        writeSection(output, SECTION_STRINGS, stringData);
+        writeSection(output, SECTION_REGIONS, regionSection);
+    }
+
+    private static void writeSection(OutputStream output, byte section,
+            ByteArrayOutputStream data) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(5);
+        header.put(section);
+        header.putInt(data.size());
+        output.write(header.array());
+        data.writeTo(output);
+    }
+
+    private boolean writeRegion(ByteArrayOutputStream out, String id,
+            ProtectedRegion region, Map<String, Integer> strings) {
+        byte type;
+
+        if (region instanceof ProtectedCuboidRegion) {
+            type = TYPE_CUBOID;
+        } else if (region instanceof ProtectedPolygonalRegion) {
+            type = TYPE_POLY2D;
+        } else if (region instanceof GlobalProtectedRegion) {
+            type = TYPE_GLOBAL;
+        } else {
+            logger.warning("Not saving region '" + id + "' of unknown type "
+                    + region.getClass().getCanonicalName());
+            return false;
+        }
+
+        writeVarInt(out, intern(strings, id));
+        out.write(type);
+
+        if (type == TYPE_CUBOID) {
+            BlockVector min = region.getMinimumPoint();
+            BlockVector max = region.getMaximumPoint();
+            writeSignedVarInt(out, min.getBlockX());
+            writeSignedVarInt(out, min.getBlockY());
+            writeSignedVarInt(out, min.getBlockZ());
+            writeSignedVarInt(out, max.getBlockX());
+            writeSignedVarInt(out, max.getBlockY());
+            writeSignedVarInt(out, max.getBlockZ());
+        } else if (type == TYPE_POLY2D) {
+            writeSignedVarInt(out, region.getMinimumPoint().getBlockY());
+            writeSignedVarInt(out, region.getMaximumPoint().getBlockY());
+            List<BlockVector2D> points = region.getPoints();
+            writeVarInt(out, points.size());
+            int x = 0;
+            int z = 0;
+            for (BlockVector2D point : points) {
+                writeSignedVarInt(out, point.getBlockX() - x);
+                writeSignedVarInt(out, point.getBlockZ() - z);
+                x = point.getBlockX();
+                z = point.getBlockZ();
+            }
+        }
+
+        writeSignedVarInt(out, region.getPriority());
+
+        ProtectedRegion parent = region.getParent();
+        writeVarInt(out, parent == null ? 0 : intern(strings, parent.getId().toLowerCase()) + 1);
+
+        writeDomain(out, region.getOwners(), strings);
+        writeDomain(out, region.getMembers(), strings);
+
+        Map<Flag<?>, Object> flags = region.getFlags();
+        int flagCount = 0;
+        for (Object value : flags.values()) {
+            if (value != null) {
+                flagCount++;
+            }
+        }
+
+        writeVarInt(out, flagCount);
+        for (Map.Entry<Flag<?>, Object> entry : flags.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            writeVarInt(out, intern(strings, entry.getKey().getName()));
+            writeValue(out, marshalFlag(entry.getKey(), entry.getValue()), strings);
+        }
+
+        return true;
+    }
+
+    private static void writeDomain(ByteArrayOutputStream out, DefaultDomain domain,
+            Map<String, Integer> strings) {
+        writeVarInt(out, domain.getPlayers().size());
+        for (String name : domain.getPlayers()) {
+            writeVarInt(out, intern(strings, name));
+        }
+
+        writeVarInt(out, domain.getGroups().size());
+        for (String name : domain.getGroups()) {
+            writeVarInt(out, intern(strings, name));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(ByteArrayOutputStream out, Object value,
+            Map<String, Integer> strings) {
+        if (value == null) {
+            out.write(VALUE_NULL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.write(VALUE_INT);
+            writeSignedVarInt(out, ((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.write(VALUE_LONG);
+            writeLong(out, (Long) value);
+        } else if (value instanceof Float) {
+            out.write(VALUE_FLOAT);
+            writeInt(out, Float.floatToIntBits((Float) value));
+        } else if (value instanceof Number) {
+            out.write(VALUE_DOUBLE);
+            writeLong(out, Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            out.write(VALUE_LIST);
+            writeVarInt(out, list.size());
+            for (Object item : list) {
+                writeValue(out, item, strings);
+            }
+        } else if (value instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            out.write(VALUE_MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                writeVarInt(out, intern(strings, String.valueOf(entry.getKey())));
+                writeValue(out, entry.getValue(), strings);
+            }
+        } else {
+            out.write(VALUE_STRING);
+            writeVarInt(out, intern(strings, value.toString()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Object marshalFlag(Flag<V> flag, Object val) {
+        return flag.marshal((V) val);
+    }
+
+    private static int intern(Map<String, Integer> strings, String str) {
+        Integer index = strings.get(str);
+        if (index == null) {
+            index = strings.size();
+            strings.put(str, index);
+        }
+        return index;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeSignedVarInt(ByteArrayOutputStream out, int value) {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IndexOutOfBoundsException("Malformed number");
+    }
+
+    private static int readSignedVarInt(ByteBuffer buffer) {
+        int value = readVarInt(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,395 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.protection.databases;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion.CircularInheritanceException;
+
+/**
+ * Keeps a journal of region changes next to another database. Every save
+ * appends one record with the regions that changed and the IDs of the
+ * regions that were removed since the last save, so saving takes time in
+ * proportion to the changes rather than to the number of regions. Loading
+ * replays the journal over the regions of the other database.
+ *
+ * <p>Once the journal grows past a size, all regions are written to the
+ * other database and the journal is started over. This happens as part of
+ * a save, so it runs in the background together with background saves.
+ * If the other database is lost in the middle of this, the journal still
+ * holds everything that was not written to it before.</p>
+ *
+ * <p>Every record has a checksum. A record that was only partly written
+ * because the server stopped is dropped when the journal is loaded, along
+ * with anything after it.</p>
+ */
+public class JournaledDatabase extends AbstractProtectionDatabase {
+
+    /**
+     * "WGRJ" in ASCII.
+     */
+    private static final int MAGIC = 0x5747524A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ProtectionDatabase snapshot;
+    private final File journal;
+    private final long compactSize;
+    private final Logger logger;
+    private final BinaryRegionFormat format;
+    private Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+
+    /**
+     * The IDs of the regions as of the last load or save.
+     */
+    private Set<String> savedIds = new HashSet<String>();
+
+    /**
+     * Create a journal for a database.
+     *
+     * @param snapshot the database that holds all regions as of the last
+     *        compaction
+     * @param journal the journal file
+     * @param compactSize the size of the journal in bytes after which it is
+     *        compacted into the other database
+     * @param logger the logger to log warnings to
+     */
+    public JournaledDatabase(ProtectionDatabase snapshot, File journal,
+            long compactSize, Logger logger) {
+        this.snapshot = snapshot;
+        this.journal = journal;
+        this.compactSize = compactSize;
+        this.logger = logger;
+        this.format = new BinaryRegionFormat(logger);
+    }
+
+    public void load() throws ProtectionDatabaseException {
+        snapshot.load();
+
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+        if (snapshot.getRegions() != null) {
+            regions.putAll(snapshot.getRegions());
+        }
+
+        Map<String, String> parentIds = new HashMap<String, String>();
+
+        try {
+            replay(regions, parentIds);
+        } catch (IOException e) {
+            throw new ProtectionDatabaseException(e);
+        }
+
+        relinkParents(regions, parentIds);
+
+        for (ProtectedRegion region : regions.values()) {
+            region.setDirty(false);
+        }
+
+        this.regions = regions;
+        this.savedIds = new HashSet<String>(regions.keySet());
+    }
+
+    /**
+     * Apply the records of the journal.
+     *
+     * @param regions the regions to apply the records to
+     * @param parentIds a map to put the parent ID of every region from the
+     *        journal in
+     * @throws IOException on a read error
+     * @throws ProtectionDatabaseException if the journal is not valid
+     */
+    private void replay(Map<String, ProtectedRegion> regions, Map<String, String> parentIds)
+            throws IOException, ProtectionDatabaseException {
+        // A journal without a complete header was being reset when the
+        // server stopped, and the snapshot already has all of its records
+        if (!journal.exists() || journal.length() < HEADER_SIZE) {
+            return;
+        }
+
+        byte[] data;
+        RandomAccessFile input = new RandomAccessFile(journal, "r");
+        try {
+            data = new byte[(int) input.length()];
+            input.readFully(data);
+        } finally {
+            input.close();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        if (data.length < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new ProtectionDatabaseException(journal + " is not a region journal");
+        }
+
+        int version = buffer.getInt();
+        if (version > VERSION) {
+            throw new ProtectionDatabaseException("The region journal " + journal
+                    + " was written by a newer version (format " + version + ")");
+        }
+
+        CRC32 crc = new CRC32();
+        int records = 0;
+
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+
+            if (length < 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            crc.reset();
+            crc.update(data, buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(data, buffer.position(), length).slice();
+            buffer.position(buffer.position() + length);
+
+            try {
+                applyRecord(record, regions, parentIds);
+            } catch (BufferUnderflowException e) {
+                throw new ProtectionDatabaseException("Record " + records
+                        + " of the region journal " + journal + " is corrupt");
+            }
+
+            records++;
+        }
+
+        if (buffer.hasRemaining()) {
+            logger.warning("Dropping an incomplete record at the end of the region journal "
+                    + journal);
+            RandomAccessFile output = new RandomAccessFile(journal, "rw");
+            try {
+                output.setLength(buffer.position());
+            } finally {
+                output.close();
+            }
+        }
+    }
+
+    private void applyRecord(ByteBuffer record, Map<String, ProtectedRegion> regions,
+            Map<String, String> parentIds) throws ProtectionDatabaseException {
+        int removed = record.getInt();
+        for (int i = 0; i < removed; i++) {
+            byte[] bytes = new byte[record.getShort() & 0xFFFF];
+            record.get(bytes);
+            String id = new String(bytes, UTF_8);
+            regions.remove(id);
+            parentIds.remove(id);
+        }
+
+        Map<ProtectedRegion, String> parentSets = new HashMap<ProtectedRegion, String>();
+        Map<String, ProtectedRegion> changed = format.read(record.slice(), parentSets);
+
+        for (Map.Entry<String, ProtectedRegion> entry : changed.entrySet()) {
+            regions.put(entry.getKey(), entry.getValue());
+
+            String parentId = parentSets.get(entry.getValue());
+            if (parentId != null) {
+                parentIds.put(entry.getKey(), parentId);
+            } else {
+                parentIds.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Link the regions from the journal to their parents, and the regions
+     * whose parents were replaced by the journal to the new parents.
+     *
+     * @param regions the regions
+     * @param parentIds the parent ID of every region from the journal
+     */
+    private void relinkParents(Map<String, ProtectedRegion> regions,
+            Map<String, String> parentIds) {
+        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
+            ProtectedRegion region = entry.getValue();
+            String parentId = parentIds.get(entry.getKey());
+
+            if (parentId == null && region.getParent() != null) {
+                parentId = region.getParent().getId().toLowerCase();
+            }
+
+            if (parentId == null) {
+                continue;
+            }
+
+            ProtectedRegion parent = regions.get(parentId);
+            if (parent == null) {
+                logger.warning("Unknown region parent: " + parentId);
+            }
+
+            if (parent != region.getParent()) {
+                try {
+                    region.setParent(parent);
+                } catch (CircularInheritanceException e) {
+                    logger.warning("Circular inheritance detect with '"
+                            + parentId + "' detected as a parent");
+                }
+            }
+        }
+    }
+
+    public void save() throws ProtectionDatabaseException {
+        Map<String, ProtectedRegion> changed = new HashMap<String, ProtectedRegion>();
+        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
+            if (entry.getValue().isDirty()) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        List<String> removed = new ArrayList<String>();
+        for (String id : savedIds) {
+            if (!regions.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+
+        try {
+            append(changed, removed);
+        } catch (IOException e) {
+            throw new ProtectionDatabaseException(e);
+        }
+
+        for (ProtectedRegion region : changed.values()) {
+            region.setDirty(false);
+        }
+
+        savedIds = new HashSet<String>(regions.keySet());
+
+        if (journal.length() > compactSize) {
+            compact();
+        }
+    }
+
+    /**
+     * Append a record to the journal and wait until it is on disk.
+     *
+     * @param changed the regions that changed
+     * @param removed the IDs of the regions that were removed
+     * @throws IOException on a write error
+     */
+    private void append(Map<String, ProtectedRegion> changed, List<String> removed)
+            throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeInt(removed.size());
+        for (String id : removed) {
+            byte[] bytes = id.getBytes(UTF_8);
+            data.writeShort(bytes.length);
+            data.write(bytes);
+        }
+        format.write(data, changed);
+        data.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(body.size() + HEADER_SIZE * 2);
+        DataOutputStream out = new DataOutputStream(record);
+        if (!journal.exists() || journal.length() < HEADER_SIZE) {
+            journal.getParentFile().mkdirs();
+            resetJournal();
+        }
+        out.writeInt(body.size());
+        out.writeInt((int) crc.getValue());
+        body.writeTo(out);
+        out.flush();
+
+        FileOutputStream output = new FileOutputStream(journal, true);
+        try {
+            record.writeTo(output);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Write all regions to the other database and start a new journal.
+     *
+     * @throws ProtectionDatabaseException if the regions could not be written
+     */
+    private void compact() throws ProtectionDatabaseException {
+        snapshot.setRegions(regions);
+        snapshot.save();
+
+        try {
+            resetJournal();
+        } catch (IOException e) {
+            throw new ProtectionDatabaseException(e);
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        FileOutputStream output = new FileOutputStream(journal);
+        try {
+            DataOutputStream out = new DataOutputStream(output);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
+    public Map<String, ProtectedRegion> getRegions() {
+        return regions;
+    }
+
+    public void setRegions(Map<String, ProtectedRegion> regions) {
+        this.regions = regions;
+    }
+
+    @Override
+    public void close() {
+        snapshot.close();
+    }
+}
@@ -32,6 +32,8 @@
 import com.sk89q.worldguard.protection.regions.ProtectedPolygonalRegion;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion.CircularInheritanceException;
+import com.sk89q.worldguard.util.ConnectionPool;
+import com.sk89q.worldguard.util.PooledConnection;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.DumperOptions.FlowStyle;
 import org.yaml.snakeyaml.Yaml;
@@ -45,6 +47,13 @@
 import java.util.logging.Logger;
 
 public class MySQLDatabase extends AbstractProtectionDatabase {
+    /**
+     * Numbers of names per statement that user and group lookups are split
+     * into. Keeping to a few sizes keeps the number of different statements
+     * that the connections prepare and cache small.
+     */
+    private static final int[] LOOKUP_SIZES = { 100, 10, 1 };
+
     private final Logger logger;
 
     private Yaml yaml;
@@ -58,17 +67,27 @@ public class MySQLDatabase extends AbstractProtectionDatabase {
 
     private final ConfigurationManager config;
 
-    private Connection conn;
+    private final ConnectionPool pool;
+    private boolean closed;
+    private PooledConnection conn;
     private int worldDbId = -1; // The database will never have an id of -1;
 
     public MySQLDatabase(ConfigurationManager config, String world, Logger logger) throws ProtectionDatabaseException {
         this.config = config;
         String world1 = world;
         this.logger = logger;
+        this.pool = ConnectionPool.acquire(config.sqlDsn, config.sqlUsername, config.sqlPassword);
 
         try {
-            connect();
+            conn = pool.borrow();
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, ex.getMessage(), ex);
+            // We havn't connected to the databases, so there is no point
+            // continuing
+            return;
+        }
 
+        try {
             try {
             	// Test if the database is up to date, if not throw a critical error
             	PreparedStatement verTest = this.conn.prepareStatement(
@@ -109,9 +128,15 @@ public MySQLDatabase(ConfigurationManager config, String world, Logger logger) t
             }
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, ex.getMessage(), ex);
-            // We havn't connected to the databases, or there was an error
-            // initialising the world record, so there is no point continuing
+            // There was an error initialising the world record, so there is
+            // no point continuing
             return;
+        } catch (InvalidTableFormatException ex) {
+            // Nobody gets to close this database
+            close();
+            throw ex;
+        } finally {
+            disconnect();
         }
 
         if (this.worldDbId <= 0) {
@@ -131,61 +156,79 @@ public MySQLDatabase(ConfigurationManager config, String world, Logger logger) t
         yaml = new Yaml(new SafeConstructor(), new Representer(), options);
     }
 
-    private void connect() throws SQLException {
-    	if (conn != null) {
-    		// Make a dummy query to check the connnection is alive.
-    		try {
-    			conn.prepareStatement("SELECT 1;").execute();
-    		} catch (SQLException ex) {
-                // Test if the dummy query failed because the connection is dead,
-                // and if it is mark the connection as closed (the MySQL Driver
-                // does not ensure that the connection is marked as closed unless
-                // the close() method has been called.
-    			if ("08S01".equals(ex.getSQLState())) {
-    				conn.close();
-    			}
-    		}
-    	}
-        if (conn == null || conn.isClosed()) {
-            conn = DriverManager.getConnection(config.sqlDsn, config.sqlUsername, config.sqlPassword);
+    /**
+     * Borrow a connection from the pool for the current operation.
+     *
+     * @throws ProtectionDatabaseException if no connection could be made
+     */
+    private void connect() throws ProtectionDatabaseException {
+        try {
+            conn = pool.borrow();
+        } catch (SQLException ex) {
+            throw new ProtectionDatabaseException(ex);
         }
     }
 
-    private void loadFlags(ProtectedRegion region) {
-        // @TODO: Iterate _ONCE_
+    /**
+     * Give the connection of the current operation back to the pool.
+     */
+    private void disconnect() {
+        pool.release(conn);
+        conn = null;
+    }
+
+    /**
+     * Prepare a statement whose results are streamed from the server
+     * instead of being read into memory all at once. The results must be
+     * read completely before the connection is used again.
+     *
+     * @param sql the query
+     * @return the statement
+     * @throws SQLException on a database error
+     */
+    private PreparedStatement prepareStreaming(String sql) throws SQLException {
+        PreparedStatement statement = this.conn.prepareStatement(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+        return statement;
+    }
+
+    private void loadFlags(Map<String, ProtectedRegion> regions) {
+        Map<String, Flag<?>> flags = new HashMap<String, Flag<?>>();
+        for (Flag<?> flag : DefaultFlag.getFlags()) {
+            flags.put(flag.getName(), flag);
+        }
+
         try {
-            PreparedStatement flagsStatement = this.conn.prepareStatement(
+            PreparedStatement flagsStatement = prepareStreaming(
                     "SELECT " +
+                    "`region_flag`.`region_id`, " +
                     "`region_flag`.`flag`, " +
                     "`region_flag`.`value` " +
                     "FROM `region_flag` " +
-                    "WHERE `region_flag`.`region_id` = ? " +
-                    "AND `region_flag`.`world_id` = " + this.worldDbId
+                    "WHERE `region_flag`.`world_id` = " + this.worldDbId
             );
 
-            flagsStatement.setString(1, region.getId().toLowerCase());
             ResultSet flagsResultSet = flagsStatement.executeQuery();
 
-            Map<String,Object> regionFlags = new HashMap<String,Object>();
-            while (flagsResultSet.next()) {
-                regionFlags.put(
-                        flagsResultSet.getString("flag"),
-                        sqlUnmarshal(flagsResultSet.getString("value"))
-                        );
-            }
+            try {
+                while (flagsResultSet.next()) {
+                    ProtectedRegion region = regions.get(flagsResultSet.getString("region_id"));
+                    Flag<?> flag = flags.get(flagsResultSet.getString("flag"));
+                    if (region == null || flag == null) {
+                        continue;
+                    }
 
-            // @TODO: Make this better
-            for (Flag<?> flag : DefaultFlag.getFlags()) {
-                Object o = regionFlags.get(flag.getName());
-                if (o != null) {
-                    setFlag(region, flag, o);
+                    Object o = sqlUnmarshal(flagsResultSet.getString("value"));
+                    if (o != null) {
+                        setFlag(region, flag, o);
+                    }
                 }
+            } finally {
+                flagsResultSet.close();
             }
         } catch (SQLException ex) {
-            logger.warning(
-                    "Unable to load flags for region "
-                    + region.getId().toLowerCase() + ": " + ex.getMessage()
-            );
+            logger.warning("Unable to load flags for regions: " + ex.getMessage());
         }
     }
 
@@ -199,64 +242,91 @@ private <T> void setFlag(ProtectedRegion region, Flag<T> flag, Object rawValue)
         region.setFlag(flag, val);
     }
 
-    private void loadOwnersAndMembers(ProtectedRegion region) {
-        DefaultDomain owners = new DefaultDomain();
-        DefaultDomain members = new DefaultDomain();
+    private void loadOwnersAndMembers(Map<String, ProtectedRegion> regions) {
+        Map<String, DefaultDomain> owners = new HashMap<String, DefaultDomain>();
+        Map<String, DefaultDomain> members = new HashMap<String, DefaultDomain>();
+
+        for (String id : regions.keySet()) {
+            owners.put(id, new DefaultDomain());
+            members.put(id, new DefaultDomain());
+        }
 
         try {
-            PreparedStatement usersStatement = this.conn.prepareStatement(
+            PreparedStatement usersStatement = prepareStreaming(
                     "SELECT " +
+                    "`region_players`.`region_id`, " +
                     "`user`.`name`, " +
                     "`region_players`.`owner` " +
                     "FROM `region_players` " +
                     "LEFT JOIN `user` ON ( " +
                     "`region_players`.`user_id` = " +
                     "`user`.`id`) " +
-                    "WHERE `region_players`.`region_id` = ? " +
-                    "AND `region_players`.`world_id` = " + this.worldDbId
+                    "WHERE `region_players`.`world_id` = " + this.worldDbId
             );
 
-            usersStatement.setString(1, region.getId().toLowerCase());
             ResultSet userSet = usersStatement.executeQuery();
-            while(userSet.next()) {
-                if (userSet.getBoolean("owner")) {
-                    owners.addPlayer(userSet.getString("name"));
-                } else {
-                    members.addPlayer(userSet.getString("name"));
+
+            try {
+                while(userSet.next()) {
+                    String id = userSet.getString("region_id");
+                    String name = userSet.getString("name");
+                    if (!regions.containsKey(id) || name == null) {
+                        continue;
+                    }
+
+                    if (userSet.getBoolean("owner")) {
+                        owners.get(id).addPlayer(name);
+                    } else {
+                        members.get(id).addPlayer(name);
+                    }
                 }
+            } finally {
+                userSet.close();
             }
         } catch (SQLException ex) {
-            logger.warning("Unable to load users for region " + region.getId().toLowerCase() + ": " + ex.getMessage());
+            logger.warning("Unable to load users for regions: " + ex.getMessage());
         }
 
         try {
-            PreparedStatement groupsStatement = this.conn.prepareStatement(
+            PreparedStatement groupsStatement = prepareStreaming(
                     "SELECT " +
+                    "`region_groups`.`region_id`, " +
                     "`group`.`name`, " +
                     "`region_groups`.`owner` " +
                     "FROM `region_groups` " +
                     "LEFT JOIN `group` ON ( " +
                     "`region_groups`.`group_id` = " +
                     "`group`.`id`) " +
-                    "WHERE `region_groups`.`region_id` = ? " +
-                    "AND `region_groups`.`world_id` = " + this.worldDbId
+                    "WHERE `region_groups`.`world_id` = " + this.worldDbId
             );
 
-            groupsStatement.setString(1, region.getId().toLowerCase());
             ResultSet groupSet = groupsStatement.executeQuery();
-            while(groupSet.next()) {
-                if (groupSet.getBoolean("owner")) {
-                    owners.addGroup(groupSet.getString("name"));
-                } else {
-                    members.addGroup(groupSet.getString("name"));
+
+            try {
+                while(groupSet.next()) {
+                    String id = groupSet.getString("region_id");
+                    String name = groupSet.getString("name");
+                    if (!regions.containsKey(id) || name == null) {
+                        continue;
+                    }
+
+                    if (groupSet.getBoolean("owner")) {
+                        owners.get(id).addGroup(name);
+                    } else {
+                        members.get(id).addGroup(name);
+                    }
                 }
+            } finally {
+                groupSet.close();
             }
         } catch (SQLException ex) {
-            logger.warning("Unable to load groups for region " + region.getId().toLowerCase() + ": " + ex.getMessage());
+            logger.warning("Unable to load groups for regions: " + ex.getMessage());
         }
 
-        region.setOwners(owners);
-        region.setMembers(members);
+        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
+            entry.getValue().setOwners(owners.get(entry.getKey()));
+            entry.getValue().setMembers(members.get(entry.getKey()));
+        }
     }
 
     private void loadGlobal() {
@@ -264,7 +334,7 @@ private void loadGlobal() {
                 new HashMap<String,ProtectedRegion>();
 
         try {
-            PreparedStatement globalRegionStatement = this.conn.prepareStatement(
+            PreparedStatement globalRegionStatement = prepareStreaming(
                     "SELECT " +
                     "`region`.`id`, " +
                     "`region`.`priority`, " +
@@ -280,20 +350,21 @@ private void loadGlobal() {
             globalRegionStatement.setInt(1, this.worldDbId);
             ResultSet globalResultSet = globalRegionStatement.executeQuery();
 
-            while (globalResultSet.next()) {
-                ProtectedRegion region = new GlobalProtectedRegion(globalResultSet.getString("id"));
-
-                region.setPriority(globalResultSet.getInt("priority"));
+            try {
+                while (globalResultSet.next()) {
+                    ProtectedRegion region = new GlobalProtectedRegion(globalResultSet.getString("id"));
 
-                this.loadFlags(region);
-                this.loadOwnersAndMembers(region);
+                    region.setPriority(globalResultSet.getInt("priority"));
 
-                regions.put(globalResultSet.getString("id"), region);
+                    regions.put(globalResultSet.getString("id"), region);
 
-                String parentId = globalResultSet.getString("parent");
-                if (parentId != null) {
-                    parentSets.put(region, parentId);
+                    String parentId = globalResultSet.getString("parent");
+                    if (parentId != null) {
+                        parentSets.put(region, parentId);
+                    }
                 }
+            } finally {
+                globalResultSet.close();
             }
         } catch (SQLException ex) {
             ex.printStackTrace();
@@ -313,7 +384,7 @@ private void loadCuboid() {
                 new HashMap<String,ProtectedRegion>();
 
         try {
-            PreparedStatement cuboidRegionStatement = this.conn.prepareStatement(
+            PreparedStatement cuboidRegionStatement = prepareStreaming(
                     "SELECT " +
                     "`region_cuboid`.`min_z`, " +
                     "`region_cuboid`.`min_y`, " +
@@ -337,39 +408,39 @@ private void loadCuboid() {
             cuboidRegionStatement.setInt(1, this.worldDbId);
             ResultSet cuboidResultSet = cuboidRegionStatement.executeQuery();
 
-            while (cuboidResultSet.next()) {
-                Vector pt1 = new Vector(
-                        cuboidResultSet.getInt("min_x"),
-                        cuboidResultSet.getInt("min_y"),
-                        cuboidResultSet.getInt("min_z")
-                );
-                Vector pt2 = new Vector(
-                        cuboidResultSet.getInt("max_x"),
-                        cuboidResultSet.getInt("max_y"),
-                        cuboidResultSet.getInt("max_z")
-                );
-
-                BlockVector min = Vector.getMinimum(pt1, pt2).toBlockVector();
-                BlockVector max = Vector.getMaximum(pt1, pt2).toBlockVector();
-                ProtectedRegion region = new ProtectedCuboidRegion(
-                        cuboidResultSet.getString("id"),
-                        min,
-                        max
-                );
-
-                region.setPriority(cuboidResultSet.getInt("priority"));
-
-                this.loadFlags(region);
-                this.loadOwnersAndMembers(region);
-
-                regions.put(cuboidResultSet.getString("id"), region);
-
-                String parentId = cuboidResultSet.getString("parent");
-                if (parentId != null) {
-                    parentSets.put(region, parentId);
+            try {
+                while (cuboidResultSet.next()) {
+                    Vector pt1 = new Vector(
+                            cuboidResultSet.getInt("min_x"),
+                            cuboidResultSet.getInt("min_y"),
+                            cuboidResultSet.getInt("min_z")
+                    );
+                    Vector pt2 = new Vector(
+                            cuboidResultSet.getInt("max_x"),
+                            cuboidResultSet.getInt("max_y"),
+                            cuboidResultSet.getInt("max_z")
+                    );
+
+                    BlockVector min = Vector.getMinimum(pt1, pt2).toBlockVector();
+                    BlockVector max = Vector.getMaximum(pt1, pt2).toBlockVector();
+                    ProtectedRegion region = new ProtectedCuboidRegion(
+                            cuboidResultSet.getString("id"),
+                            min,
+                            max
+                    );
+
+                    region.setPriority(cuboidResultSet.getInt("priority"));
+
+                    regions.put(cuboidResultSet.getString("id"), region);
+
+                    String parentId = cuboidResultSet.getString("parent");
+                    if (parentId != null) {
+                        parentSets.put(region, parentId);
+                    }
                 }
+            } finally {
+                cuboidResultSet.close();
             }
-
         } catch (SQLException ex) {
             ex.printStackTrace();
             logger.warning("Unable to load regions from sql database: " + ex.getMessage());
@@ -383,12 +454,55 @@ private void loadCuboid() {
         cuboidRegions = regions;
     }
 
+    private Map<String, List<BlockVector2D>> loadPoly2dPoints() {
+        Map<String, List<BlockVector2D>> points =
+                new HashMap<String, List<BlockVector2D>>();
+
+        try {
+            PreparedStatement poly2dVectorStatement = prepareStreaming(
+                    "SELECT " +
+                    "`region_poly2d_point`.`region_id`, " +
+                    "`region_poly2d_point`.`x`, " +
+                    "`region_poly2d_point`.`z` " +
+                    "FROM `region_poly2d_point` " +
+                    "WHERE `region_poly2d_point`.`world_id` = " + this.worldDbId + " " +
+                    "ORDER BY `region_poly2d_point`.`id`"
+            );
+
+            ResultSet poly2dVectorResultSet = poly2dVectorStatement.executeQuery();
+
+            try {
+                while(poly2dVectorResultSet.next()) {
+                    String id = poly2dVectorResultSet.getString("region_id");
+                    List<BlockVector2D> regionPoints = points.get(id);
+                    if (regionPoints == null) {
+                        regionPoints = new ArrayList<BlockVector2D>();
+                        points.put(id, regionPoints);
+                    }
+
+                    regionPoints.add(new BlockVector2D(
+                            poly2dVectorResultSet.getInt("x"),
+                            poly2dVectorResultSet.getInt("z")
+                    ));
+                }
+            } finally {
+                poly2dVectorResultSet.close();
+            }
+        } catch (SQLException ex) {
+            logger.warning("Unable to load polygon points from sql database: " + ex.getMessage());
+        }
+
+        return points;
+    }
+
     private void loadPoly2d() {
         Map<String,ProtectedRegion> regions =
                 new HashMap<String,ProtectedRegion>();
 
+        Map<String, List<BlockVector2D>> poly2dPoints = this.loadPoly2dPoints();
+
         try {
-            PreparedStatement poly2dRegionStatement = this.conn.prepareStatement(
+            PreparedStatement poly2dRegionStatement = prepareStreaming(
                     "SELECT " +
                     "`region_poly2d`.`min_y`, " +
                     "`region_poly2d`.`max_y`, " +
@@ -408,44 +522,30 @@ private void loadPoly2d() {
             poly2dRegionStatement.setInt(1, this.worldDbId);
             ResultSet poly2dResultSet = poly2dRegionStatement.executeQuery();
 
-            PreparedStatement poly2dVectorStatement = this.conn.prepareStatement(
-                    "SELECT " +
-                    "`region_poly2d_point`.`x`, " +
-                    "`region_poly2d_point`.`z` " +
-                    "FROM `region_poly2d_point` " +
-                    "WHERE `region_poly2d_point`.`region_id` = ? " +
-                    "AND `region_poly2d_point`.`world_id` = " + this.worldDbId
-            );
-
-            while (poly2dResultSet.next()) {
-                String id = poly2dResultSet.getString("id");
-
-                Integer minY = poly2dResultSet.getInt("min_y");
-                Integer maxY = poly2dResultSet.getInt("max_y");
-                List<BlockVector2D> points = new ArrayList<BlockVector2D>();
-
-                poly2dVectorStatement.setString(1, id);
-                ResultSet poly2dVectorResultSet = poly2dVectorStatement.executeQuery();
-
-                while(poly2dVectorResultSet.next()) {
-                    points.add(new BlockVector2D(
-                            poly2dVectorResultSet.getInt("x"),
-                            poly2dVectorResultSet.getInt("z")
-                    ));
-                }
-                ProtectedRegion region = new ProtectedPolygonalRegion(id, points, minY, maxY);
+            try {
+                while (poly2dResultSet.next()) {
+                    String id = poly2dResultSet.getString("id");
+
+                    Integer minY = poly2dResultSet.getInt("min_y");
+                    Integer maxY = poly2dResultSet.getInt("max_y");
+                    List<BlockVector2D> points = poly2dPoints.get(id);
+                    if (points == null) {
+                        points = new ArrayList<BlockVector2D>();
+                    }
 
-                region.setPriority(poly2dResultSet.getInt("priority"));
+                    ProtectedRegion region = new ProtectedPolygonalRegion(id, points, minY, maxY);
 
-                this.loadFlags(region);
-                this.loadOwnersAndMembers(region);
+                    region.setPriority(poly2dResultSet.getInt("priority"));
 
-                regions.put(poly2dResultSet.getString("id"), region);
+                    regions.put(poly2dResultSet.getString("id"), region);
 
-                String parentId = poly2dResultSet.getString("parent");
-                if (parentId != null) {
-                    parentSets.put(region, parentId);
+                    String parentId = poly2dResultSet.getString("parent");
+                    if (parentId != null) {
+                        parentSets.put(region, parentId);
+                    }
                 }
+            } finally {
+                poly2dResultSet.close();
             }
         } catch (SQLException ex) {
             ex.printStackTrace();
@@ -462,12 +562,16 @@ private void loadPoly2d() {
 
     @Override
     public void load() throws ProtectionDatabaseException {
+        connect();
+
         try {
-            connect();
-        } catch (SQLException ex) {
-            throw new ProtectionDatabaseException(ex);
+            loadRegions();
+        } finally {
+            disconnect();
         }
+    }
 
+    private void loadRegions() {
         parentSets = new HashMap<ProtectedRegion,String>();
 
         // We load the cuboid regions first, as this is likely to be the
@@ -484,6 +588,10 @@ public void load() throws ProtectionDatabaseException {
         regions.putAll(this.globalRegions);
         this.globalRegions = null;
 
+        // Flags, owners and members are read for all regions at once
+        this.loadFlags(regions);
+        this.loadOwnersAndMembers(regions);
+
         // Relink parents // Taken verbatim from YAMLDatabase
         for (Map.Entry<ProtectedRegion, String> entry : parentSets.entrySet()) {
             ProtectedRegion parent = regions.get(entry.getValue());
@@ -499,6 +607,11 @@ public void load() throws ProtectionDatabaseException {
             }
         }
 
+        // The regions are now the same as in the database
+        for (ProtectedRegion region : regions.values()) {
+            region.setDirty(false);
+        }
+
         this.regions = regions;
     }
 
@@ -507,63 +620,8 @@ public void load() throws ProtectionDatabaseException {
      * Returns the database id for the user
      * If it doesn't exits it adds the user and returns the id.
      */
-    private Map<String,Integer> getUserIds(String... usernames) {
-        Map<String,Integer> users = new HashMap<String,Integer>();
-
-        if (usernames.length < 1) return users;
-
-        try {
-            PreparedStatement findUsersStatement = this.conn.prepareStatement(
-                    String.format(
-                            "SELECT " +
-                            "`user`.`id`, " +
-                            "`user`.`name` " +
-                            "FROM `user` " +
-                            "WHERE `name` IN (%s)",
-                            RegionDBUtil.preparePlaceHolders(usernames.length)
-                    )
-            );
-
-            RegionDBUtil.setValues(findUsersStatement, usernames);
-
-            ResultSet findUsersResults = findUsersStatement.executeQuery();
-
-            while(findUsersResults.next()) {
-                users.put(findUsersResults.getString("name"), findUsersResults.getInt("id"));
-            }
-
-            PreparedStatement insertUserStatement = this.conn.prepareStatement(
-                    "INSERT INTO " +
-                    "`user` ( " +
-                    "`id`, " +
-                    "`name`" +
-                    ") VALUES (null, ?)",
-                    Statement.RETURN_GENERATED_KEYS
-            );
-
-            for (String username : usernames) {
-                if (!users.containsKey(username)) {
-                    insertUserStatement.setString(1, username);
-                    insertUserStatement.execute();
-                    ResultSet generatedKeys = insertUserStatement.getGeneratedKeys();
-                    if (generatedKeys.first()) {
-                        users.put(username, generatedKeys.getInt(1));
-                    } else {
-                        logger.warning("Could not get the database id for user " + username);
-                    }
-                }
-            }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            logger.warning("Could not get the database id for the users " + usernames.toString() + "\n\t" + ex.getMessage());
-            Throwable t = ex.getCause();
-            while (t != null) {
-                logger.warning(t.getMessage());
-                t = t.getCause();
-            }
-        }
-
-        return users;
+    private Map<String,Integer> getUserIds(String... usernames) throws SQLException {
+        return getNameIds("user", usernames);
     }
 
 
@@ -571,83 +629,109 @@ private Map<String,Integer> getUserIds(String... usernames) {
      * Returns the database id for the groups
      * If it doesn't exits it adds the group and returns the id.
      */
-    private Map<String,Integer> getGroupIds(String... groupnames) {
-        Map<String,Integer> groups = new HashMap<String,Integer>();
+    private Map<String,Integer> getGroupIds(String... groupnames) throws SQLException {
+        return getNameIds("group", groupnames);
+    }
 
-        if (groupnames.length < 1) return groups;
+    /*
+     * Returns the database ids of names in the user or group table, and
+     * adds the names that are not in it yet. The names are looked up with
+     * statements of the fixed lookup sizes.
+     */
+    private Map<String,Integer> getNameIds(String table, String[] names) throws SQLException {
+        Map<String,Integer> ids = new HashMap<String,Integer>();
 
-        try {
-            PreparedStatement findGroupsStatement = this.conn.prepareStatement(
+        if (names.length < 1) return ids;
+
+        int offset = 0;
+        for (int size : LOOKUP_SIZES) {
+            if (names.length - offset < size) {
+                continue;
+            }
+
+            PreparedStatement findStatement = this.conn.prepareStatement(
                     String.format(
                             "SELECT " +
-                            "`group`.`id`, " +
-                            "`group`.`name` " +
-                            "FROM `group` " +
-                            "WHERE `name` IN (%s)",
-                            RegionDBUtil.preparePlaceHolders(groupnames.length)
+                            "`%1$s`.`id`, " +
+                            "`%1$s`.`name` " +
+                            "FROM `%1$s` " +
+                            "WHERE `name` IN (%2$s)",
+                            table,
+                            RegionDBUtil.preparePlaceHolders(size)
                     )
             );
 
-            RegionDBUtil.setValues(findGroupsStatement, groupnames);
-
-            ResultSet findGroupsResults = findGroupsStatement.executeQuery();
+            for (; names.length - offset >= size; offset += size) {
+                RegionDBUtil.setValues(findStatement, Arrays.copyOfRange(names, offset, offset + size));
 
-            while(findGroupsResults.next()) {
-                groups.put(findGroupsResults.getString("name"), findGroupsResults.getInt("id"));
+                ResultSet findResults = findStatement.executeQuery();
+                try {
+                    while(findResults.next()) {
+                        ids.put(findResults.getString("name"), findResults.getInt("id"));
+                    }
+                } finally {
+                    findResults.close();
+                }
             }
+        }
 
-            PreparedStatement insertGroupStatement = this.conn.prepareStatement(
-                    "INSERT INTO " +
-                    "`group` ( " +
-                    "`id`, " +
-                    "`name`" +
-                    ") VALUES (null, ?)",
-                    Statement.RETURN_GENERATED_KEYS
-            );
+        PreparedStatement insertStatement = this.conn.prepareStatement(
+                "INSERT INTO " +
+                "`" + table + "` ( " +
+                "`id`, " +
+                "`name`" +
+                ") VALUES (null, ?)",
+                Statement.RETURN_GENERATED_KEYS
+        );
 
-            for (String groupname : groupnames) {
-                if (!groups.containsKey(groupname)) {
-                    insertGroupStatement.setString(1, groupname);
-                    insertGroupStatement.execute();
-                    ResultSet generatedKeys = insertGroupStatement.getGeneratedKeys();
+        for (String name : names) {
+            if (!ids.containsKey(name)) {
+                insertStatement.setString(1, name);
+                insertStatement.execute();
+                ResultSet generatedKeys = insertStatement.getGeneratedKeys();
+                try {
                     if (generatedKeys.first()) {
-                        groups.put(groupname, generatedKeys.getInt(1));
+                        ids.put(name, generatedKeys.getInt(1));
                     } else {
-                        logger.warning("Could not get the database id for user " + groupname);
+                        throw new SQLException("Could not get the database id for " + table + " " + name);
                     }
+                } finally {
+                    generatedKeys.close();
                 }
             }
-        } catch (SQLException ex) {
-            logger.warning("Could not get the database id for the groups " + groupnames.toString() + ex.getMessage());
         }
 
-        return groups;
+        return ids;
     }
 
     /*
-     * As we don't get notified on the creation/removal of regions:
+     * Only regions that changed since they were loaded or last saved are
+     * written:
      *  1) We get a list of all of the in-database regions
      *  2) We iterate over all of the in-memory regions
-     *  2a) If the region is in the database, we update the database and
-     *      remove the region from the in-database list
+     *  2a) If the region is in the database, we update the database if the
+     *      region is dirty, and remove the region from the in-database list
      *   b) If the region is not in the database, we insert it
-     *  3) We iterate over what remains of the in-database list and remove
-     *     them from the database
+     *  3) We remove what remains of the in-database list from the database
      *
-     * TODO: Look at adding/removing/updating the database when the in
-     *       memory region is created/remove/updated
+     * All statements are sent in batches within a single transaction, so
+     * either all changes are saved or none are.
      *
      * @see com.sk89q.worldguard.protection.databases.ProtectionDatabase#save()
      */
     @Override
     public void save() throws ProtectionDatabaseException {
+        connect();
+
         try {
-            connect();
-        } catch (SQLException ex) {
-            throw new ProtectionDatabaseException(ex);
+            saveRegions();
+        } finally {
+            disconnect();
         }
+    }
 
-        List<String> regionsInDatabase = new ArrayList<String>();
+    private void saveRegions() throws ProtectionDatabaseException {
+        Set<String> regionsInDatabase = new HashSet<String>();
 
         try {
             PreparedStatement getAllRegionsStatement = this.conn.prepareStatement(
@@ -659,269 +743,238 @@ public void save() throws ProtectionDatabaseException {
             getAllRegionsStatement.setInt(1, this.worldDbId);
             ResultSet getAllRegionsResult = getAllRegionsStatement.executeQuery();
 
-            while(getAllRegionsResult.next()) {
-                regionsInDatabase.add(getAllRegionsResult.getString("id"));
+            try {
+                while(getAllRegionsResult.next()) {
+                    regionsInDatabase.add(getAllRegionsResult.getString("id"));
+                }
+            } finally {
+                getAllRegionsResult.close();
             }
         } catch (SQLException ex) {
             logger.warning("Could not get region list for save comparison: " + ex.getMessage());
+            throw new ProtectionDatabaseException(ex);
         }
 
-        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
-            String name = entry.getKey();
-            ProtectedRegion region = entry.getValue();
+        List<ProtectedRegion> inserted = new ArrayList<ProtectedRegion>();
+        List<ProtectedRegion> updated = new ArrayList<ProtectedRegion>();
 
-            try {
-                if (regionsInDatabase.contains(name)) {
-                    regionsInDatabase.remove(name);
-
-                    if (region instanceof ProtectedCuboidRegion) {
-                        updateRegionCuboid( (ProtectedCuboidRegion) region );
-                    } else if (region instanceof ProtectedPolygonalRegion) {
-                        updateRegionPoly2D( (ProtectedPolygonalRegion) region );
-                    } else if (region instanceof GlobalProtectedRegion) {
-                        updateRegionGlobal( (GlobalProtectedRegion) region );
-                    } else {
-                        this.updateRegion(region, region.getClass().getCanonicalName());
-                    }
-                } else {
-                    if (region instanceof ProtectedCuboidRegion) {
-                        insertRegionCuboid( (ProtectedCuboidRegion) region );
-                    } else if (region instanceof ProtectedPolygonalRegion) {
-                        insertRegionPoly2D( (ProtectedPolygonalRegion) region );
-                    } else if (region instanceof GlobalProtectedRegion) {
-                        insertRegionGlobal( (GlobalProtectedRegion) region );
-                    } else {
-                        this.insertRegion(region, region.getClass().getCanonicalName());
-                    }
+        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
+            if (regionsInDatabase.remove(entry.getKey())) {
+                if (entry.getValue().isDirty()) {
+                    updated.add(entry.getValue());
                 }
-            } catch (SQLException ex) {
-                logger.warning("Could not save region " + region.getId().toLowerCase() + ": " + ex.getMessage());
-                throw new ProtectionDatabaseException(ex);
+            } else {
+                inserted.add(entry.getValue());
             }
         }
 
-        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
-            try {
-                if (entry.getValue().getParent() == null) continue;
-
-                PreparedStatement setParentStatement = this.conn.prepareStatement(
-                        "UPDATE `region` SET " +
-                        "`parent` = ? " +
-                        "WHERE `id` = ? AND `world_id` = " + this.worldDbId
-                );
+        if (inserted.isEmpty() && updated.isEmpty() && regionsInDatabase.isEmpty()) {
+            return;
+        }
 
-                setParentStatement.setString(1, entry.getValue().getParent().getId().toLowerCase());
-                setParentStatement.setString(2, entry.getValue().getId().toLowerCase());
+        try {
+            Connection connection = conn.getConnection();
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
 
-                setParentStatement.execute();
+            try {
+                writeRegions(inserted, updated, regionsInDatabase);
+                connection.commit();
             } catch (SQLException ex) {
-                logger.warning("Could not save region parents " + entry.getValue().getId().toLowerCase() + ": " + ex.getMessage());
-                throw new ProtectionDatabaseException(ex);
+                try {
+                    connection.rollback();
+                } catch (SQLException ignore) {
+                }
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
             }
+        } catch (SQLException ex) {
+            logger.warning("Could not save regions: " + ex.getMessage());
+            throw new ProtectionDatabaseException(ex);
         }
 
-        for (String name : regionsInDatabase) {
-            try {
-                PreparedStatement removeRegion = this.conn.prepareStatement(
-                        "DELETE FROM `region` WHERE `id` = ? "
-                );
-
-                removeRegion.setString(1, name);
-                removeRegion.execute();
-            } catch (SQLException ex) {
-                logger.warning("Could not remove region from database " + name + ": " + ex.getMessage());
-            }
+        for (ProtectedRegion region : inserted) {
+            region.setDirty(false);
         }
 
+        for (ProtectedRegion region : updated) {
+            region.setDirty(false);
+        }
     }
 
-    private void updateFlags(ProtectedRegion region) throws SQLException {
-        PreparedStatement clearCurrentFlagStatement = this.conn.prepareStatement(
-                "DELETE FROM `region_flag` " +
-                "WHERE `region_id` = ? " +
-                "AND `world_id` = " + this.worldDbId
-        );
-
-        clearCurrentFlagStatement.setString(1, region.getId().toLowerCase());
-        clearCurrentFlagStatement.execute();
-
-        for (Map.Entry<Flag<?>, Object> entry : region.getFlags().entrySet()) {
-            if (entry.getValue() == null) continue;
-
-            Object flag = sqlMarshal(marshalFlag(entry.getKey(), entry.getValue()));
-
-            PreparedStatement insertFlagStatement = this.conn.prepareStatement(
-                    "INSERT INTO `region_flag` ( " +
-                    "`id`, " +
-                    "`region_id`, " +
-                    "`world_id`, " +
-                    "`flag`, " +
-                    "`value` " +
-                    ") VALUES (null, ?, " + this.worldDbId + ", ?, ?)"
-            );
+    /**
+     * Write new and changed regions, and remove deleted ones. Changed
+     * regions have their flags, players, groups and points rewritten.
+     *
+     * @param inserted regions that are not in the database yet
+     * @param updated changed regions that are in the database
+     * @param removed IDs of regions to remove from the database
+     * @throws SQLException on a database error
+     */
+    private void writeRegions(List<ProtectedRegion> inserted, List<ProtectedRegion> updated,
+            Collection<String> removed) throws SQLException {
+        List<ProtectedRegion> changed = new ArrayList<ProtectedRegion>(inserted);
+        changed.addAll(updated);
 
-            insertFlagStatement.setString(1, region.getId().toLowerCase());
-            insertFlagStatement.setString(2, entry.getKey().getName());
-            insertFlagStatement.setObject(3, flag);
+        // The region rows come first, as the other rows refer to them
+        PreparedStatement insertRegionStatement = this.conn.prepareStatement(
+                "INSERT INTO `region` (" +
+                "`id`, " +
+                "`world_id`, " +
+                "`type`, " +
+                "`priority`, " +
+                "`parent` " +
+                ") VALUES (?, " + this.worldDbId + ", ?, ?, null)"
+        );
 
-            insertFlagStatement.execute();
+        for (ProtectedRegion region : inserted) {
+            insertRegionStatement.setString(1, region.getId().toLowerCase());
+            insertRegionStatement.setString(2, getTypeName(region));
+            insertRegionStatement.setInt(3, region.getPriority());
+            insertRegionStatement.addBatch();
         }
-    }
 
-    private void updatePlayerAndGroups(ProtectedRegion region, Boolean owners) throws SQLException {
-        DefaultDomain domain;
+        executeBatch(insertRegionStatement);
 
-        if (owners) {
-            domain = region.getOwners();
-        } else {
-            domain = region.getMembers();
-        }
-
-        PreparedStatement deleteUsersForRegion = this.conn.prepareStatement(
-                "DELETE FROM `region_players` " +
-                "WHERE `region_id` = ? " +
-                "AND `world_id` = " + this.worldDbId + " " +
-                "AND `owner` = ?"
+        // A redefined region may have changed its type, so the type is
+        // written again and everything else about it is replaced
+        PreparedStatement updateRegionStatement = this.conn.prepareStatement(
+                "UPDATE `region` SET " +
+                "`type` = ?, " +
+                "`priority` = ? " +
+                "WHERE `id` = ? AND `world_id` = " + this.worldDbId
         );
 
-        deleteUsersForRegion.setString(1, region.getId().toLowerCase());
-        deleteUsersForRegion.setBoolean(2, owners);
-        deleteUsersForRegion.execute();
+        for (ProtectedRegion region : updated) {
+            updateRegionStatement.setString(1, getTypeName(region));
+            updateRegionStatement.setInt(2, region.getPriority());
+            updateRegionStatement.setString(3, region.getId().toLowerCase());
+            updateRegionStatement.addBatch();
+        }
 
-        PreparedStatement insertUsersForRegion = this.conn.prepareStatement(
-                "INSERT INTO `region_players` " +
-                "(`region_id`, `world_id`, `user_id`, `owner`) " +
-                "VALUES (?, " + this.worldDbId + ",  ?, ?)"
-        );
+        executeBatch(updateRegionStatement);
 
-        Set<String> var = domain.getPlayers();
+        deleteRows("region_cuboid", updated);
+        deleteRows("region_poly2d_point", updated);
+        deleteRows("region_poly2d", updated);
+        deleteRows("region_flag", updated);
+        deleteRows("region_players", updated);
+        deleteRows("region_groups", updated);
 
-        for (Integer player : getUserIds(var.toArray(new String[var.size()])).values()) {
-            insertUsersForRegion.setString(1, region.getId().toLowerCase());
-            insertUsersForRegion.setInt(2, player);
-            insertUsersForRegion.setBoolean(3, owners);
+        writeShapes(changed);
+        writePoly2dPoints(changed);
+        writeFlags(changed);
+        writePlayersAndGroups(changed);
 
-            insertUsersForRegion.execute();
-        }
-
-        PreparedStatement deleteGroupsForRegion = this.conn.prepareStatement(
-                "DELETE FROM `region_groups` " +
-                "WHERE `region_id` = ? " +
-                "AND `world_id` = " + this.worldDbId + " " +
-                "AND `owner` = ?"
+        // Parents can only be set once all regions exist
+        PreparedStatement setParentStatement = this.conn.prepareStatement(
+                "UPDATE `region` SET " +
+                "`parent` = ? " +
+                "WHERE `id` = ? AND `world_id` = " + this.worldDbId
         );
 
-        deleteGroupsForRegion.setString(1, region.getId().toLowerCase());
-        deleteGroupsForRegion.setBoolean(2, owners);
-        deleteGroupsForRegion.execute();
-
-        PreparedStatement insertGroupsForRegion = this.conn.prepareStatement(
-                "INSERT INTO `region_groups` " +
-                "(`region_id`, `world_id`, `group_id`, `owner`) " +
-                "VALUES (?, " + this.worldDbId + ",  ?, ?)"
-        );
+        for (ProtectedRegion region : changed) {
+            ProtectedRegion parent = region.getParent();
 
-        Set<String> groupVar = domain.getGroups();
-        for (Integer group : getGroupIds(groupVar.toArray(new String[groupVar.size()])).values()) {
-            insertGroupsForRegion.setString(1, region.getId().toLowerCase());
-            insertGroupsForRegion.setInt(2, group);
-            insertGroupsForRegion.setBoolean(3, owners);
+            if (parent != null) {
+                setParentStatement.setString(1, parent.getId().toLowerCase());
+            } else if (inserted.contains(region)) {
+                continue;
+            } else {
+                setParentStatement.setNull(1, Types.VARCHAR);
+            }
 
-            insertGroupsForRegion.execute();
+            setParentStatement.setString(2, region.getId().toLowerCase());
+            setParentStatement.addBatch();
         }
-    }
 
-    @SuppressWarnings("unchecked")
-    private <V> Object marshalFlag(Flag<V> flag, Object val) {
-        return flag.marshal( (V) val );
-    }
+        executeBatch(setParentStatement);
 
-    private void insertRegion(ProtectedRegion region, String type) throws SQLException {
-        PreparedStatement insertRegionStatement = this.conn.prepareStatement(
-                "INSERT INTO `region` (" +
-                "`id`, " +
-                "`world_id`, " +
-                "`type`, " +
-                "`priority`, " +
-                "`parent` " +
-                ") VALUES (?, ?, ?, ?, null)"
+        PreparedStatement removeRegionStatement = this.conn.prepareStatement(
+                "DELETE FROM `region` WHERE `id` = ? AND `world_id` = " + this.worldDbId
         );
 
-        insertRegionStatement.setString(1, region.getId().toLowerCase());
-        insertRegionStatement.setInt(2, this.worldDbId);
-        insertRegionStatement.setString(3, type);
-        insertRegionStatement.setInt(4, region.getPriority());
-
-        insertRegionStatement.execute();
-
-        updateFlags(region);
+        for (String name : removed) {
+            removeRegionStatement.setString(1, name);
+            removeRegionStatement.addBatch();
+        }
 
-        updatePlayerAndGroups(region, false);
-        updatePlayerAndGroups(region, true);
+        executeBatch(removeRegionStatement);
     }
 
-    private void insertRegionCuboid(ProtectedCuboidRegion region) throws SQLException {
-        insertRegion(region, "cuboid");
-
+    private void writeShapes(List<ProtectedRegion> regions) throws SQLException {
         PreparedStatement insertCuboidRegionStatement = this.conn.prepareStatement(
                 "INSERT INTO `region_cuboid` (" +
-                "`region_id`, " +
-                "`world_id`, " +
                 "`min_z`, " +
                 "`min_y`, " +
                 "`min_x`, " +
                 "`max_z`, " +
                 "`max_y`, " +
-                "`max_x` " +
-                ") VALUES (?, " + this.worldDbId + ", ?, ?, ?, ?, ?, ?)"
+                "`max_x`, " +
+                "`region_id`, " +
+                "`world_id` " +
+                ") VALUES (?, ?, ?, ?, ?, ?, ?, " + this.worldDbId + ")"
         );
 
-        BlockVector min = region.getMinimumPoint();
-        BlockVector max = region.getMaximumPoint();
-
-        insertCuboidRegionStatement.setString(1, region.getId().toLowerCase());
-        insertCuboidRegionStatement.setInt(2, min.getBlockZ());
-        insertCuboidRegionStatement.setInt(3, min.getBlockY());
-        insertCuboidRegionStatement.setInt(4, min.getBlockX());
-        insertCuboidRegionStatement.setInt(5, max.getBlockZ());
-        insertCuboidRegionStatement.setInt(6, max.getBlockY());
-        insertCuboidRegionStatement.setInt(7, max.getBlockX());
-
-        insertCuboidRegionStatement.execute();
-    }
-
-    private void insertRegionPoly2D(ProtectedPolygonalRegion region) throws SQLException {
-        insertRegion(region, "poly2d");
-
         PreparedStatement insertPoly2dRegionStatement = this.conn.prepareStatement(
                 "INSERT INTO `region_poly2d` (" +
-                "`region_id`, " +
-                "`world_id`, " +
                 "`max_y`, " +
-                "`min_y` " +
-                ") VALUES (?, " + this.worldDbId + ", ?, ?)"
+                "`min_y`, " +
+                "`region_id`, " +
+                "`world_id` " +
+                ") VALUES (?, ?, ?, " + this.worldDbId + ")"
         );
 
-        insertPoly2dRegionStatement.setString(1, region.getId().toLowerCase());
-        insertPoly2dRegionStatement.setInt(2, region.getMaximumPoint().getBlockY());
-        insertPoly2dRegionStatement.setInt(3, region.getMinimumPoint().getBlockY());
+        for (ProtectedRegion region : regions) {
+            if (region instanceof ProtectedCuboidRegion) {
+                addCuboid(insertCuboidRegionStatement, region);
+            } else if (region instanceof ProtectedPolygonalRegion) {
+                addPoly2d(insertPoly2dRegionStatement, region);
+            }
+        }
+
+        executeBatch(insertCuboidRegionStatement);
+        executeBatch(insertPoly2dRegionStatement);
+    }
+
+    private void addCuboid(PreparedStatement statement, ProtectedRegion region) throws SQLException {
+        BlockVector min = region.getMinimumPoint();
+        BlockVector max = region.getMaximumPoint();
 
-        insertPoly2dRegionStatement.execute();
+        statement.setInt(1, min.getBlockZ());
+        statement.setInt(2, min.getBlockY());
+        statement.setInt(3, min.getBlockX());
+        statement.setInt(4, max.getBlockZ());
+        statement.setInt(5, max.getBlockY());
+        statement.setInt(6, max.getBlockX());
+        statement.setString(7, region.getId().toLowerCase());
+        statement.addBatch();
+    }
 
-        updatePoly2dPoints(region);
+    private void addPoly2d(PreparedStatement statement, ProtectedRegion region) throws SQLException {
+        statement.setInt(1, region.getMaximumPoint().getBlockY());
+        statement.setInt(2, region.getMinimumPoint().getBlockY());
+        statement.setString(3, region.getId().toLowerCase());
+        statement.addBatch();
     }
 
-    private void updatePoly2dPoints(ProtectedPolygonalRegion region) throws SQLException {
-        PreparedStatement clearPoly2dPointsForRegionStatement = this.conn.prepareStatement(
-                "DELETE FROM `region_poly2d_point` " +
+    private void deleteRows(String table, List<ProtectedRegion> regions) throws SQLException {
+        PreparedStatement deleteStatement = this.conn.prepareStatement(
+                "DELETE FROM `" + table + "` " +
                 "WHERE `region_id` = ? " +
                 "AND `world_id` = " + this.worldDbId
         );
 
-        clearPoly2dPointsForRegionStatement.setString(1, region.getId().toLowerCase());
+        for (ProtectedRegion region : regions) {
+            deleteStatement.setString(1, region.getId().toLowerCase());
+            deleteStatement.addBatch();
+        }
 
-        clearPoly2dPointsForRegionStatement.execute();
+        executeBatch(deleteStatement);
+    }
 
+    private void writePoly2dPoints(List<ProtectedRegion> regions) throws SQLException {
         PreparedStatement insertPoly2dPointStatement = this.conn.prepareStatement(
                 "INSERT INTO `region_poly2d_point` (" +
                 "`id`, " +
@@ -932,88 +985,145 @@ private void updatePoly2dPoints(ProtectedPolygonalRegion region) throws SQLExcep
                 ") VALUES (null, ?, " + this.worldDbId + ", ?, ?)"
         );
 
-        String lowerId = region.getId();
-        for (BlockVector2D point : region.getPoints()) {
-            insertPoly2dPointStatement.setString(1, lowerId);
-            insertPoly2dPointStatement.setInt(2, point.getBlockZ());
-            insertPoly2dPointStatement.setInt(3, point.getBlockX());
+        for (ProtectedRegion region : regions) {
+            if (!(region instanceof ProtectedPolygonalRegion)) {
+                continue;
+            }
 
-            insertPoly2dPointStatement.execute();
+            String lowerId = region.getId().toLowerCase();
+            for (BlockVector2D point : region.getPoints()) {
+                insertPoly2dPointStatement.setString(1, lowerId);
+                insertPoly2dPointStatement.setInt(2, point.getBlockZ());
+                insertPoly2dPointStatement.setInt(3, point.getBlockX());
+                insertPoly2dPointStatement.addBatch();
+            }
         }
-    }
 
-    private void insertRegionGlobal(GlobalProtectedRegion region) throws SQLException {
-        insertRegion(region, "global");
+        executeBatch(insertPoly2dPointStatement);
     }
 
-    private void updateRegion(ProtectedRegion region, String type) throws SQLException  {
-        PreparedStatement updateRegionStatement = this.conn.prepareStatement(
-                "UPDATE `region` SET " +
-                "`priority` = ? WHERE `id` = ? AND `world_id` = " + this.worldDbId
+    private void writeFlags(List<ProtectedRegion> regions) throws SQLException {
+        PreparedStatement insertFlagStatement = this.conn.prepareStatement(
+                "INSERT INTO `region_flag` ( " +
+                "`id`, " +
+                "`region_id`, " +
+                "`world_id`, " +
+                "`flag`, " +
+                "`value` " +
+                ") VALUES (null, ?, " + this.worldDbId + ", ?, ?)"
         );
 
-        updateRegionStatement.setInt(1, region.getPriority());
-        updateRegionStatement.setString(2, region.getId().toLowerCase());
+        for (ProtectedRegion region : regions) {
+            for (Map.Entry<Flag<?>, Object> entry : region.getFlags().entrySet()) {
+                if (entry.getValue() == null) continue;
 
-        updateRegionStatement.execute();
+                Object flag = sqlMarshal(marshalFlag(entry.getKey(), entry.getValue()));
 
-        updateFlags(region);
+                insertFlagStatement.setString(1, region.getId().toLowerCase());
+                insertFlagStatement.setString(2, entry.getKey().getName());
+                insertFlagStatement.setObject(3, flag);
+                insertFlagStatement.addBatch();
+            }
+        }
 
-        updatePlayerAndGroups(region, false);
-        updatePlayerAndGroups(region, true);
+        executeBatch(insertFlagStatement);
     }
 
-    private void updateRegionCuboid(ProtectedCuboidRegion region) throws SQLException  {
-        updateRegion(region, "cuboid");
-
-        PreparedStatement updateCuboidRegionStatement = this.conn.prepareStatement(
-                "UPDATE `region_cuboid` SET " +
-                "`min_z` = ?, " +
-                "`min_y` = ?, " +
-                "`min_x` = ?, " +
-                "`max_z` = ?, " +
-                "`max_y` = ?, " +
-                "`max_x` = ? " +
-                "WHERE `region_id` = ? " +
-                "AND `world_id` = " + this.worldDbId
+    private void writePlayersAndGroups(List<ProtectedRegion> regions) throws SQLException {
+        Set<String> playerNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        Set<String> groupNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+        for (ProtectedRegion region : regions) {
+            playerNames.addAll(region.getOwners().getPlayers());
+            playerNames.addAll(region.getMembers().getPlayers());
+            groupNames.addAll(region.getOwners().getGroups());
+            groupNames.addAll(region.getMembers().getGroups());
+        }
+
+        // Look the IDs up once for all regions; names in the database
+        // may differ in case
+        Map<String, Integer> userIds = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+        userIds.putAll(getUserIds(playerNames.toArray(new String[playerNames.size()])));
+        Map<String, Integer> groupIds = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+        groupIds.putAll(getGroupIds(groupNames.toArray(new String[groupNames.size()])));
+
+        PreparedStatement insertUsersForRegion = this.conn.prepareStatement(
+                "INSERT INTO `region_players` " +
+                "(`region_id`, `world_id`, `user_id`, `owner`) " +
+                "VALUES (?, " + this.worldDbId + ",  ?, ?)"
         );
 
-        BlockVector min = region.getMinimumPoint();
-        BlockVector max = region.getMaximumPoint();
+        PreparedStatement insertGroupsForRegion = this.conn.prepareStatement(
+                "INSERT INTO `region_groups` " +
+                "(`region_id`, `world_id`, `group_id`, `owner`) " +
+                "VALUES (?, " + this.worldDbId + ",  ?, ?)"
+        );
 
-        updateCuboidRegionStatement.setInt(1, min.getBlockZ());
-        updateCuboidRegionStatement.setInt(2, min.getBlockY());
-        updateCuboidRegionStatement.setInt(3, min.getBlockX());
-        updateCuboidRegionStatement.setInt(4, max.getBlockZ());
-        updateCuboidRegionStatement.setInt(5, max.getBlockY());
-        updateCuboidRegionStatement.setInt(6, max.getBlockX());
-        updateCuboidRegionStatement.setString(7, region.getId().toLowerCase());
+        for (ProtectedRegion region : regions) {
+            addDomain(insertUsersForRegion, insertGroupsForRegion, region,
+                    region.getMembers(), false, userIds, groupIds);
+            addDomain(insertUsersForRegion, insertGroupsForRegion, region,
+                    region.getOwners(), true, userIds, groupIds);
+        }
 
-        updateCuboidRegionStatement.execute();
+        executeBatch(insertUsersForRegion);
+        executeBatch(insertGroupsForRegion);
     }
 
-    private void updateRegionPoly2D(ProtectedPolygonalRegion region) throws SQLException  {
-        updateRegion(region, "poly2d");
+    private void addDomain(PreparedStatement insertUsersForRegion,
+            PreparedStatement insertGroupsForRegion, ProtectedRegion region,
+            DefaultDomain domain, boolean owners, Map<String, Integer> userIds,
+            Map<String, Integer> groupIds) throws SQLException {
+        for (String name : domain.getPlayers()) {
+            Integer player = userIds.get(name);
+            if (player == null) {
+                // Saving without them would lose them for good
+                throw new SQLException("No database id for user " + name);
+            }
 
-        PreparedStatement updatePoly2dRegionStatement = this.conn.prepareStatement(
-                "UPDATE `region_poly2d` SET " +
-                "`max_y` = ?, " +
-                "`min_y` = ? " +
-                "WHERE `region_id` = ? " +
-                "AND `world_id` = " + this.worldDbId
-        );
+            insertUsersForRegion.setString(1, region.getId().toLowerCase());
+            insertUsersForRegion.setInt(2, player);
+            insertUsersForRegion.setBoolean(3, owners);
+            insertUsersForRegion.addBatch();
+        }
 
-        updatePoly2dRegionStatement.setInt(1, region.getMaximumPoint().getBlockY());
-        updatePoly2dRegionStatement.setInt(2, region.getMinimumPoint().getBlockY());
-        updatePoly2dRegionStatement.setString(3, region.getId().toLowerCase());
+        for (String name : domain.getGroups()) {
+            Integer group = groupIds.get(name);
+            if (group == null) {
+                throw new SQLException("No database id for group " + name);
+            }
 
-        updatePoly2dRegionStatement.execute();
+            insertGroupsForRegion.setString(1, region.getId().toLowerCase());
+            insertGroupsForRegion.setInt(2, group);
+            insertGroupsForRegion.setBoolean(3, owners);
+            insertGroupsForRegion.addBatch();
+        }
+    }
+
+    private static void executeBatch(PreparedStatement statement) throws SQLException {
+        try {
+            statement.executeBatch();
+        } catch (SQLException ex) {
+            statement.clearBatch();
+            throw ex;
+        }
+    }
 
-        updatePoly2dPoints(region);
+    private static String getTypeName(ProtectedRegion region) {
+        if (region instanceof ProtectedCuboidRegion) {
+            return "cuboid";
+        } else if (region instanceof ProtectedPolygonalRegion) {
+            return "poly2d";
+        } else if (region instanceof GlobalProtectedRegion) {
+            return "global";
+        } else {
+            return region.getClass().getCanonicalName();
+        }
     }
 
-    private void updateRegionGlobal(GlobalProtectedRegion region) throws SQLException {
-        updateRegion(region, "global");
+    @SuppressWarnings("unchecked")
+    private <V> Object marshalFlag(Flag<V> flag, Object val) {
+        return flag.marshal( (V) val );
     }
 
     @Override
@@ -1025,6 +1135,17 @@ public Map<String, ProtectedRegion> getRegions() {
     public void setRegions(Map<String, ProtectedRegion> regions) {
         this.regions = regions;
     }
+
+    /**
+     * Release this database's reference to the shared connection pool.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            pool.close();
+        }
+    }
     
     protected Object sqlUnmarshal(String rawValue) {
         try {
@@ -69,4 +69,10 @@ public interface ProtectionDatabase {
      * @param regions The regions to be applied to this ProtectionDatabase
      */
     public void setRegions(Map<String,ProtectedRegion> regions);
+
+    /**
+     * Release the resources held by this ProtectionDatabase, such as its
+     * database connections. It must not be used afterwards.
+     */
+    public void close();
 }
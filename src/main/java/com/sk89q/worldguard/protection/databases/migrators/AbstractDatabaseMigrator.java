@@ -19,16 +19,73 @@
 
 package com.sk89q.worldguard.protection.databases.migrators;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
 
+import com.sk89q.worldguard.protection.databases.JournaledDatabase;
 import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
 import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 
 public abstract class AbstractDatabaseMigrator implements DatabaseMigrator {
 
+    /**
+     * The most worlds migrated at the same time. Every world being migrated
+     * is held in memory, and may use a database connection.
+     */
+    private static final int MAX_THREADS = 4;
+
+    /**
+     * Told about the progress of a migration.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called before any world is migrated when an earlier migration with
+         * the same progress file has already migrated some of the worlds.
+         * These worlds are not migrated again.
+         *
+         * @param worlds the names of the worlds that are skipped
+         */
+        public void worldsSkipped(Set<String> worlds);
+
+        /**
+         * Called on the thread that runs the migration after a world has
+         * been migrated.
+         *
+         * @param world the name of the world
+         * @param regions the number of regions of the world
+         * @param done the number of worlds migrated so far
+         * @param total the number of worlds to migrate
+         */
+        public void worldMigrated(String world, int regions, int done, int total);
+    }
+
+    private File progressFile;
+    private ProgressListener listener;
+
     private static HashMap<MigratorKey, Class<? extends AbstractDatabaseMigrator>> migrators =
             new HashMap<MigratorKey, Class<? extends AbstractDatabaseMigrator>>();
 
@@ -37,25 +94,289 @@ public static Map<MigratorKey, Class<? extends AbstractDatabaseMigrator>> getMig
 
         AbstractDatabaseMigrator.migrators.put(new MigratorKey("mysql", "yaml"), MySQLToYAMLMigrator.class);
         AbstractDatabaseMigrator.migrators.put(new MigratorKey("yaml", "mysql"), YAMLToMySQLMigrator.class);
+        AbstractDatabaseMigrator.migrators.put(new MigratorKey("yaml", "binary"), YAMLToBinaryMigrator.class);
+        AbstractDatabaseMigrator.migrators.put(new MigratorKey("binary", "yaml"), BinaryToYAMLMigrator.class);
+        AbstractDatabaseMigrator.migrators.put(new MigratorKey("mysql", "binary"), MySQLToBinaryMigrator.class);
+        AbstractDatabaseMigrator.migrators.put(new MigratorKey("binary", "mysql"), BinaryToMySQLMigrator.class);
 
         return migrators;
     }
 
+    /**
+     * Find the region files of all worlds.
+     *
+     * @param dataFolder the data folder of the plugin
+     * @param fileName the name of the region files
+     * @return the region file of each world, by world name
+     */
+    protected static Map<String, File> findRegionFiles(File dataFolder, String fileName) {
+        Map<String, File> regionFiles = new HashMap<String, File>();
+
+        File[] worlds = new File(dataFolder, "worlds").listFiles();
+        if (worlds == null) {
+            return regionFiles;
+        }
+
+        for (File world : worlds) {
+            File file = new File(world, fileName);
+            if (world.isDirectory() && file.isFile()) {
+                regionFiles.put(world.getName(), file);
+            }
+        }
+
+        return regionFiles;
+    }
+
+    /**
+     * Get the region file of a world.
+     *
+     * @param dataFolder the data folder of the plugin
+     * @param world the name of the world
+     * @param fileName the name of the region file
+     * @return the region file
+     */
+    protected static File getRegionFile(File dataFolder, String world, String fileName) {
+        return new File(dataFolder, "worlds" + File.separator + world + File.separator + fileName);
+    }
+
+    /**
+     * Add the region journal next to a region file when reading from it,
+     * so that changes that were not compacted yet are migrated too.
+     *
+     * @param database the database of the region file
+     * @param regionFile the region file
+     * @param journaled whether the journal belongs to this kind of file
+     * @param logger the logger to log warnings to
+     * @return the database to read from
+     */
+    protected static ProtectionDatabase withJournal(ProtectionDatabase database,
+            File regionFile, boolean journaled, Logger logger) {
+        File journal = new File(regionFile.getParentFile(), "regions.journal");
+        if (!journaled || !journal.exists()) {
+            return database;
+        }
+
+        return new JournaledDatabase(database, journal, Long.MAX_VALUE, logger);
+    }
+
     protected abstract Set<String> getWorldsFromOld() throws MigrationException;
 
     protected abstract Map<String, ProtectedRegion> getRegionsForWorldFromOld(String world) throws MigrationException;
 
     protected abstract ProtectionDatabase getNewWorldStorage(String world) throws MigrationException;
 
+    /**
+     * Set the file that records the worlds that were migrated, so that a
+     * migration that failed can be continued where it stopped. The file is
+     * removed once all worlds have been migrated.
+     *
+     * @param progressFile the file, or null to always migrate all worlds
+     */
+    public void setProgressFile(File progressFile) {
+        this.progressFile = progressFile;
+    }
+
+    /**
+     * Forget the worlds that earlier migrations have migrated, so that the
+     * next migration starts over with all worlds.
+     *
+     * @throws MigrationException when the progress file can't be removed
+     */
+    public void resetProgress() throws MigrationException {
+        if (progressFile != null && progressFile.exists() && !progressFile.delete()) {
+            throw new MigrationException("Could not remove " + progressFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Set the listener told about the progress of the migration.
+     *
+     * @param listener the listener, or null
+     */
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Migrate the worlds. Several worlds are migrated at the same time, and
+     * each of them is only held in memory while it is migrated. If a world
+     * fails, the worlds that have not started are skipped, and the next
+     * migration with the same progress file continues with them unless
+     * {@link #resetProgress()} is called first.
+     *
+     * @throws MigrationException when a world could not be migrated
+     */
     public void migrate() throws MigrationException {
+        Set<String> migrated = readProgress();
+        Set<String> done = new HashSet<String>();
+        List<String> worlds = new ArrayList<String>();
+
         for (String world : this.getWorldsFromOld()) {
-            ProtectionDatabase database = this.getNewWorldStorage(world);
-            database.setRegions(this.getRegionsForWorldFromOld(world));
+            if (migrated.contains(world)) {
+                done.add(world);
+            } else {
+                worlds.add(world);
+            }
+        }
+
+        if (!done.isEmpty() && listener != null) {
+            listener.worldsSkipped(new HashSet<String>(done));
+        }
+
+        int total = done.size() + worlds.size();
+        int threads = Math.max(1, Math.min(worlds.size(), MAX_THREADS));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WorldGuard Region Migrator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+        Map<Future<Integer>, String> pending = new HashMap<Future<Integer>, String>();
+        MigrationException failure = null;
+
+        try {
+            for (final String world : worlds) {
+                pending.put(completion.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws MigrationException {
+                        return migrateWorld(world);
+                    }
+                }), world);
+            }
+
+            for (int i = 0; i < worlds.size(); i++) {
+                Future<Integer> future = completion.take();
+                String world = pending.get(future);
+
+                try {
+                    int regions = future.get();
+                    done.add(world);
+                    writeProgress(world);
+
+                    if (listener != null) {
+                        listener.worldMigrated(world, regions, done.size(), total);
+                    }
+                } catch (CancellationException ignore) {
+                    // Skipped after another world failed
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new MigrationException("Failed to migrate world '" + world + "' ("
+                                + done.size() + " of " + total + " worlds were migrated): "
+                                + e.getCause().getMessage(), e.getCause());
+
+                        for (Future<Integer> other : pending.keySet()) {
+                            other.cancel(false);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        if (progressFile != null) {
+            progressFile.delete();
+        }
+    }
+
+    /**
+     * Migrate the regions of a world. Called on a migration thread.
+     *
+     * @param world the name of the world
+     * @return the number of regions
+     * @throws MigrationException when the world could not be migrated
+     */
+    private int migrateWorld(String world) throws MigrationException {
+        Map<String, ProtectedRegion> regions = this.getRegionsForWorldFromOld(world);
+
+        // Also overwrite regions that the new storage has from earlier tries
+        for (ProtectedRegion region : regions.values()) {
+            region.setDirty(true);
+        }
+
+        ProtectionDatabase database = this.getNewWorldStorage(world);
+
+        try {
+            database.setRegions(regions);
+            database.save();
+        } catch (ProtectionDatabaseException e) {
+            throw new MigrationException(e);
+        } finally {
+            database.close();
+        }
+
+        return regions.size();
+    }
+
+    /**
+     * Read the worlds that an earlier migration has already migrated.
+     *
+     * @return the names of the worlds
+     * @throws MigrationException when the progress file can't be read
+     */
+    private Set<String> readProgress() throws MigrationException {
+        Set<String> worlds = new HashSet<String>();
+        if (progressFile == null || !progressFile.exists()) {
+            return worlds;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(progressFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    worlds.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new MigrationException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+
+        return worlds;
+    }
+
+    /**
+     * Record that a world has been migrated.
+     *
+     * @param world the name of the world
+     * @throws MigrationException when the progress file can't be written
+     */
+    private void writeProgress(String world) throws MigrationException {
+        if (progressFile == null) {
+            return;
+        }
 
-            try {
-                database.save();
-            } catch (ProtectionDatabaseException e) {
-                throw new MigrationException(e);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(progressFile, true), "UTF-8");
+            writer.write(world + "\n");
+        } catch (IOException e) {
+            throw new MigrationException(e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
             }
         }
     }
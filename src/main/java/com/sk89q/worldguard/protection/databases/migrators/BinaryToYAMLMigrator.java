@@ -0,0 +1,78 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.protection.databases.migrators;
+
+import com.sk89q.worldguard.bukkit.ConfigurationManager;
+import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
+import com.sk89q.worldguard.protection.databases.BinaryDatabase;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
+import com.sk89q.worldguard.protection.databases.YAMLDatabase;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Map;
+import java.util.Set;
+
+public class BinaryToYAMLMigrator extends AbstractDatabaseMigrator {
+
+    private WorldGuardPlugin plugin;
+    private Map<String, File> regionBinaryFiles;
+
+    public BinaryToYAMLMigrator(WorldGuardPlugin plugin) {
+        this.plugin = plugin;
+        this.regionBinaryFiles = findRegionFiles(plugin.getDataFolder(), "regions.dat");
+    }
+
+    @Override
+    protected Set<String> getWorldsFromOld() {
+        return this.regionBinaryFiles.keySet();
+    }
+
+    @Override
+    protected Map<String, ProtectedRegion> getRegionsForWorldFromOld(String world) throws MigrationException {
+        ConfigurationManager config = plugin.getGlobalStateManager();
+        File file = this.regionBinaryFiles.get(world);
+        ProtectionDatabase oldDatabase = withJournal(new BinaryDatabase(file, plugin.getLogger()),
+                file, config.useRegionJournal && config.useBinaryDatabase, plugin.getLogger());
+        try {
+            oldDatabase.load();
+            return oldDatabase.getRegions();
+        } catch (ProtectionDatabaseException e) {
+            throw new MigrationException(e);
+        } finally {
+            oldDatabase.close();
+        }
+    }
+
+    @Override
+    protected ProtectionDatabase getNewWorldStorage(String world) throws MigrationException {
+        try {
+            return new YAMLDatabase(getRegionFile(plugin.getDataFolder(), world, "regions.yml"),
+                    plugin.getLogger());
+        } catch (FileNotFoundException e) {
+            throw new MigrationException(e);
+        } catch (ProtectionDatabaseException e) {
+            throw new MigrationException(e);
+        }
+    }
+}
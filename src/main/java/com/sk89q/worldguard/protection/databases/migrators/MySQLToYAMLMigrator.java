@@ -70,15 +70,18 @@ protected Set<String> getWorldsFromOld() {
 
     @Override
     protected Map<String, ProtectedRegion> getRegionsForWorldFromOld(String world) throws MigrationException {
-        ProtectionDatabase oldDatabase;
+        ProtectionDatabase oldDatabase = null;
         try {
             oldDatabase = new MySQLDatabase(plugin.getGlobalStateManager(), world, plugin.getLogger());
             oldDatabase.load();
+            return oldDatabase.getRegions();
         } catch (ProtectionDatabaseException e) {
             throw new MigrationException(e);
+        } finally {
+            if (oldDatabase != null) {
+                oldDatabase.close();
+            }
         }
-
-        return oldDatabase.getRegions();
     }
 
     @Override
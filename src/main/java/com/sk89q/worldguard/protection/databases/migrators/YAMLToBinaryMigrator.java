@@ -0,0 +1,77 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.protection.databases.migrators;
+
+import com.sk89q.worldguard.bukkit.ConfigurationManager;
+import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
+import com.sk89q.worldguard.protection.databases.BinaryDatabase;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
+import com.sk89q.worldguard.protection.databases.YAMLDatabase;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Map;
+import java.util.Set;
+
+public class YAMLToBinaryMigrator extends AbstractDatabaseMigrator {
+
+    private WorldGuardPlugin plugin;
+    private Map<String, File> regionYamlFiles;
+
+    public YAMLToBinaryMigrator(WorldGuardPlugin plugin) {
+        this.plugin = plugin;
+        this.regionYamlFiles = findRegionFiles(plugin.getDataFolder(), "regions.yml");
+    }
+
+    @Override
+    protected Set<String> getWorldsFromOld() {
+        return this.regionYamlFiles.keySet();
+    }
+
+    @Override
+    protected Map<String, ProtectedRegion> getRegionsForWorldFromOld(String world) throws MigrationException {
+        ProtectionDatabase oldDatabase = null;
+        try {
+            ConfigurationManager config = plugin.getGlobalStateManager();
+            File file = this.regionYamlFiles.get(world);
+            oldDatabase = withJournal(new YAMLDatabase(file, plugin.getLogger()),
+                    file, config.useRegionJournal && !config.useBinaryDatabase, plugin.getLogger());
+            oldDatabase.load();
+            return oldDatabase.getRegions();
+        } catch (FileNotFoundException e) {
+            throw new MigrationException(e);
+        } catch (ProtectionDatabaseException e) {
+            throw new MigrationException(e);
+        } finally {
+            if (oldDatabase != null) {
+                oldDatabase.close();
+            }
+        }
+    }
+
+    @Override
+    protected ProtectionDatabase getNewWorldStorage(String world) {
+        return new BinaryDatabase(getRegionFile(plugin.getDataFolder(), world, "regions.dat"),
+                plugin.getLogger());
+    }
+}
@@ -19,6 +19,7 @@
 
 package com.sk89q.worldguard.protection.databases.migrators;
 
+import com.sk89q.worldguard.bukkit.ConfigurationManager;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
 import com.sk89q.worldguard.protection.databases.MySQLDatabase;
 import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
@@ -61,17 +62,23 @@ protected Set<String> getWorldsFromOld() {
 
     @Override
     protected Map<String, ProtectedRegion> getRegionsForWorldFromOld(String world) throws MigrationException {
-        ProtectionDatabase oldDatabase;
+        ProtectionDatabase oldDatabase = null;
         try {
-            oldDatabase = new YAMLDatabase(this.regionYamlFiles.get(world), plugin.getLogger());
+            ConfigurationManager config = plugin.getGlobalStateManager();
+            File file = this.regionYamlFiles.get(world);
+            oldDatabase = withJournal(new YAMLDatabase(file, plugin.getLogger()),
+                    file, config.useRegionJournal && !config.useBinaryDatabase, plugin.getLogger());
             oldDatabase.load();
+            return oldDatabase.getRegions();
         } catch (FileNotFoundException e) {
             throw new MigrationException(e);
         } catch (ProtectionDatabaseException e) {
             throw new MigrationException(e);
+        } finally {
+            if (oldDatabase != null) {
+                oldDatabase.close();
+            }
         }
-
-        return oldDatabase.getRegions();
     }
 
     @Override
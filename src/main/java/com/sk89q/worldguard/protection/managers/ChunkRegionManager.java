@@ -0,0 +1,316 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldguard.protection.managers;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.protection.ApplicableRegionSet;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import java.util.*;
+
+/**
+ * A region manager that answers point queries from per-chunk buckets. The
+ * first query in a 16x16 chunk column looks up every region whose bounding
+ * box touches the column, adds their parents, and stores them sorted. Later
+ * queries in the same column only have to test those candidates, without
+ * searching the tree, resolving parents or sorting again.
+ *
+ * <p>Buckets are dropped when regions in them are added or removed and
+ * when their chunk is unloaded. A bucket is also rebuilt when a priority
+ * or parent of one of its regions was changed.</p>
+ */
+public class ChunkRegionManager extends PRTreeRegionManager {
+
+    /**
+     * Buckets of loaded chunks, keyed by packed chunk coordinates.
+     */
+    private final Map<Long, Bucket> buckets = new HashMap<Long, Bucket>();
+
+    /**
+     * Construct the manager.
+     *
+     * @param regionLoader The region loader to use
+     */
+    public ChunkRegionManager(ProtectionDatabase regionLoader) {
+        super(regionLoader);
+    }
+
+    @Override
+    public synchronized void setRegions(Map<String, ProtectedRegion> regions) {
+        super.setRegions(regions);
+        buckets.clear();
+    }
+
+    @Override
+    public synchronized void addRegion(ProtectedRegion region) {
+        ProtectedRegion old = getRegionExact(region.getId());
+
+        super.addRegion(region);
+
+        if (old != null) {
+            invalidate(old);
+        }
+        invalidate(region);
+    }
+
+    @Override
+    public synchronized void removeRegion(String id) {
+        ProtectedRegion region = getRegionExact(id);
+
+        // Children are removed through this method as well
+        super.removeRegion(id);
+
+        if (region != null) {
+            invalidate(region);
+        }
+    }
+
+    /**
+     * Forget the bucket of a chunk, such as when the chunk is unloaded.
+     *
+     * @param chunkX the chunk's X coordinate
+     * @param chunkZ the chunk's Z coordinate
+     */
+    public synchronized void unloadChunk(int chunkX, int chunkZ) {
+        buckets.remove(toKey(chunkX, chunkZ));
+    }
+
+    /**
+     * Get the number of chunks that currently have a bucket.
+     *
+     * @return number of buckets
+     */
+    public synchronized int getBucketCount() {
+        return buckets.size();
+    }
+
+    @Override
+    public ApplicableRegionSet getApplicableRegions(Vector pt) {
+
+        // Floor the vector to ensure we get accurate points
+        pt = pt.floor();
+
+        List<ProtectedRegion> appRegions = new ArrayList<ProtectedRegion>();
+        getBucket(pt.getBlockX() >> 4, pt.getBlockZ() >> 4).collect(pt, appRegions);
+
+        return new ApplicableRegionSet(appRegions, getRegions().get("__global__"));
+    }
+
+    @Override
+    public List<String> getApplicableRegionsIDs(Vector pt) {
+
+        // Floor the vector to ensure we get accurate points
+        pt = pt.floor();
+
+        List<ProtectedRegion> appRegions = new ArrayList<ProtectedRegion>();
+        getBucket(pt.getBlockX() >> 4, pt.getBlockZ() >> 4).collect(pt, appRegions);
+
+        List<String> applicable = new ArrayList<String>(appRegions.size());
+        for (ProtectedRegion region : appRegions) {
+            applicable.add(region.getId());
+        }
+
+        return applicable;
+    }
+
+    /**
+     * Get the bucket for a chunk, building it if there is none or if the
+     * existing one is out of date.
+     *
+     * @param chunkX the chunk's X coordinate
+     * @param chunkZ the chunk's Z coordinate
+     * @return the bucket
+     */
+    private synchronized Bucket getBucket(int chunkX, int chunkZ) {
+        Long key = toKey(chunkX, chunkZ);
+        Bucket bucket = buckets.get(key);
+
+        if (bucket == null || bucket.isStale()) {
+            Vector min = new Vector(chunkX << 4, Integer.MIN_VALUE, chunkZ << 4);
+            Vector max = new Vector((chunkX << 4) + 15, Integer.MAX_VALUE, (chunkZ << 4) + 15);
+            bucket = new Bucket(findRegions(min, max));
+            buckets.put(key, bucket);
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Drop the buckets of all chunks that a region's bounding box touches.
+     *
+     * @param region the region
+     */
+    private void invalidate(ProtectedRegion region) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+
+        int minX = region.getMinimumPoint().getBlockX() >> 4;
+        int minZ = region.getMinimumPoint().getBlockZ() >> 4;
+        int maxX = region.getMaximumPoint().getBlockX() >> 4;
+        int maxZ = region.getMaximumPoint().getBlockZ() >> 4;
+
+        long area = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+
+        if (area > buckets.size()) {
+            // Cheaper to go through the buckets than through the chunks
+            Iterator<Long> it = buckets.keySet().iterator();
+            while (it.hasNext()) {
+                long key = it.next();
+                int x = (int) (key >> 32);
+                int z = (int) key;
+                if (x >= minX && x <= maxX && z >= minZ && z <= maxZ) {
+                    it.remove();
+                }
+            }
+        } else {
+            for (int x = minX; x <= maxX; x++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    buckets.remove(toKey(x, z));
+                }
+            }
+        }
+    }
+
+    private static Long toKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The regions that may apply to points in one chunk column.
+     */
+    private static class Bucket {
+        /**
+         * Candidates and their parents, in the order of an applicable set.
+         */
+        private final ProtectedRegion[] regions;
+        /**
+         * Whether the region at an index was found in the column, rather
+         * than only being the parent of one that was.
+         */
+        private final boolean[] candidate;
+        /**
+         * Indices of the parents of the region at an index.
+         */
+        private final int[][] parents;
+        /**
+         * Priorities and parents at the time the bucket was built, used to
+         * detect changes that would alter ordering or inheritance.
+         */
+        private final int[] priorities;
+        private final ProtectedRegion[] parentRegions;
+
+        Bucket(List<ProtectedRegion> found) {
+            Map<ProtectedRegion, Boolean> entries = new IdentityHashMap<ProtectedRegion, Boolean>();
+
+            for (ProtectedRegion region : found) {
+                entries.put(region, true);
+            }
+
+            for (ProtectedRegion region : found) {
+                ProtectedRegion parent = region.getParent();
+                while (parent != null) {
+                    if (!entries.containsKey(parent)) {
+                        entries.put(parent, false);
+                    }
+                    parent = parent.getParent();
+                }
+            }
+
+            regions = entries.keySet().toArray(new ProtectedRegion[entries.size()]);
+            Arrays.sort(regions);
+
+            Map<ProtectedRegion, Integer> indices = new IdentityHashMap<ProtectedRegion, Integer>();
+            for (int i = 0; i < regions.length; i++) {
+                indices.put(regions[i], i);
+            }
+
+            candidate = new boolean[regions.length];
+            parents = new int[regions.length][];
+            priorities = new int[regions.length];
+            parentRegions = new ProtectedRegion[regions.length];
+
+            for (int i = 0; i < regions.length; i++) {
+                ProtectedRegion region = regions[i];
+                candidate[i] = entries.get(region);
+                priorities[i] = region.getPriority();
+                parentRegions[i] = region.getParent();
+
+                List<Integer> chain = new ArrayList<Integer>();
+                ProtectedRegion parent = region.getParent();
+                while (parent != null) {
+                    chain.add(indices.get(parent));
+                    parent = parent.getParent();
+                }
+
+                parents[i] = new int[chain.size()];
+                for (int j = 0; j < chain.size(); j++) {
+                    parents[i][j] = chain.get(j);
+                }
+            }
+        }
+
+        /**
+         * Checks whether a priority or parent changed since the bucket
+         * was built.
+         *
+         * @return whether the bucket has to be rebuilt
+         */
+        boolean isStale() {
+            for (int i = 0; i < regions.length; i++) {
+                if (regions[i].getPriority() != priorities[i]
+                        || regions[i].getParent() != parentRegions[i]) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Add the regions that apply to a point, in order.
+         *
+         * @param pt the point, floored
+         * @param applicable the list to add to
+         */
+        void collect(Vector pt, List<ProtectedRegion> applicable) {
+            if (regions.length == 0) {
+                return;
+            }
+
+            boolean[] matched = new boolean[regions.length];
+
+            for (int i = 0; i < regions.length; i++) {
+                if (candidate[i] && !matched[i] && regions[i].contains(pt)) {
+                    matched[i] = true;
+                    for (int parent : parents[i]) {
+                        matched[parent] = true;
+                    }
+                }
+            }
+
+            for (int i = 0; i < regions.length; i++) {
+                if (matched[i]) {
+                    applicable.add(regions[i]);
+                }
+            }
+        }
+    }
+}
@@ -58,12 +58,20 @@ public Map<String, ProtectedRegion> getRegions() {
 
     @Override
     public void setRegions(Map<String, ProtectedRegion> regions) {
+        Collection<ProtectedRegion> oldRegions = this.regions.values();
         this.regions = new TreeMap<String, ProtectedRegion>(regions);
+        regionsReplaced(oldRegions, this.regions.values());
     }
 
     @Override
     public void addRegion(ProtectedRegion region) {
-        regions.put(region.getId().toLowerCase(), region);
+        ProtectedRegion old = regions.put(region.getId().toLowerCase(), region);
+
+        if (old != null && old != region) {
+            regionRemoved(old);
+        }
+
+        regionAdded(region);
     }
 
     @Override
@@ -82,6 +90,8 @@ public void removeRegion(String id) {
             for (String remId : removeRegions) {
                 removeRegion(remId);
             }
+
+            regionRemoved(region);
         }
     }
 
@@ -150,9 +160,8 @@ public List<String> getApplicableRegionsIDs(Vector pt) {
 
     @Override
     public ApplicableRegionSet getApplicableRegions(ProtectedRegion checkRegion) {
-
-        List<ProtectedRegion> appRegions = new ArrayList<ProtectedRegion>();
-        appRegions.addAll(regions.values());
+        List<ProtectedRegion> appRegions = getIntersectingRegions(
+                checkRegion.getMinimumPoint(), checkRegion.getMaximumPoint());
 
         List<ProtectedRegion> intersectRegions;
 
@@ -162,6 +171,8 @@ public ApplicableRegionSet getApplicableRegions(ProtectedRegion checkRegion) {
             intersectRegions = new ArrayList<ProtectedRegion>();
         }
 
+        Collections.sort(intersectRegions);
+
         return new ApplicableRegionSet(intersectRegions, regions.get("__global__"));
     }
 
@@ -169,7 +180,10 @@ public ApplicableRegionSet getApplicableRegions(ProtectedRegion checkRegion) {
     public boolean overlapsUnownedRegion(ProtectedRegion checkRegion, LocalPlayer player) {
         List<ProtectedRegion> appRegions = new ArrayList<ProtectedRegion>();
 
-        for (ProtectedRegion other : regions.values()) {
+        // Only regions near the checked region can overlap it, so look at
+        // those before doing the more expensive ownership checks
+        for (ProtectedRegion other : getIntersectingRegions(
+                checkRegion.getMinimumPoint(), checkRegion.getMaximumPoint())) {
             if (other.getOwners().contains(player)) {
                 continue;
             }
@@ -191,17 +205,4 @@ public boolean overlapsUnownedRegion(ProtectedRegion checkRegion, LocalPlayer pl
     public int size() {
         return regions.size();
     }
-
-    @Override
-    public int getRegionCountOfPlayer(LocalPlayer player) {
-        int count = 0;
-
-        for (ProtectedRegion region : regions.values()) {
-            if (region.getOwners().contains(player)) {
-                count++;
-            }
-        }
-
-        return count;
-    }
 }
@@ -18,10 +18,14 @@
  */
 package com.sk89q.worldguard.protection.managers;
 
+import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldguard.LocalPlayer;
 import com.sk89q.worldguard.protection.ApplicableRegionSet;
 import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 import com.sk89q.worldguard.protection.regions.ProtectedRegionMBRConverter;
 import org.khelekore.prtree.MBR;
@@ -30,10 +34,47 @@
 import org.khelekore.prtree.SimpleMBR;
 
 import java.util.*;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A region manager that indexes regions in a priority R-tree. The tree
+ * itself can only be bulk loaded, so regions added or removed after the
+ * tree was loaded are tracked separately and the tree is periodically
+ * reloaded in the background once enough changes have accumulated.
+ */
 public class PRTreeRegionManager extends RegionManager {
 
     private static final int BRANCH_FACTOR = 30;
+    /**
+     * Number of changes not yet in the tree after which it gets rebuilt.
+     */
+    private static final int REBUILD_THRESHOLD = 64;
+    /**
+     * Executor that bulk loads trees off the calling thread. Its single
+     * thread goes away when idle.
+     */
+    private static final ThreadPoolExecutor rebuildExecutor;
+
+    static {
+        rebuildExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "WorldGuard Region Index");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        rebuildExecutor.allowCoreThreadTimeOut(true);
+    }
+
     /**
      * List of protected regions.
      */
@@ -46,6 +87,28 @@ public class PRTreeRegionManager extends RegionManager {
      * Priority R-tree.
      */
     private PRTree<ProtectedRegion> tree;
+    /**
+     * Regions added since the tree was loaded.
+     */
+    private final List<ProtectedRegion> pending = new ArrayList<ProtectedRegion>();
+    /**
+     * Regions removed since the tree was loaded. These are still in the
+     * tree and have to be skipped when it is searched.
+     */
+    private final Set<ProtectedRegion> removed = newIdentitySet();
+    /**
+     * The tree being loaded in the background, or null.
+     */
+    private volatile Future<PRTree<ProtectedRegion>> rebuild;
+    /**
+     * Regions added while the background load is running.
+     */
+    private final List<ProtectedRegion> rebuildPending = new ArrayList<ProtectedRegion>();
+    /**
+     * Regions of the background load's snapshot that were removed while
+     * it was running.
+     */
+    private final Set<ProtectedRegion> rebuildRemoved = newIdentitySet();
 
     /**
      * Construct the manager.
@@ -55,7 +118,7 @@ public class PRTreeRegionManager extends RegionManager {
     public PRTreeRegionManager(ProtectionDatabase regionLoader) {
         super(regionLoader);
         regions = new TreeMap<String, ProtectedRegion>();
-        tree = new PRTree<ProtectedRegion>(converter, BRANCH_FACTOR);
+        tree = createTree(Collections.<ProtectedRegion>emptyList());
     }
 
     @Override
@@ -64,17 +127,38 @@ public Map<String, ProtectedRegion> getRegions() {
     }
 
     @Override
-    public void setRegions(Map<String, ProtectedRegion> regions) {
+    public synchronized void setRegions(Map<String, ProtectedRegion> regions) {
+        if (rebuild != null) {
+            rebuild.cancel(false);
+            rebuild = null;
+            rebuildPending.clear();
+            rebuildRemoved.clear();
+        }
+
+        Collection<ProtectedRegion> oldRegions = this.regions.values();
         this.regions = new TreeMap<String, ProtectedRegion>(regions);
-        tree = new PRTree<ProtectedRegion>(converter, BRANCH_FACTOR);
-        tree.load(regions.values());
+        tree = createTree(this.regions.values());
+        pending.clear();
+        removed.clear();
+        regionsReplaced(oldRegions, this.regions.values());
     }
 
     @Override
-    public void addRegion(ProtectedRegion region) {
-        regions.put(region.getId().toLowerCase(), region);
-        tree = new PRTree<ProtectedRegion>(converter, BRANCH_FACTOR);
-        tree.load(regions.values());
+    public synchronized void addRegion(ProtectedRegion region) {
+        ProtectedRegion old = regions.put(region.getId().toLowerCase(), region);
+
+        if (old != null) {
+            unindex(old);
+        }
+
+        index(region);
+        scheduleRebuild();
+
+        if (old != null && old != region) {
+            regionRemoved(old);
+        }
+
+        regionAdded(region);
     }
 
     @Override
@@ -83,12 +167,14 @@ public boolean hasRegion(String id) {
     }
 
     @Override
-    public void removeRegion(String id) {
+    public synchronized void removeRegion(String id) {
         ProtectedRegion region = regions.get(id.toLowerCase());
 
         regions.remove(id.toLowerCase());
 
         if (region != null) {
+            unindex(region);
+
             List<String> removeRegions = new ArrayList<String>();
             for (ProtectedRegion curRegion : regions.values()) {
                 if (curRegion.getParent() == region) {
@@ -99,10 +185,131 @@ public void removeRegion(String id) {
             for (String remId : removeRegions) {
                 removeRegion(remId);
             }
+
+            regionRemoved(region);
+        }
+
+        scheduleRebuild();
+    }
+
+    /**
+     * Track a region that was added after the tree was loaded.
+     *
+     * @param region the region
+     */
+    private void index(ProtectedRegion region) {
+        applyRebuild();
+
+        pending.add(region);
+
+        if (rebuild != null) {
+            rebuildPending.add(region);
+        }
+    }
+
+    /**
+     * Track a region that was removed after the tree was loaded.
+     *
+     * @param region the region
+     */
+    private void unindex(ProtectedRegion region) {
+        applyRebuild();
+
+        if (!removeExact(pending, region)) {
+            removed.add(region);
+        }
+
+        if (rebuild != null && !removeExact(rebuildPending, region)) {
+            rebuildRemoved.add(region);
+        }
+    }
+
+    /**
+     * Start loading a new tree in the background if enough changes have
+     * piled up since the current tree was loaded.
+     */
+    private void scheduleRebuild() {
+        if (rebuild != null || pending.size() + removed.size() < REBUILD_THRESHOLD) {
+            return;
+        }
+
+        final List<ProtectedRegion> snapshot = new ArrayList<ProtectedRegion>(regions.values());
+
+        rebuild = rebuildExecutor.submit(new Callable<PRTree<ProtectedRegion>>() {
+            @Override
+            public PRTree<ProtectedRegion> call() {
+                return createTree(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Swap in the tree loaded in the background if it has finished. Changes
+     * made while it was loading become the new set of pending changes.
+     */
+    private synchronized void applyRebuild() {
+        Future<PRTree<ProtectedRegion>> future = rebuild;
+        if (future == null || !future.isDone()) {
+            return;
+        }
+
+        try {
+            tree = future.get();
+            pending.clear();
+            pending.addAll(rebuildPending);
+            removed.clear();
+            removed.addAll(rebuildRemoved);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Keep using the current tree, which is still up to date
+        } finally {
+            rebuild = null;
+            rebuildPending.clear();
+            rebuildRemoved.clear();
+        }
+    }
+
+    /**
+     * Find the regions whose bounding boxes intersect the given box. This
+     * holds the manager's lock because queries can come from other threads,
+     * such as the chat thread, while the tracked changes are modified.
+     *
+     * @param query the box to search
+     * @return a list of regions
+     */
+    private synchronized List<ProtectedRegion> find(MBR query) {
+        Future<PRTree<ProtectedRegion>> future = rebuild;
+        if (future != null && future.isDone()) {
+            applyRebuild();
+        }
+
+        List<ProtectedRegion> found = new ArrayList<ProtectedRegion>();
+
+        for (ProtectedRegion region : tree.find(query)) {
+            if (removed.isEmpty() || !removed.contains(region)) {
+                found.add(region);
+            }
         }
 
-        tree = new PRTree<ProtectedRegion>(converter, BRANCH_FACTOR);
-        tree.load(regions.values());
+        for (ProtectedRegion region : pending) {
+            if (intersects(query, region)) {
+                found.add(region);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Get the regions whose bounding boxes intersect the given box.
+     *
+     * @param min the minimum point of the box
+     * @param max the maximum point of the box
+     * @return a list of regions
+     */
+    protected List<ProtectedRegion> findRegions(Vector min, Vector max) {
+        return find(new SimpleMBR(min.getX(), max.getX(), min.getY(), max.getY(), min.getZ(), max.getZ()));
     }
 
     @Override
@@ -114,7 +321,7 @@ public ApplicableRegionSet getApplicableRegions(Vector pt) {
         List<ProtectedRegion> appRegions = new ArrayList<ProtectedRegion>();
         MBR pointMBR = new SimpleMBR(pt.getX(), pt.getX(), pt.getY(), pt.getY(), pt.getZ(), pt.getZ());
 
-        for (ProtectedRegion region : tree.find(pointMBR)) {
+        for (ProtectedRegion region : find(pointMBR)) {
             if (region.contains(pt) && !appRegions.contains(region)) {
                 appRegions.add(region);
 
@@ -135,10 +342,24 @@ public ApplicableRegionSet getApplicableRegions(Vector pt) {
         return new ApplicableRegionSet(appRegions, regions.get("__global__"));
     }
 
+    @Override
+    public List<ProtectedRegion> getIntersectingRegions(Vector min, Vector max) {
+        List<ProtectedRegion> found = findRegions(
+                Vector.getMinimum(min, max), Vector.getMaximum(min, max));
+
+        for (Iterator<ProtectedRegion> it = found.iterator(); it.hasNext(); ) {
+            if (it.next() instanceof GlobalProtectedRegion) {
+                it.remove();
+            }
+        }
+
+        return found;
+    }
+
     @Override
     public ApplicableRegionSet getApplicableRegions(ProtectedRegion checkRegion) {
-        List<ProtectedRegion> appRegions = new ArrayList<ProtectedRegion>();
-        appRegions.addAll(regions.values());
+        List<ProtectedRegion> appRegions = getIntersectingRegions(
+                checkRegion.getMinimumPoint(), checkRegion.getMaximumPoint());
 
         List<ProtectedRegion> intersectRegions;
         try {
@@ -147,9 +368,103 @@ public ApplicableRegionSet getApplicableRegions(ProtectedRegion checkRegion) {
             intersectRegions = new ArrayList<ProtectedRegion>();
         }
 
+        Collections.sort(intersectRegions);
+
         return new ApplicableRegionSet(intersectRegions, regions.get("__global__"));
     }
 
+    @Override
+    public boolean allowsAll(StateFlag flag, Collection<? extends Vector> points) {
+        if (flag == DefaultFlag.BUILD) {
+            throw new IllegalArgumentException("Can't use build flag with allows()");
+        }
+
+        if (points.isEmpty()) {
+            return true;
+        }
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+
+        for (Vector pt : points) {
+            minX = Math.min(minX, Math.floor(pt.getX()));
+            minY = Math.min(minY, Math.floor(pt.getY()));
+            minZ = Math.min(minZ, Math.floor(pt.getZ()));
+            maxX = Math.max(maxX, Math.floor(pt.getX()));
+            maxY = Math.max(maxY, Math.floor(pt.getY()));
+            maxZ = Math.max(maxZ, Math.floor(pt.getZ()));
+        }
+
+        List<ProtectedRegion> candidates = findRegions(
+                new Vector(minX, minY, minZ), new Vector(maxX, maxY, maxZ));
+        ProtectedRegion globalRegion = regions.get("__global__");
+
+        // Without the flag on any region around, every point gets the default
+        if (!isFlagSet(candidates, flag)) {
+            return new ApplicableRegionSet(Collections.<ProtectedRegion>emptyList(),
+                    globalRegion).allows(flag);
+        }
+
+        // Neighbouring points are mostly in the same regions, so only
+        // evaluate the flag again when the regions differ
+        List<ProtectedRegion> lastRegions = null;
+
+        for (Vector pt : points) {
+            pt = pt.floor();
+
+            List<ProtectedRegion> appRegions = new ArrayList<ProtectedRegion>();
+
+            for (ProtectedRegion region : candidates) {
+                if (region.contains(pt) && !appRegions.contains(region)) {
+                    appRegions.add(region);
+
+                    ProtectedRegion parent = region.getParent();
+
+                    while (parent != null) {
+                        if (!appRegions.contains(parent)) {
+                            appRegions.add(parent);
+                        }
+
+                        parent = parent.getParent();
+                    }
+                }
+            }
+
+            Collections.sort(appRegions);
+
+            if (appRegions.equals(lastRegions)) {
+                continue;
+            }
+
+            if (!new ApplicableRegionSet(appRegions, globalRegion).allows(flag)) {
+                return false;
+            }
+
+            lastRegions = appRegions;
+        }
+
+        return true;
+    }
+
+    /**
+     * Check whether any of the given regions or their parents have a flag set.
+     *
+     * @param regions the regions
+     * @param flag the flag
+     * @return whether the flag is set
+     */
+    private static boolean isFlagSet(List<ProtectedRegion> regions, StateFlag flag) {
+        for (ProtectedRegion region : regions) {
+            for (ProtectedRegion r = region; r != null; r = r.getParent()) {
+                if (r.getFlag(flag) != null) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public List<String> getApplicableRegionsIDs(Vector pt) {
 
@@ -159,7 +474,7 @@ public List<String> getApplicableRegionsIDs(Vector pt) {
         List<String> applicable = new ArrayList<String>();
         MBR pointMBR = new SimpleMBR(pt.getX(), pt.getX(), pt.getY(), pt.getY(), pt.getZ(), pt.getZ());
 
-        for (ProtectedRegion region : tree.find(pointMBR)) {
+        for (ProtectedRegion region : find(pointMBR)) {
             if (region.contains(pt) && !applicable.contains(region.getId())) {
                 applicable.add(region.getId());
 
@@ -182,7 +497,10 @@ public List<String> getApplicableRegionsIDs(Vector pt) {
     public boolean overlapsUnownedRegion(ProtectedRegion checkRegion, LocalPlayer player) {
         List<ProtectedRegion> appRegions = new ArrayList<ProtectedRegion>();
 
-        for (ProtectedRegion other : regions.values()) {
+        // Only regions near the checked region can overlap it, so look at
+        // those before doing the more expensive ownership checks
+        for (ProtectedRegion other : getIntersectingRegions(
+                checkRegion.getMinimumPoint(), checkRegion.getMaximumPoint())) {
             if (other.getOwners().contains(player)) {
                 continue;
             }
@@ -205,16 +523,54 @@ public int size() {
         return regions.size();
     }
 
-    @Override
-    public int getRegionCountOfPlayer(LocalPlayer player) {
-        int count = 0;
+    /**
+     * Bulk load a tree with the given regions.
+     *
+     * @param regions the regions
+     * @return a new tree
+     */
+    private PRTree<ProtectedRegion> createTree(Collection<ProtectedRegion> regions) {
+        PRTree<ProtectedRegion> tree = new PRTree<ProtectedRegion>(converter, BRANCH_FACTOR);
+        tree.load(regions);
+        return tree;
+    }
+
+    /**
+     * Checks whether a region's bounding box intersects a box.
+     *
+     * @param query the box
+     * @param region the region
+     * @return whether they intersect
+     */
+    private static boolean intersects(MBR query, ProtectedRegion region) {
+        BlockVector min = region.getMinimumPoint();
+        BlockVector max = region.getMaximumPoint();
 
-        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
-            if (entry.getValue().getOwners().contains(player)) {
-                count++;
+        return min.getBlockX() <= query.getMax(0) && max.getBlockX() >= query.getMin(0)
+                && min.getBlockY() <= query.getMax(1) && max.getBlockY() >= query.getMin(1)
+                && min.getBlockZ() <= query.getMax(2) && max.getBlockZ() >= query.getMin(2);
+    }
+
+    /**
+     * Remove the given instance from a list, ignoring equal regions that
+     * are not the same object.
+     *
+     * @param list the list
+     * @param region the region
+     * @return whether it was removed
+     */
+    private static boolean removeExact(List<ProtectedRegion> list, ProtectedRegion region) {
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i) == region) {
+                list.remove(i);
+                return true;
             }
         }
 
-        return count;
+        return false;
+    }
+
+    private static Set<ProtectedRegion> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<ProtectedRegion, Boolean>());
     }
-}
\ No newline at end of file
+}
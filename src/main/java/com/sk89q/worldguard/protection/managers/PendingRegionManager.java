@@ -0,0 +1,146 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sk89q.worldguard.protection.managers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.LocalPlayer;
+import com.sk89q.worldguard.protection.ApplicableRegionSet;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+/**
+ * A region manager that stands in for a world whose regions have not been
+ * loaded yet. It has no regions and answers every query as if the whole
+ * world was covered by a region without members that denies building and
+ * the flags guarding against damage and griefing. Changes are ignored and
+ * saving fails, so that nothing can overwrite the real regions.
+ */
+public class PendingRegionManager extends RegionManager {
+
+    /**
+     * The flags denied everywhere. Flags that only affect movement and chat
+     * keep their defaults, so players are not stuck while regions load.
+     */
+    private static final StateFlag[] DENIED_FLAGS = {
+            DefaultFlag.BUILD, DefaultFlag.PVP, DefaultFlag.MOB_DAMAGE,
+            DefaultFlag.CREEPER_EXPLOSION, DefaultFlag.ENDERDRAGON_BLOCK_DAMAGE,
+            DefaultFlag.GHAST_FIREBALL, DefaultFlag.OTHER_EXPLOSION,
+            DefaultFlag.TNT, DefaultFlag.LIGHTER, DefaultFlag.FIRE_SPREAD,
+            DefaultFlag.LAVA_FIRE, DefaultFlag.CHEST_ACCESS, DefaultFlag.USE,
+            DefaultFlag.PLACE_VEHICLE, DefaultFlag.DESTROY_VEHICLE,
+            DefaultFlag.PISTONS, DefaultFlag.ENDER_BUILD,
+            DefaultFlag.ENTITY_PAINTING_DESTROY,
+            DefaultFlag.ENTITY_ITEM_FRAME_DESTROY, DefaultFlag.ENABLE_SHOP
+    };
+
+    /**
+     * The region applied everywhere. It is never listed as a region.
+     */
+    private final ProtectedRegion guard;
+
+    /**
+     * Construct the manager.
+     */
+    public PendingRegionManager() {
+        super(null);
+        guard = new GlobalProtectedRegion("__global__");
+        for (StateFlag flag : DENIED_FLAGS) {
+            guard.setFlag(flag, StateFlag.State.DENY);
+        }
+    }
+
+    @Override
+    public void load() {
+    }
+
+    @Override
+    public void save() throws ProtectionDatabaseException {
+        throw new ProtectionDatabaseException("The regions of this world are not loaded");
+    }
+
+    @Override
+    public Future<Void> saveChanges() {
+        FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws ProtectionDatabaseException {
+                save();
+                return null;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    @Override
+    public Map<String, ProtectedRegion> getRegions() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void setRegions(Map<String, ProtectedRegion> regions) {
+    }
+
+    @Override
+    public void addRegion(ProtectedRegion region) {
+    }
+
+    @Override
+    public boolean hasRegion(String id) {
+        return false;
+    }
+
+    @Override
+    public void removeRegion(String id) {
+    }
+
+    @Override
+    public ApplicableRegionSet getApplicableRegions(Vector pt) {
+        return new ApplicableRegionSet(Collections.<ProtectedRegion>emptyList(), guard);
+    }
+
+    @Override
+    public ApplicableRegionSet getApplicableRegions(ProtectedRegion region) {
+        return new ApplicableRegionSet(Collections.<ProtectedRegion>emptyList(), guard);
+    }
+
+    @Override
+    public List<String> getApplicableRegionsIDs(Vector pt) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean overlapsUnownedRegion(ProtectedRegion region, LocalPlayer player) {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return 0;
+    }
+}
@@ -0,0 +1,122 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.protection.managers;
+
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+/**
+ * Describes a change made to the regions of a region manager.
+ */
+public class RegionChangeEvent {
+
+    /**
+     * The kinds of changes.
+     */
+    public enum Type {
+        /**
+         * A region was added, possibly replacing another one with the
+         * same ID.
+         */
+        ADDED,
+        /**
+         * A region was removed.
+         */
+        REMOVED,
+        /**
+         * A region of the manager was changed.
+         */
+        CHANGED,
+        /**
+         * The whole list of regions was replaced.
+         */
+        RELOADED
+    }
+
+    private final RegionManager manager;
+    private final Type type;
+    private final ProtectedRegion region;
+    private final ProtectedRegion.Property property;
+    private final long version;
+
+    /**
+     * Construct the event.
+     *
+     * @param manager the region manager
+     * @param type the kind of change
+     * @param region the region, or null when the regions were reloaded
+     * @param property what was changed, or null unless a region was changed
+     * @param version the version of the manager after the change
+     */
+    public RegionChangeEvent(RegionManager manager, Type type,
+            ProtectedRegion region, ProtectedRegion.Property property,
+            long version) {
+        this.manager = manager;
+        this.type = type;
+        this.region = region;
+        this.property = property;
+        this.version = version;
+    }
+
+    /**
+     * Get the region manager.
+     *
+     * @return the region manager
+     */
+    public RegionManager getManager() {
+        return manager;
+    }
+
+    /**
+     * Get the kind of change.
+     *
+     * @return the kind of change
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the region that was added, removed or changed.
+     *
+     * @return the region, or null when the regions were reloaded
+     */
+    public ProtectedRegion getRegion() {
+        return region;
+    }
+
+    /**
+     * Get what was changed on the region.
+     *
+     * @return the property, or null unless the type is {@link Type#CHANGED}
+     */
+    public ProtectedRegion.Property getProperty() {
+        return property;
+    }
+
+    /**
+     * Get the version of the manager after the change.
+     *
+     * @return the version
+     * @see RegionManager#getVersion()
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,34 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.protection.managers;
+
+/**
+ * Receives the changes made to the regions of a region manager. Listeners
+ * are called on the thread that made the change, after it was made.
+ */
+public interface RegionChangeListener {
+
+    /**
+     * Called after the regions of a manager were changed.
+     *
+     * @param event the change
+     */
+    public void regionChanged(RegionChangeEvent event);
+}
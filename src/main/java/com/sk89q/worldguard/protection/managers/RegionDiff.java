@@ -0,0 +1,78 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.protection.managers;
+
+import com.sk89q.worldguard.domains.DefaultDomain;
+import com.sk89q.worldguard.protection.regions.ProtectedPolygonalRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+/**
+ * Compares regions to find out which of them were changed when the regions
+ * of a world are loaded again.
+ */
+final class RegionDiff {
+
+    private RegionDiff() {
+    }
+
+    /**
+     * Check whether two regions have the same type, shape, priority, flags,
+     * owners, members and parent ID.
+     *
+     * @param a a region
+     * @param b another region
+     * @return whether the regions are the same
+     */
+    static boolean isSame(ProtectedRegion a, ProtectedRegion b) {
+        if (a.getClass() != b.getClass()
+                || !a.getId().equals(b.getId())
+                || a.getPriority() != b.getPriority()
+                || !a.getMinimumPoint().equals(b.getMinimumPoint())
+                || !a.getMaximumPoint().equals(b.getMaximumPoint())) {
+            return false;
+        }
+
+        if (a instanceof ProtectedPolygonalRegion
+                && !a.getPoints().equals(b.getPoints())) {
+            return false;
+        }
+
+        return a.getFlags().equals(b.getFlags())
+                && isSame(a.getOwners(), b.getOwners())
+                && isSame(a.getMembers(), b.getMembers())
+                && getParentId(a).equals(getParentId(b));
+    }
+
+    private static boolean isSame(DefaultDomain a, DefaultDomain b) {
+        return a.getPlayers().equals(b.getPlayers())
+                && a.getGroups().equals(b.getGroups());
+    }
+
+    /**
+     * Get the lowercase ID of the parent of a region.
+     *
+     * @param region the region
+     * @return the ID, or an empty string if the region has no parent
+     */
+    static String getParentId(ProtectedRegion region) {
+        ProtectedRegion parent = region.getParent();
+        return parent != null ? parent.getId().toLowerCase() : "";
+    }
+}
@@ -0,0 +1,306 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.protection.managers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sk89q.worldguard.LocalPlayer;
+import com.sk89q.worldguard.domains.DefaultDomain;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+/**
+ * Maps player and group names to the regions that they own or are members
+ * of, and regions to their children. The index is kept up to date from the
+ * change events of its region manager.
+ */
+class RegionDomainIndex implements RegionChangeListener {
+
+    private final RegionManager manager;
+    private final Map<ProtectedRegion, Entry> entries =
+            new IdentityHashMap<ProtectedRegion, Entry>();
+    private final Map<String, Set<ProtectedRegion>> ownerPlayers =
+            new HashMap<String, Set<ProtectedRegion>>();
+    private final Map<String, Set<ProtectedRegion>> ownerGroups =
+            new HashMap<String, Set<ProtectedRegion>>();
+    private final Map<String, Set<ProtectedRegion>> memberPlayers =
+            new HashMap<String, Set<ProtectedRegion>>();
+    private final Map<String, Set<ProtectedRegion>> memberGroups =
+            new HashMap<String, Set<ProtectedRegion>>();
+    private final Map<ProtectedRegion, Set<ProtectedRegion>> children =
+            new IdentityHashMap<ProtectedRegion, Set<ProtectedRegion>>();
+
+    /**
+     * Construct the index.
+     *
+     * @param manager the region manager whose regions are indexed
+     */
+    RegionDomainIndex(RegionManager manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public synchronized void regionChanged(RegionChangeEvent event) {
+        switch (event.getType()) {
+            case ADDED:
+                unindex(event.getRegion());
+                index(event.getRegion());
+                break;
+
+            case REMOVED:
+                unindex(event.getRegion());
+                break;
+
+            case CHANGED:
+                switch (event.getProperty()) {
+                    case OWNERS:
+                    case MEMBERS:
+                    case PARENT:
+                        unindex(event.getRegion());
+                        index(event.getRegion());
+                        break;
+                    default:
+                        break;
+                }
+                break;
+
+            case RELOADED:
+                entries.clear();
+                ownerPlayers.clear();
+                ownerGroups.clear();
+                memberPlayers.clear();
+                memberGroups.clear();
+                children.clear();
+
+                for (ProtectedRegion region : manager.getRegions().values()) {
+                    index(region);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Count the regions that a player owns directly, either by name or
+     * through one of their groups.
+     *
+     * @param player the player
+     * @return the number of regions
+     */
+    synchronized int countOwnedRegions(LocalPlayer player) {
+        Set<ProtectedRegion> byName = ownerPlayers.get(player.getName().toLowerCase());
+
+        if (ownerGroups.isEmpty()) {
+            return byName != null ? byName.size() : 0;
+        }
+
+        Set<ProtectedRegion> owned = newIdentitySet();
+
+        if (byName != null) {
+            owned.addAll(byName);
+        }
+
+        for (Map.Entry<String, Set<ProtectedRegion>> entry : ownerGroups.entrySet()) {
+            if (player.hasGroup(entry.getKey())) {
+                owned.addAll(entry.getValue());
+            }
+        }
+
+        return owned.size();
+    }
+
+    /**
+     * Get the regions that a player owns or is a member of by name, either
+     * directly or through a parent region.
+     *
+     * @param playerName the name of the player
+     * @return a new set of regions
+     */
+    synchronized Set<ProtectedRegion> getRegionsOf(String playerName) {
+        String name = playerName.toLowerCase();
+        Set<ProtectedRegion> found = newIdentitySet();
+
+        addWithChildren(found, ownerPlayers.get(name));
+        addWithChildren(found, memberPlayers.get(name));
+
+        return found;
+    }
+
+    /**
+     * Get the regions that a group owns or is a member of, either directly
+     * or through a parent region.
+     *
+     * @param groupName the name of the group
+     * @return a new set of regions
+     */
+    synchronized Set<ProtectedRegion> getRegionsOfGroup(String groupName) {
+        String name = groupName.toLowerCase();
+        Set<ProtectedRegion> found = newIdentitySet();
+
+        addWithChildren(found, ownerGroups.get(name));
+        addWithChildren(found, memberGroups.get(name));
+
+        return found;
+    }
+
+    /**
+     * Add regions and all of their descendants to a set.
+     *
+     * @param found the set to add to
+     * @param regions the regions, or null
+     */
+    private void addWithChildren(Set<ProtectedRegion> found, Collection<ProtectedRegion> regions) {
+        if (regions == null) {
+            return;
+        }
+
+        List<ProtectedRegion> queue = new ArrayList<ProtectedRegion>(regions);
+
+        while (!queue.isEmpty()) {
+            ProtectedRegion region = queue.remove(queue.size() - 1);
+
+            if (found.add(region)) {
+                Set<ProtectedRegion> regionChildren = children.get(region);
+                if (regionChildren != null) {
+                    queue.addAll(regionChildren);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a region to the index.
+     *
+     * @param region the region
+     */
+    private void index(ProtectedRegion region) {
+        DefaultDomain owners = region.getOwners();
+        DefaultDomain members = region.getMembers();
+        Entry entry = new Entry(owners, members, region.getParent());
+
+        put(ownerPlayers, entry.ownerPlayers, region);
+        put(ownerGroups, entry.ownerGroups, region);
+        put(memberPlayers, entry.memberPlayers, region);
+        put(memberGroups, entry.memberGroups, region);
+
+        if (entry.parent != null) {
+            Set<ProtectedRegion> regionChildren = children.get(entry.parent);
+            if (regionChildren == null) {
+                regionChildren = newIdentitySet();
+                children.put(entry.parent, regionChildren);
+            }
+            regionChildren.add(region);
+        }
+
+        entries.put(region, entry);
+    }
+
+    /**
+     * Remove a region from the index, using the names and parent that it
+     * was indexed with.
+     *
+     * @param region the region
+     */
+    private void unindex(ProtectedRegion region) {
+        Entry entry = entries.remove(region);
+
+        if (entry == null) {
+            return;
+        }
+
+        remove(ownerPlayers, entry.ownerPlayers, region);
+        remove(ownerGroups, entry.ownerGroups, region);
+        remove(memberPlayers, entry.memberPlayers, region);
+        remove(memberGroups, entry.memberGroups, region);
+
+        if (entry.parent != null) {
+            Set<ProtectedRegion> regionChildren = children.get(entry.parent);
+            if (regionChildren != null) {
+                regionChildren.remove(region);
+                if (regionChildren.isEmpty()) {
+                    children.remove(entry.parent);
+                }
+            }
+        }
+    }
+
+    private static void put(Map<String, Set<ProtectedRegion>> index,
+            String[] names, ProtectedRegion region) {
+        for (String name : names) {
+            Set<ProtectedRegion> regions = index.get(name);
+            if (regions == null) {
+                regions = newIdentitySet();
+                index.put(name, regions);
+            }
+            regions.add(region);
+        }
+    }
+
+    private static void remove(Map<String, Set<ProtectedRegion>> index,
+            String[] names, ProtectedRegion region) {
+        for (String name : names) {
+            Set<ProtectedRegion> regions = index.get(name);
+            if (regions != null) {
+                regions.remove(region);
+                if (regions.isEmpty()) {
+                    index.remove(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Regions with the same ID are equal, so the index compares them by
+     * identity to tell a replaced region from its replacement.
+     *
+     * @return a new set
+     */
+    private static Set<ProtectedRegion> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<ProtectedRegion, Boolean>());
+    }
+
+    /**
+     * The names and parent that a region was indexed with.
+     */
+    private static class Entry {
+        private final String[] ownerPlayers;
+        private final String[] ownerGroups;
+        private final String[] memberPlayers;
+        private final String[] memberGroups;
+        private final ProtectedRegion parent;
+
+        Entry(DefaultDomain owners, DefaultDomain members, ProtectedRegion parent) {
+            this.ownerPlayers = toArray(owners.getPlayers());
+            this.ownerGroups = toArray(owners.getGroups());
+            this.memberPlayers = toArray(members.getPlayers());
+            this.memberGroups = toArray(members.getGroups());
+            this.parent = parent;
+        }
+
+        private static String[] toArray(Set<String> names) {
+            return names.toArray(new String[names.size()]);
+        }
+    }
+}
@@ -19,15 +19,35 @@
 
 package com.sk89q.worldguard.protection.managers;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldguard.LocalPlayer;
 import com.sk89q.worldguard.protection.ApplicableRegionSet;
 import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
 import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion.CircularInheritanceException;
 
 /**
  * An abstract class for getting, setting, and looking up regions. The most
@@ -39,8 +59,74 @@
  */
 public abstract class RegionManager {
 
+    private static final Logger logger = Logger.getLogger(RegionManager.class.getCanonicalName());
+
+    /**
+     * Executor that saves regions off the calling thread. Having a single
+     * thread keeps the saves of a manager in order.
+     */
+    private static final ThreadPoolExecutor saveExecutor;
+
+    static {
+        saveExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "WorldGuard Region Saver");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        saveExecutor.allowCoreThreadTimeOut(true);
+    }
+
     protected ProtectionDatabase loader;
 
+    /**
+     * A background save that has not started yet, and the regions it will
+     * save. Later requests replace the regions instead of queuing a save.
+     */
+    private final Object saveLock = new Object();
+    private FutureTask<Void> queuedSave;
+    private Map<String, ProtectedRegion> queuedSnapshot;
+    private Map<ProtectedRegion, ProtectedRegion> queuedOriginals;
+
+    /**
+     * Copies the regions for background saves. Guarded by saveLock.
+     */
+    private final RegionSnapshots snapshots = new RegionSnapshots();
+
+    /**
+     * The background save that was queued last.
+     */
+    private Future<Void> lastSave;
+
+    /**
+     * Incremented whenever regions are added, removed, changed or replaced.
+     */
+    private volatile long version;
+
+    /**
+     * Listeners told about changes to the regions.
+     */
+    private final List<RegionChangeListener> listeners =
+            new CopyOnWriteArrayList<RegionChangeListener>();
+
+    /**
+     * Finds the regions of players without looking at every region.
+     */
+    private final RegionDomainIndex domainIndex = new RegionDomainIndex(this);
+
+    /**
+     * Set on the regions of this manager to learn about their changes.
+     */
+    private final ProtectedRegion.Observer observer = new ProtectedRegion.Observer() {
+        @Override
+        public void regionChanged(ProtectedRegion region, ProtectedRegion.Property property) {
+            fireChange(RegionChangeEvent.Type.CHANGED, region, property);
+        }
+    };
+
     /**
      * Construct the object.
      *
@@ -48,6 +134,7 @@ public abstract class RegionManager {
      */
     public RegionManager(ProtectionDatabase loader) {
         this.loader = loader;
+        listeners.add(domainIndex);
     }
 
     /**
@@ -57,7 +144,124 @@ public RegionManager(ProtectionDatabase loader) {
      * @throws ProtectionDatabaseException when an error occurs
      */
     public void load() throws ProtectionDatabaseException {
-        loader.load(this);
+        // Don't read back regions that are still being written
+        flushSaves();
+
+        synchronized (loader) {
+            loader.load(this);
+        }
+    }
+
+    /**
+     * Read the regions from the database without replacing the regions of
+     * this manager, so that they can be passed to
+     * {@link #updateRegions(Map)} later. Saves that are still running are
+     * waited for first, so the result includes every change saved before
+     * this call.
+     *
+     * @return the regions that were read, with lowercase IDs as keys
+     * @throws ProtectionDatabaseException when an error occurs
+     */
+    public Map<String, ProtectedRegion> readRegions() throws ProtectionDatabaseException {
+        flushSaves();
+
+        synchronized (loader) {
+            loader.load();
+            return loader.getRegions();
+        }
+    }
+
+    /**
+     * Bring the regions up to date with regions that were loaded again,
+     * such as after the database was edited by hand. Only the regions that
+     * were added, removed or changed are replaced, so the others keep their
+     * place in the index. A region is also replaced when its parent is.
+     *
+     * @param regions the loaded regions, with lowercase IDs as keys
+     * @return the number of regions that were added, removed or replaced
+     */
+    public int updateRegions(Map<String, ProtectedRegion> regions) {
+        Map<String, ProtectedRegion> current = getRegions();
+        Map<String, Boolean> changed = new HashMap<String, Boolean>();
+
+        for (String id : regions.keySet()) {
+            isChanged(id, regions, current, changed);
+        }
+
+        List<String> removed = new ArrayList<String>();
+        for (String id : current.keySet()) {
+            if (!regions.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+
+        // Children of removed regions have changed too and are added back
+        for (String id : removed) {
+            removeRegion(id);
+        }
+
+        int count = removed.size();
+
+        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
+            if (!changed.get(entry.getKey()) && hasRegion(entry.getKey())) {
+                continue;
+            }
+
+            ProtectedRegion region = entry.getValue();
+            String parentId = RegionDiff.getParentId(region);
+
+            // Keep pointing at the parent that stays
+            if (Boolean.FALSE.equals(changed.get(parentId))) {
+                ProtectedRegion parent = getRegions().get(parentId);
+                if (parent != null) {
+                    try {
+                        region.setParent(parent);
+                    } catch (CircularInheritanceException ignore) {
+                        // The parent has the same ancestors as the loaded one
+                    }
+                }
+            }
+
+            region.setDirty(false);
+            addRegion(region);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Find out whether a loaded region differs from the current one, which
+     * is also the case when its parent differs.
+     *
+     * @param id the lowercase ID of the region
+     * @param regions the loaded regions
+     * @param current the current regions
+     * @param changed the answers found so far
+     * @return whether the region has changed
+     */
+    private static boolean isChanged(String id, Map<String, ProtectedRegion> regions,
+            Map<String, ProtectedRegion> current, Map<String, Boolean> changed) {
+        Boolean known = changed.get(id);
+        if (known != null) {
+            return known;
+        }
+
+        // Guards against parent cycles
+        changed.put(id, true);
+
+        ProtectedRegion region = regions.get(id);
+        ProtectedRegion old = current.get(id);
+        boolean result = old == null || !RegionDiff.isSame(old, region);
+
+        String parentId = RegionDiff.getParentId(region);
+        if (!result && !parentId.isEmpty()) {
+            result = !regions.containsKey(parentId)
+                    || isChanged(parentId, regions, current, changed);
+        }
+
+        changed.put(id, result);
+        return result;
     }
 
     /**
@@ -66,7 +270,279 @@ public void load() throws ProtectionDatabaseException {
      * @throws ProtectionDatabaseException when an error occurs while saving
      */
     public void save() throws ProtectionDatabaseException {
-        loader.save(this);
+        // Don't let an older background save overwrite this one
+        flushSaves();
+
+        synchronized (loader) {
+            loader.save(this);
+        }
+
+        // The copies of unchanged regions may be older than what was saved
+        synchronized (saveLock) {
+            snapshots.clear();
+        }
+    }
+
+    /**
+     * Save the list of regions in the background. The regions that changed
+     * since the last background save are copied right away, and all of
+     * them are serialized and written on another thread. Saves
+     * requested while an earlier one still waits to start are combined with
+     * it, so a burst of changes is written once. Errors are logged, and
+     * also reported by the returned future.
+     *
+     * @return a future that completes once the regions as of this call,
+     *         or a later state, have been saved
+     */
+    public Future<Void> saveChanges() {
+        Map<ProtectedRegion, ProtectedRegion> originals =
+                new IdentityHashMap<ProtectedRegion, ProtectedRegion>();
+
+        synchronized (saveLock) {
+            Map<String, ProtectedRegion> snapshot = snapshots.copy(getRegions(), originals);
+
+            // The replaced copies took over changes that must still be saved
+            if (queuedSnapshot != null) {
+                for (Map.Entry<String, ProtectedRegion> entry : queuedSnapshot.entrySet()) {
+                    ProtectedRegion copy = snapshot.get(entry.getKey());
+                    if (copy != null && entry.getValue().isDirty()) {
+                        copy.setDirty(true);
+                    }
+                }
+            }
+
+            queuedSnapshot = snapshot;
+            queuedOriginals = originals;
+
+            if (queuedSave == null) {
+                queuedSave = new FutureTask<Void>(new Callable<Void>() {
+                    @Override
+                    public Void call() throws ProtectionDatabaseException {
+                        writeQueuedSnapshot();
+                        return null;
+                    }
+                });
+                lastSave = queuedSave;
+                saveExecutor.execute(queuedSave);
+            }
+
+            return queuedSave;
+        }
+    }
+
+    /**
+     * Write the regions of the queued save. Called on the save thread.
+     *
+     * @throws ProtectionDatabaseException when an error occurs while saving
+     */
+    private void writeQueuedSnapshot() throws ProtectionDatabaseException {
+        Map<String, ProtectedRegion> snapshot;
+        Map<ProtectedRegion, ProtectedRegion> originals;
+
+        synchronized (saveLock) {
+            snapshot = queuedSnapshot;
+            originals = queuedOriginals;
+            queuedSnapshot = null;
+            queuedOriginals = null;
+            queuedSave = null;
+        }
+
+        try {
+            synchronized (loader) {
+                loader.setRegions(snapshot);
+                loader.save();
+            }
+        } catch (ProtectionDatabaseException e) {
+            logger.log(Level.SEVERE, "Failed to save regions in the background", e);
+            restoreDirty(snapshot, originals);
+            throw e;
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Failed to save regions in the background", e);
+            restoreDirty(snapshot, originals);
+            throw e;
+        }
+
+        // The copies are kept for the next save, which only writes the
+        // regions that changed by then
+        for (ProtectedRegion copy : snapshot.values()) {
+            copy.setDirty(false);
+        }
+    }
+
+    /**
+     * Mark the regions whose copies were not saved as dirty again, so that
+     * the next save writes them. A save that is already queued gets the
+     * changes too.
+     *
+     * @param snapshot the copies
+     * @param originals the original of every copy
+     */
+    private void restoreDirty(Map<String, ProtectedRegion> snapshot,
+            Map<ProtectedRegion, ProtectedRegion> originals) {
+        synchronized (saveLock) {
+            for (Map.Entry<String, ProtectedRegion> entry : snapshot.entrySet()) {
+                if (!entry.getValue().isDirty()) {
+                    continue;
+                }
+
+                originals.get(entry.getValue()).setDirty(true);
+
+                if (queuedSnapshot != null) {
+                    ProtectedRegion queued = queuedSnapshot.get(entry.getKey());
+                    if (queued != null) {
+                        queued.setDirty(true);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the background saves of this manager, then release the
+     * resources of its database. The manager must not be used afterwards.
+     */
+    public void close() {
+        flushSaves();
+
+        if (loader != null) {
+            synchronized (loader) {
+                loader.close();
+            }
+        }
+    }
+
+    /**
+     * Wait until the background saves of this manager have finished. Any
+     * errors have already been logged by then.
+     */
+    public void flushSaves() {
+        Future<Void> save;
+
+        synchronized (saveLock) {
+            save = lastSave;
+        }
+
+        if (save == null) {
+            return;
+        }
+
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                try {
+                    save.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException ignore) {
+            // Logged by the save itself
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get a number that changes whenever regions are added, removed,
+     * changed or replaced, so that results computed from an earlier state
+     * of this manager can be recognized as outdated.
+     *
+     * @return the current version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Register a listener to be told about changes to the regions.
+     *
+     * @param listener the listener
+     */
+    public void addChangeListener(RegionChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregister a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeChangeListener(RegionChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Called by implementations after the whole list of regions was replaced.
+     *
+     * @param oldRegions the regions that were replaced
+     * @param newRegions the new regions
+     */
+    protected void regionsReplaced(Collection<ProtectedRegion> oldRegions,
+            Collection<ProtectedRegion> newRegions) {
+        for (ProtectedRegion region : oldRegions) {
+            detach(region);
+        }
+        for (ProtectedRegion region : newRegions) {
+            region.setObserver(observer);
+        }
+        fireChange(RegionChangeEvent.Type.RELOADED, null, null);
+    }
+
+    /**
+     * Called by implementations after a region was added.
+     *
+     * @param region the region
+     */
+    protected void regionAdded(ProtectedRegion region) {
+        region.setObserver(observer);
+        fireChange(RegionChangeEvent.Type.ADDED, region, null);
+    }
+
+    /**
+     * Called by implementations after a region was removed.
+     *
+     * @param region the region
+     */
+    protected void regionRemoved(ProtectedRegion region) {
+        detach(region);
+        fireChange(RegionChangeEvent.Type.REMOVED, region, null);
+    }
+
+    /**
+     * Stop observing a region, unless another manager has taken it over.
+     *
+     * @param region the region
+     */
+    private void detach(ProtectedRegion region) {
+        if (region.getObserver() == observer) {
+            region.setObserver(null);
+        }
+    }
+
+    /**
+     * Mark the regions of this manager as changed and tell the listeners.
+     *
+     * @param type the kind of change
+     * @param region the region, or null
+     * @param property what was changed, or null
+     */
+    private void fireChange(RegionChangeEvent.Type type,
+            ProtectedRegion region, ProtectedRegion.Property property) {
+        long current = ++version;
+
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        RegionChangeEvent event = new RegionChangeEvent(this, type, region,
+                property, current);
+        for (RegionChangeListener listener : listeners) {
+            listener.regionChanged(event);
+        }
     }
 
     /**
@@ -174,6 +650,72 @@ public ApplicableRegionSet getApplicableRegions(org.bukkit.Location loc) {
     public abstract ApplicableRegionSet getApplicableRegions(
             ProtectedRegion region);
 
+    /**
+     * Get an object for a box for rules to be applied with. The set holds
+     * the regions that intersect the box, ordered by priority.
+     *
+     * @param min one corner of the box
+     * @param max the opposite corner of the box
+     * @return applicable region set
+     */
+    public ApplicableRegionSet getApplicableRegions(Vector min, Vector max) {
+        return getApplicableRegions(new ProtectedCuboidRegion("__bounds__",
+                min.toBlockVector(), max.toBlockVector()));
+    }
+
+    /**
+     * Get the regions whose bounding boxes intersect a box. The regions are
+     * not tested any further, so a polygonal region may be returned even if
+     * its shape stays clear of the box. The global region is never returned.
+     *
+     * @param min one corner of the box
+     * @param max the opposite corner of the box
+     * @return a new list of regions, in no particular order
+     */
+    public List<ProtectedRegion> getIntersectingRegions(Vector min, Vector max) {
+        Vector lower = Vector.getMinimum(min, max);
+        Vector upper = Vector.getMaximum(min, max);
+        List<ProtectedRegion> found = new ArrayList<ProtectedRegion>();
+
+        for (ProtectedRegion region : getRegions().values()) {
+            if (region instanceof GlobalProtectedRegion) {
+                continue;
+            }
+
+            Vector regionMin = region.getMinimumPoint();
+            Vector regionMax = region.getMaximumPoint();
+
+            if (regionMax.getX() >= lower.getX() && regionMin.getX() <= upper.getX()
+                    && regionMax.getY() >= lower.getY() && regionMin.getY() <= upper.getY()
+                    && regionMax.getZ() >= lower.getZ() && regionMin.getZ() <= upper.getZ()) {
+                found.add(region);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Check whether a state flag is allowed at every one of the given points,
+     * such as the blocks destroyed by an explosion. The answer is the same as
+     * calling {@link ApplicableRegionSet#allows(StateFlag)} for each point,
+     * but implementations may look the regions up once for all points.
+     *
+     * @param flag flag to check
+     * @param points points
+     * @return whether the flag is allowed at all points
+     * @throws IllegalArgumentException if the build flag is given
+     */
+    public boolean allowsAll(StateFlag flag, Collection<? extends Vector> points) {
+        for (Vector pt : points) {
+            if (!getApplicableRegions(pt).allows(flag)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Get a list of region IDs that contain a point.
      *
@@ -206,5 +748,30 @@ public abstract boolean overlapsUnownedRegion(ProtectedRegion region,
      * @param player player
      * @return name number of regions that a player owns
      */
-    public abstract int getRegionCountOfPlayer(LocalPlayer player);
+    public int getRegionCountOfPlayer(LocalPlayer player) {
+        return domainIndex.countOwnedRegions(player);
+    }
+
+    /**
+     * Get the regions that a player is an owner or member of by name,
+     * either directly or through a parent region. These are the regions
+     * for which {@link ProtectedRegion#isMember(String)} is true.
+     *
+     * @param playerName player name
+     * @return a new set of regions, in no particular order
+     */
+    public Set<ProtectedRegion> getRegionsOfPlayer(String playerName) {
+        return domainIndex.getRegionsOf(playerName);
+    }
+
+    /**
+     * Get the regions that a group owns or is a member of, either directly
+     * or through a parent region.
+     *
+     * @param groupName group name
+     * @return a new set of regions, in no particular order
+     */
+    public Set<ProtectedRegion> getRegionsOfGroup(String groupName) {
+        return domainIndex.getRegionsOfGroup(groupName);
+    }
 }
@@ -0,0 +1,184 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldguard.protection.managers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldguard.domains.DefaultDomain;
+import com.sk89q.worldguard.protection.flags.Flag;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedPolygonalRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion.CircularInheritanceException;
+
+/**
+ * Copies regions so that they can be saved on another thread while the
+ * originals continue to be changed. The copies of the last snapshot are
+ * remembered, and reused for regions that have not changed since, so only
+ * the changed regions are copied again.
+ */
+final class RegionSnapshots {
+
+    /**
+     * The copy of every region in the last snapshot, by original. Copies
+     * are never changed once they are made, apart from their dirty state.
+     */
+    private Map<ProtectedRegion, ProtectedRegion> lastCopies =
+            new IdentityHashMap<ProtectedRegion, ProtectedRegion>();
+
+    /**
+     * Forget the copies of the last snapshot, such as after the originals
+     * were saved directly and are no longer dirty.
+     */
+    void clear() {
+        lastCopies = new IdentityHashMap<ProtectedRegion, ProtectedRegion>();
+    }
+
+    /**
+     * Copy a map of regions. Parents are linked to their copies, and
+     * regions of unknown types are not copied at all. The dirty state of
+     * the regions moves to their copies, and linking parents does not
+     * make a copy dirty. A region that is not dirty keeps its copy from
+     * the last snapshot, unless the copy of its parent was replaced.
+     *
+     * @param regions the regions
+     * @param originals a map to put the original of every copy in
+     * @return a new map of copies, with the same keys
+     */
+    Map<String, ProtectedRegion> copy(Map<String, ProtectedRegion> regions,
+            Map<ProtectedRegion, ProtectedRegion> originals) {
+        Map<ProtectedRegion, ProtectedRegion> copies =
+                new IdentityHashMap<ProtectedRegion, ProtectedRegion>(regions.size());
+        Map<String, ProtectedRegion> snapshot =
+                new HashMap<String, ProtectedRegion>(regions.size());
+
+        // Parents outside of the map are linked as they are
+        for (ProtectedRegion original : regions.values()) {
+            copies.put(original, null);
+        }
+
+        for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
+            ProtectedRegion original = entry.getValue();
+            ProtectedRegion copy = copy(original, copies);
+            originals.put(copy, original);
+            snapshot.put(entry.getKey(), copy);
+        }
+
+        lastCopies = copies;
+        return snapshot;
+    }
+
+    /**
+     * Get the copy of a region for a snapshot, copying its parent first.
+     *
+     * @param original the region
+     * @param copies the copies made so far, with every region of the
+     *        snapshot as a key
+     * @return the copy
+     */
+    private ProtectedRegion copy(ProtectedRegion original,
+            Map<ProtectedRegion, ProtectedRegion> copies) {
+        ProtectedRegion copy = copies.get(original);
+        if (copy != null) {
+            return copy;
+        }
+
+        ProtectedRegion parent = original.getParent();
+        if (parent != null && copies.containsKey(parent)) {
+            parent = copy(parent, copies);
+        }
+
+        boolean dirty = original.isDirty();
+        ProtectedRegion last = lastCopies.get(original);
+
+        if (last != null && !dirty && last.getParent() == parent) {
+            copy = last;
+        } else {
+            copy = copy(original);
+
+            if (copy != original) {
+                if (parent != null) {
+                    try {
+                        copy.setParent(parent);
+                    } catch (CircularInheritanceException ignore) {
+                        // The originals were linked the same way
+                    }
+                }
+
+                // Setting the parent marks the copy as changed
+                copy.setDirty(dirty);
+            }
+        }
+
+        copies.put(original, copy);
+        return copy;
+    }
+
+    /**
+     * Copy a region, without its parent or dirty state. The region is no
+     * longer dirty afterwards.
+     *
+     * @param region the region
+     * @return the copy, or the region itself if its type is unknown
+     */
+    private static ProtectedRegion copy(ProtectedRegion region) {
+        ProtectedRegion copy;
+
+        if (region instanceof ProtectedCuboidRegion) {
+            copy = new ProtectedCuboidRegion(region.getId(),
+                    region.getMinimumPoint(), region.getMaximumPoint());
+        } else if (region instanceof ProtectedPolygonalRegion) {
+            copy = new ProtectedPolygonalRegion(region.getId(),
+                    new ArrayList<BlockVector2D>(region.getPoints()),
+                    region.getMinimumPoint().getBlockY(),
+                    region.getMaximumPoint().getBlockY());
+        } else if (region instanceof GlobalProtectedRegion) {
+            copy = new GlobalProtectedRegion(region.getId());
+        } else {
+            return region;
+        }
+
+        copy.setPriority(region.getPriority());
+        copy.setFlags(new HashMap<Flag<?>, Object>(region.getFlags()));
+        copy.setOwners(copy(region.getOwners()));
+        copy.setMembers(copy(region.getMembers()));
+        region.setDirty(false);
+        return copy;
+    }
+
+    private static DefaultDomain copy(DefaultDomain domain) {
+        DefaultDomain copy = new DefaultDomain();
+
+        for (String player : domain.getPlayers()) {
+            copy.addPlayer(player);
+        }
+
+        for (String group : domain.getGroups()) {
+            copy.addGroup(group);
+        }
+
+        return copy;
+    }
+}
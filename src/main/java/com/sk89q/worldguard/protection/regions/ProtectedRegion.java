@@ -75,6 +75,30 @@ public abstract class ProtectedRegion implements Comparable<ProtectedRegion> {
      */
     private Map<Flag<?>, Object> flags = new HashMap<Flag<?>, Object>();
 
+    /**
+     * Told about changes to this region, usually its region manager.
+     */
+    private Observer observer;
+
+    /**
+     * Whether this region was changed since it was last loaded or saved.
+     */
+    private volatile boolean dirty = true;
+
+    /**
+     * Forwards changes of the owners and members to the observer.
+     */
+    private final DefaultDomain.Observer domainObserver = new DefaultDomain.Observer() {
+        @Override
+        public void domainChanged(DefaultDomain domain) {
+            if (domain == owners) {
+                changed(Property.OWNERS);
+            } else if (domain == members) {
+                changed(Property.MEMBERS);
+            }
+        }
+    };
+
     /**
      * Construct a new instance of this region.
      *
@@ -82,6 +106,59 @@ public abstract class ProtectedRegion implements Comparable<ProtectedRegion> {
      */
     public ProtectedRegion(String id) {
         this.id = id;
+        owners.setObserver(domainObserver);
+        members.setObserver(domainObserver);
+    }
+
+    /**
+     * Set the observer that is told about changes to this region.
+     *
+     * @param observer the observer, or null
+     */
+    public void setObserver(Observer observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Get the observer that is told about changes to this region.
+     *
+     * @return the observer, or null
+     */
+    public Observer getObserver() {
+        return observer;
+    }
+
+    /**
+     * Check whether this region was changed since it was last loaded or
+     * saved. New regions start out dirty.
+     *
+     * @return whether the region was changed
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Set whether this region was changed since it was last loaded or saved.
+     * Databases that only write changed regions clear this.
+     *
+     * @param dirty whether the region was changed
+     */
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * Mark this region as dirty and tell the observer about a change.
+     *
+     * @param property what was changed
+     */
+    private void changed(Property property) {
+        dirty = true;
+
+        if (observer != null) {
+            observer.regionChanged(this, property);
+        }
     }
 
     /**
@@ -154,6 +231,7 @@ public int getPriority() {
      */
     public void setPriority(int priority) {
         this.priority = priority;
+        changed(Property.PRIORITY);
     }
 
     /**
@@ -173,6 +251,7 @@ public ProtectedRegion getParent() {
     public void setParent(ProtectedRegion parent) throws CircularInheritanceException {
         if (parent == null) {
             this.parent = null;
+            changed(Property.PARENT);
             return;
         }
 
@@ -189,6 +268,7 @@ public void setParent(ProtectedRegion parent) throws CircularInheritanceExceptio
         }
 
         this.parent = parent;
+        changed(Property.PARENT);
     }
 
 
@@ -205,6 +285,8 @@ public DefaultDomain getOwners() {
      */
     public void setOwners(DefaultDomain owners) {
         this.owners = owners;
+        owners.setObserver(domainObserver);
+        changed(Property.OWNERS);
     }
 
     /**
@@ -219,6 +301,8 @@ public DefaultDomain getMembers() {
      */
     public void setMembers(DefaultDomain members) {
         this.members = members;
+        members.setObserver(domainObserver);
+        changed(Property.MEMBERS);
     }
 
     /**
@@ -390,6 +474,7 @@ public <T extends Flag<V>, V> void setFlag(T flag, V val) {
         } else {
             flags.put(flag, val);
         }
+        changed(Property.FLAGS);
     }
 
     /**
@@ -408,6 +493,7 @@ public Map<Flag<?>, Object> getFlags() {
      */
     public void setFlags(Map<Flag<?>, Object> flags) {
         this.flags = flags;
+        changed(Property.FLAGS);
     }
 
     /**
@@ -593,6 +679,30 @@ public boolean equals(Object obj) {
         return other.getId().equals(getId());
     }
 
+    /**
+     * The parts of a region that can be changed after it was created.
+     */
+    public enum Property {
+        FLAGS,
+        OWNERS,
+        MEMBERS,
+        PRIORITY,
+        PARENT
+    }
+
+    /**
+     * Receives notice of changes made to a region.
+     */
+    public interface Observer {
+        /**
+         * Called after a region was changed.
+         *
+         * @param region the region
+         * @param property what was changed
+         */
+        public void regionChanged(ProtectedRegion region, Property property);
+    }
+
     /**
      * Thrown when setting a curParent would create a circular inheritance
      * situation.
@@ -0,0 +1,246 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.util;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of database connections. Pools are shared by everything
+ * that connects to the same database with the same credentials, and are
+ * closed once the last user has released its pool.
+ */
+public class ConnectionPool {
+
+    /**
+     * Maximum number of connections of one pool.
+     */
+    public static final int MAX_CONNECTIONS = 4;
+
+    /**
+     * How long to wait for a free connection, in seconds.
+     */
+    private static final int BORROW_TIMEOUT = 30;
+
+    /**
+     * How long to wait for a health check, in seconds.
+     */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    /**
+     * Connections that were idle for less than this many milliseconds are
+     * not checked before they are handed out.
+     */
+    private static final long VALIDATION_INTERVAL = 5000;
+
+    private static final Map<String, ConnectionPool> pools =
+            new HashMap<String, ConnectionPool>();
+
+    private final String key;
+    private final String dsn;
+    private final String user;
+    private final String pass;
+    private final Semaphore permits;
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+    private int references;
+    private boolean closed;
+
+    private ConnectionPool(String key, String dsn, String user, String pass, int size) {
+        this.key = key;
+        this.dsn = dsn;
+        this.user = user;
+        this.pass = pass;
+        this.permits = new Semaphore(size, true);
+    }
+
+    /**
+     * Get the shared pool for a database. Every call must be matched by a
+     * call to {@link #close()}.
+     *
+     * @param dsn the DSN of the database
+     * @param user the username to connect with
+     * @param pass the password to connect with
+     * @return the pool
+     */
+    public static ConnectionPool acquire(String dsn, String user, String pass) {
+        String key = dsn + "\0" + user + "\0" + pass;
+
+        synchronized (pools) {
+            ConnectionPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new ConnectionPool(key, dsn, user, pass, MAX_CONNECTIONS);
+                pools.put(key, pool);
+            }
+            pool.references++;
+            return pool;
+        }
+    }
+
+    /**
+     * Close all pools, whether they were released or not.
+     */
+    public static void closeAll() {
+        List<ConnectionPool> all;
+
+        synchronized (pools) {
+            all = new ArrayList<ConnectionPool>(pools.values());
+            pools.clear();
+        }
+
+        for (ConnectionPool pool : all) {
+            pool.closeConnections();
+        }
+    }
+
+    /**
+     * Borrow a connection. Idle connections are checked before they are
+     * handed out, and replaced if they are no longer usable. The connection
+     * has to be given back with {@link #release(PooledConnection)}.
+     *
+     * @return a connection
+     * @throws SQLException if no connection could be made, or none became
+     *         free in time
+     */
+    public PooledConnection borrow() throws SQLException {
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT, TimeUnit.SECONDS)) {
+                throw new SQLException("Timed out waiting for a free database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+
+        try {
+            while (true) {
+                PooledConnection conn;
+
+                synchronized (this) {
+                    if (closed) {
+                        throw new SQLException("The connection pool is closed");
+                    }
+                    conn = idle.poll();
+                }
+
+                if (conn == null) {
+                    return new PooledConnection(DriverManager.getConnection(dsn, user, pass));
+                }
+
+                if (isUsable(conn)) {
+                    return conn;
+                }
+
+                conn.close();
+            }
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a borrowed connection. Closed connections, or connections
+     * left in a transaction, are thrown away.
+     *
+     * @param conn the connection
+     */
+    public void release(PooledConnection conn) {
+        boolean keep;
+
+        try {
+            keep = !conn.getConnection().isClosed()
+                    && conn.getConnection().getAutoCommit();
+        } catch (SQLException e) {
+            keep = false;
+        }
+
+        synchronized (this) {
+            if (keep && !closed) {
+                conn.setLastUsed(System.currentTimeMillis());
+                idle.push(conn);
+                conn = null;
+            }
+        }
+
+        if (conn != null) {
+            conn.close();
+        }
+
+        permits.release();
+    }
+
+    /**
+     * Release this pool. The connections are closed once every user of the
+     * pool has released it.
+     */
+    public void close() {
+        synchronized (pools) {
+            if (--references > 0 || pools.get(key) != this) {
+                return;
+            }
+            pools.remove(key);
+        }
+
+        closeConnections();
+    }
+
+    private void closeConnections() {
+        List<PooledConnection> connections;
+
+        synchronized (this) {
+            closed = true;
+            connections = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+        }
+
+        for (PooledConnection conn : connections) {
+            conn.close();
+        }
+    }
+
+    /**
+     * Check whether a connection that was idle can still be used.
+     *
+     * @param conn the connection
+     * @return whether the connection works
+     */
+    private static boolean isUsable(PooledConnection conn) {
+        if (System.currentTimeMillis() - conn.getLastUsed() < VALIDATION_INTERVAL) {
+            return true;
+        }
+
+        try {
+            return conn.getConnection().isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
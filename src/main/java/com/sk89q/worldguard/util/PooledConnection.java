@@ -0,0 +1,156 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.sk89q.worldguard.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection of a {@link ConnectionPool}, which keeps the statements it
+ * prepared for reuse. Statements from {@link #prepareStatement(String)} and
+ * its variants belong to the connection and must not be closed.
+ */
+public class PooledConnection {
+
+    /**
+     * Maximum number of statements to keep per connection.
+     */
+    private static final int MAX_STATEMENTS = 64;
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > MAX_STATEMENTS) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private long lastUsed = System.currentTimeMillis();
+
+    PooledConnection(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Get the underlying connection.
+     *
+     * @return the connection
+     */
+    public Connection getConnection() {
+        return conn;
+    }
+
+    /**
+     * Get a prepared statement for a query, reusing an earlier one.
+     *
+     * @param sql the query
+     * @return the statement
+     * @throws SQLException on a database error
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = conn.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Get a prepared statement for a query, reusing an earlier one.
+     *
+     * @param sql the query
+     * @param autoGeneratedKeys whether generated keys are returned
+     * @return the statement
+     * @throws SQLException on a database error
+     * @see Connection#prepareStatement(String, int)
+     */
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+            throws SQLException {
+        String key = "keys:" + autoGeneratedKeys + ":" + sql;
+        PreparedStatement statement = statements.get(key);
+        if (statement == null) {
+            statement = conn.prepareStatement(sql, autoGeneratedKeys);
+            statements.put(key, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Get a prepared statement for a query, reusing an earlier one.
+     *
+     * @param sql the query
+     * @param resultSetType the type of the results
+     * @param resultSetConcurrency the concurrency of the results
+     * @return the statement
+     * @throws SQLException on a database error
+     * @see Connection#prepareStatement(String, int, int)
+     */
+    public PreparedStatement prepareStatement(String sql, int resultSetType,
+            int resultSetConcurrency) throws SQLException {
+        String key = "results:" + resultSetType + ":" + resultSetConcurrency + ":" + sql;
+        PreparedStatement statement = statements.get(key);
+        if (statement == null) {
+            statement = conn.prepareStatement(sql, resultSetType, resultSetConcurrency);
+            statements.put(key, statement);
+        }
+        return statement;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+
+    /**
+     * Close the statements and the connection.
+     */
+    void close() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+
+        try {
+            conn.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignore) {
+        }
+    }
+}
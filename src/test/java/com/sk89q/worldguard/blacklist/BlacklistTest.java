@@ -0,0 +1,249 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package com.sk89q.worldguard.blacklist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.TestPlayer;
+import com.sk89q.worldguard.blacklist.events.BlacklistEvent;
+import com.sk89q.worldguard.blacklist.events.BlockBreakBlacklistEvent;
+import com.sk89q.worldguard.blacklist.events.BlockPlaceBlacklistEvent;
+
+public class BlacklistTest {
+    List<String> notifications;
+
+    @Before
+    public void setUp() throws Exception {
+        notifications = new ArrayList<String>();
+    }
+
+    private Blacklist createBlacklist(boolean useAsWhitelist) {
+        return new Blacklist(useAsWhitelist, Logger.getLogger("test")) {
+            @Override
+            public void broadcastNotification(String msg) {
+                notifications.add(msg);
+            }
+        };
+    }
+
+    private Blacklist loadBlacklist(boolean useAsWhitelist, String contents) throws Exception {
+        File file = File.createTempFile("blacklist", ".txt");
+        file.deleteOnExit();
+
+        FileWriter output = new FileWriter(file);
+        try {
+            output.write(contents);
+        } finally {
+            output.close();
+        }
+
+        Blacklist blacklist = createBlacklist(useAsWhitelist);
+        blacklist.load(file);
+        return blacklist;
+    }
+
+    private BlacklistEvent breakEvent(String player, int type) {
+        return new BlockBreakBlacklistEvent(new TestPlayer(player), new Vector(0, 0, 0), type);
+    }
+
+    private BlacklistEntry createEntry(boolean useAsWhitelist, String... actions) {
+        BlacklistEntry entry = new BlacklistEntry(createBlacklist(useAsWhitelist));
+        entry.setBreakActions(actions);
+        return entry;
+    }
+
+    @Test
+    public void testDenyThenAllow() throws Exception {
+        BlacklistEntry entry = createEntry(false, "deny", "allow", "notify");
+
+        // The last of them counts, unless the check is silent
+        assertTrue(entry.check(false, breakEvent("tetsu", 1), false, false));
+        assertEquals(1, notifications.size());
+
+        assertFalse(entry.check(false, breakEvent("ayumi", 1), false, true));
+        assertEquals(1, notifications.size());
+    }
+
+    @Test
+    public void testAllowThenDeny() throws Exception {
+        BlacklistEntry entry = createEntry(false, "allow", "deny", "notify");
+
+        assertFalse(entry.check(false, breakEvent("tetsu", 1), false, false));
+        assertEquals(1, notifications.size());
+
+        assertTrue(entry.check(false, breakEvent("ayumi", 1), false, true));
+        assertEquals(1, notifications.size());
+    }
+
+    @Test
+    public void testWhitelistWithoutDenyOrAllow() throws Exception {
+        BlacklistEntry entry = createEntry(true, "notify", "tell");
+
+        assertFalse(entry.check(true, breakEvent("tetsu", 1), false, false));
+        assertEquals(1, notifications.size());
+
+        assertFalse(entry.check(true, breakEvent("ayumi", 1), false, true));
+        assertEquals(1, notifications.size());
+
+        // Events without actions are not whitelisted either
+        BlacklistEvent place = new BlockPlaceBlacklistEvent(new TestPlayer("tetsu"),
+                new Vector(0, 0, 0), 1);
+        assertFalse(entry.check(true, place, false, false));
+    }
+
+    @Test
+    public void testRepeatedEventsAreNotifiedOnce() throws Exception {
+        BlacklistEntry entry = createEntry(false, "deny", "notify");
+
+        assertFalse(entry.check(false, breakEvent("tetsu", 1), false, false));
+        assertFalse(entry.check(false, breakEvent("tetsu", 1), false, false));
+        assertEquals(1, notifications.size());
+
+        assertFalse(entry.check(false, breakEvent("tetsu", 1), true, false));
+        assertEquals(2, notifications.size());
+    }
+
+    @Test
+    public void testLoadedEntries() throws Exception {
+        Blacklist blacklist = loadBlacklist(false, "[1,4]\non-break=deny\n");
+
+        assertFalse(blacklist.check(breakEvent("tetsu", 1), false, false));
+        assertFalse(blacklist.check(breakEvent("tetsu", 4), false, true));
+        assertTrue(blacklist.check(breakEvent("tetsu", 2), false, false));
+        assertTrue(blacklist.check(breakEvent("tetsu", 5), false, false));
+        assertTrue(blacklist.check(breakEvent("tetsu", -1), false, false));
+    }
+
+    @Test
+    public void testIdsAboveShortRange() throws Exception {
+        Blacklist blacklist = loadBlacklist(false, "[1]\non-break=allow\n\n"
+                + "[40000]\non-break=deny\n");
+
+        assertFalse(blacklist.check(breakEvent("tetsu", 40000), false, false));
+        assertFalse(blacklist.check(breakEvent("ayumi", 40000), false, true));
+        assertTrue(blacklist.check(breakEvent("tetsu", 40001), false, false));
+        assertTrue(blacklist.check(breakEvent("tetsu", Short.MAX_VALUE), false, false));
+        assertTrue(blacklist.check(breakEvent("tetsu", 1), false, false));
+    }
+
+    @Test
+    public void testIgnoreDecisionIsRemembered() throws Exception {
+        BlacklistEntry entry = createEntry(false, "deny");
+        entry.setIgnorePermissions(new String[] {"bypass"});
+        PermissionPlayer player = new PermissionPlayer("tetsu", true);
+
+        assertTrue(entry.shouldIgnore(player, 0));
+        assertEquals(1, player.checks);
+
+        // Not looked up again, even if the permission is gone
+        player.permitted = false;
+        assertTrue(entry.shouldIgnore(player, 1000));
+        assertEquals(1, player.checks);
+
+        assertFalse(entry.shouldIgnore(new PermissionPlayer("ayumi", false), 1000));
+    }
+
+    @Test
+    public void testIgnoreDecisionExpires() throws Exception {
+        BlacklistEntry entry = createEntry(false, "deny");
+        entry.setIgnorePermissions(new String[] {"bypass"});
+        PermissionPlayer player = new PermissionPlayer("tetsu", true);
+
+        assertTrue(entry.shouldIgnore(player, 0));
+        player.permitted = false;
+        assertTrue(entry.shouldIgnore(player, 29999));
+        assertEquals(1, player.checks);
+
+        assertFalse(entry.shouldIgnore(player, 30000));
+        assertEquals(2, player.checks);
+    }
+
+    @Test
+    public void testForgetPermissions() throws Exception {
+        Blacklist blacklist = loadBlacklist(false, "[1]\non-break=deny\nignore-perms=bypass\n");
+        BlacklistEntry entry = blacklist.getEntries(1).get(0);
+        PermissionPlayer tetsu = new PermissionPlayer("tetsu", true);
+        PermissionPlayer ayumi = new PermissionPlayer("ayumi", true);
+
+        assertTrue(entry.shouldIgnore(tetsu, 0));
+        assertTrue(entry.shouldIgnore(ayumi, 0));
+        tetsu.permitted = false;
+        ayumi.permitted = false;
+
+        // Only the forgotten player is looked up again
+        blacklist.forgetPermissions(tetsu);
+        assertFalse(entry.shouldIgnore(tetsu, 0));
+        assertTrue(entry.shouldIgnore(ayumi, 0));
+        assertEquals(2, tetsu.checks);
+        assertEquals(1, ayumi.checks);
+
+        blacklist.forgetAllPermissions();
+        assertFalse(entry.shouldIgnore(ayumi, 0));
+        assertEquals(2, ayumi.checks);
+    }
+
+    @Test
+    public void testSettersForgetIgnoreDecisions() throws Exception {
+        BlacklistEntry entry = createEntry(false, "deny");
+        entry.setIgnorePermissions(new String[] {"bypass"});
+        PermissionPlayer player = new PermissionPlayer("tetsu", true);
+        player.addGroup("admins");
+
+        assertTrue(entry.shouldIgnore(player, 0));
+
+        entry.setIgnorePermissions(new String[] {"other"});
+        player.permitted = false;
+        assertFalse(entry.shouldIgnore(player, 0));
+        assertEquals(2, player.checks);
+
+        entry.setIgnoreGroups(new String[] {"Admins"});
+        assertTrue(entry.shouldIgnore(player, 0));
+    }
+
+    /**
+     * A player that counts how often their permissions are checked.
+     */
+    private static class PermissionPlayer extends TestPlayer {
+        private boolean permitted;
+        private int checks;
+
+        private PermissionPlayer(String name, boolean permitted) {
+            super(name);
+            this.permitted = permitted;
+        }
+
+        @Override
+        public boolean hasPermission(String perm) {
+            checks++;
+            return permitted;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.blacklist.loggers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.TestPlayer;
+import com.sk89q.worldguard.blacklist.events.BlockBreakBlacklistEvent;
+import com.sk89q.worldguard.util.MockDatabase;
+
+public class DatabaseLoggerHandlerTest {
+    static final Pattern DROPPED = Pattern.compile("Dropped (\\d+) blacklist events.*");
+
+    MockDatabase database;
+    Logger logger;
+    List<String> warnings;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new MockDatabase();
+        warnings = new ArrayList<String>();
+        logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                synchronized (warnings) {
+                    warnings.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    private DatabaseLoggerHandler createHandler(boolean dropWhenFull) {
+        return new DatabaseLoggerHandler(database.getDsn(), "user", "pass", "events",
+                "world", logger, 100, dropWhenFull);
+    }
+
+    private void log(DatabaseLoggerHandler handler, int count) {
+        for (int i = 0; i < count; i++) {
+            handler.logEvent(new BlockBreakBlacklistEvent(new TestPlayer("tetsu"),
+                    new Vector(1, 2, 3), 1), null);
+        }
+    }
+
+    private int writtenRows() {
+        int rows = 0;
+        synchronized (database.parameters) {
+            for (int parameters : database.parameters) {
+                assertTrue(Arrays.asList(900, 90, 9).contains(parameters));
+                rows += parameters / 9;
+            }
+        }
+        return rows;
+    }
+
+    private int droppedEvents() {
+        int dropped = 0;
+        synchronized (warnings) {
+            for (String warning : warnings) {
+                Matcher matcher = DROPPED.matcher(warning);
+                if (matcher.matches()) {
+                    dropped += Integer.parseInt(matcher.group(1));
+                }
+            }
+        }
+        return dropped;
+    }
+
+    @Test
+    public void testCloseWritesQueuedEvents() throws Exception {
+        DatabaseLoggerHandler handler = createHandler(false);
+        log(handler, 215);
+        handler.close();
+
+        assertEquals(215, writtenRows());
+        assertEquals(0, droppedEvents());
+        assertEquals(database.opened.get(), database.closed.get());
+    }
+
+    @Test
+    public void testFullQueueDropsEvents() throws Exception {
+        DatabaseLoggerHandler handler = createHandler(true);
+        database.block();
+
+        // A full batch wakes the writer, which then waits on the database
+        log(handler, 100);
+        database.awaitUpdate();
+
+        // Only as many events as fit in the queue are kept
+        log(handler, 105);
+        database.unblock();
+        handler.close();
+
+        assertTrue(droppedEvents() >= 5);
+        assertEquals(205, writtenRows() + droppedEvents());
+    }
+
+    @Test
+    public void testWaitForRoomIsLimited() throws Exception {
+        DatabaseLoggerHandler handler = createHandler(false);
+        database.block();
+
+        log(handler, 100);
+        database.awaitUpdate();
+        log(handler, 100);
+
+        // The first event that finds no room waits a while, the others not
+        long start = System.currentTimeMillis();
+        log(handler, 1);
+        long waited = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        log(handler, 10);
+        long dropped = System.currentTimeMillis() - start;
+
+        database.unblock();
+        handler.close();
+
+        assertTrue(waited < 5000);
+        assertTrue(dropped < 250);
+        assertTrue(droppedEvents() >= 11);
+        assertEquals(211, writtenRows() + droppedEvents());
+    }
+}
@@ -0,0 +1,104 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.blacklist.loggers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.TestPlayer;
+import com.sk89q.worldguard.blacklist.events.BlockBreakBlacklistEvent;
+
+public class FileLoggerHandlerTest {
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("blacklist", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+    }
+
+    private void log(FileLoggerHandler handler, String player, String comment) {
+        handler.logEvent(new BlockBreakBlacklistEvent(new TestPlayer(player),
+                new Vector(1, 2, 3), 1), comment);
+    }
+
+    private List<String> read(String name) throws IOException {
+        File file = new File(dir, name);
+        file.deleteOnExit();
+
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    @Test
+    public void testCloseWritesQueuedLines() throws Exception {
+        FileLoggerHandler handler = new FileLoggerHandler(
+                new File(dir, "%u.log").getPath(), "world", Logger.getLogger("test"));
+
+        log(handler, "tetsu", "first");
+        log(handler, "tetsu", "second");
+        handler.close();
+
+        List<String> lines = read("tetsu.log");
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("tetsu"));
+        assertTrue(lines.get(0).endsWith("(first)"));
+        assertTrue(lines.get(1).endsWith("(second)"));
+    }
+
+    @Test
+    public void testEvictedFilesKeepTheirLines() throws Exception {
+        FileLoggerHandler handler = new FileLoggerHandler(
+                new File(dir, "%u.log").getPath(), 1, "world", Logger.getLogger("test"));
+
+        log(handler, "tetsu", "one");
+        log(handler, "kumi", "two");
+        log(handler, "tetsu", "three");
+        handler.close();
+
+        assertEquals(2, read("tetsu.log").size());
+        assertEquals(1, read("kumi.log").size());
+        assertTrue(handler.getEvictionCount() >= 1);
+        assertEquals(0, handler.getOpenFileCount());
+    }
+}
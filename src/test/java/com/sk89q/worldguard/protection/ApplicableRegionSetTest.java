@@ -481,4 +481,115 @@ public void testGlobalRegionHavingOwnershipBuildFlagDeny() {
         assertFalse(set.canBuild(nonMember));
     }
 
+    @Test
+    public void testRememberedFlagValues() {
+        MockApplicableRegionSet mock = new MockApplicableRegionSet();
+        ProtectedRegion region;
+
+        StringFlag STRING1 = new StringFlag(null);
+        StateFlag STATE1 = new StateFlag(null, false);
+
+        region = mock.add(0);
+        region.setFlag(STRING1, "Beans");
+
+        ApplicableRegionSet set = mock.getApplicableSet();
+        set.rememberResults();
+        assertEquals("Beans", set.getFlag(STRING1));
+        assertFalse(set.allows(STATE1));
+
+        // The set keeps the values it has already resolved
+        region.setFlag(STRING1, "Cats");
+        region.setFlag(STATE1, StateFlag.State.ALLOW);
+        assertEquals("Beans", set.getFlag(STRING1));
+        assertFalse(set.allows(STATE1));
+
+        set = mock.getApplicableSet();
+        assertEquals("Cats", set.getFlag(STRING1));
+        assertTrue(set.allows(STATE1));
+    }
+
+    @Test
+    public void testFlagValuesNotRememberedByDefault() {
+        MockApplicableRegionSet mock = new MockApplicableRegionSet();
+        ProtectedRegion region;
+
+        StringFlag STRING1 = new StringFlag(null);
+        StateFlag STATE1 = new StateFlag(null, false);
+
+        region = mock.add(0);
+        region.setFlag(STRING1, "Beans");
+
+        ApplicableRegionSet set = mock.getApplicableSet();
+        assertEquals("Beans", set.getFlag(STRING1));
+        assertFalse(set.allows(STATE1));
+
+        region.setFlag(STRING1, "Cats");
+        region.setFlag(STATE1, StateFlag.State.ALLOW);
+        assertEquals("Cats", set.getFlag(STRING1));
+        assertTrue(set.allows(STATE1));
+    }
+
+    @Test
+    public void testRememberedGroupFlagValuesPerPlayer() {
+        MockApplicableRegionSet mock = new MockApplicableRegionSet();
+        ProtectedRegion region;
+
+        // Applies to non-members by default
+        StateFlag STATE1 = new StateFlag(null, true);
+
+        LocalPlayer member = mock.createPlayer();
+        LocalPlayer nonMember = mock.createPlayer();
+
+        region = mock.add(0);
+        region.getMembers().addPlayer(member);
+        region.setFlag(STATE1, StateFlag.State.DENY);
+
+        ApplicableRegionSet set = mock.getApplicableSet();
+        set.rememberResults();
+        assertTrue(set.allows(STATE1, member));
+        assertFalse(set.allows(STATE1, nonMember));
+        assertTrue(set.allows(STATE1, member));
+        assertFalse(set.allows(STATE1));
+    }
+
+    @Test
+    public void testChildMembershipClearsParent() throws Exception {
+        MockApplicableRegionSet mock = new MockApplicableRegionSet();
+        ProtectedRegion parent;
+        ProtectedRegion child;
+
+        LocalPlayer member = mock.createPlayer();
+        LocalPlayer nonMember = mock.createPlayer();
+
+        parent = mock.add(0);
+        child = mock.add(0, parent);
+        child.getMembers().addPlayer(member);
+
+        ApplicableRegionSet set = mock.getApplicableSet();
+        assertTrue(set.canBuild(member));
+        assertFalse(set.canBuild(nonMember));
+    }
+
+    @Test
+    public void testLongParentChain() throws Exception {
+        MockApplicableRegionSet mock = new MockApplicableRegionSet();
+        ProtectedRegion region = null;
+
+        StringFlag STRING1 = new StringFlag(null);
+
+        LocalPlayer member = mock.createPlayer();
+        LocalPlayer nonMember = mock.createPlayer();
+
+        for (int i = 0; i < 100; i++) {
+            region = region == null ? mock.add(0) : mock.add(0, region);
+            region.setFlag(STRING1, "Value " + i);
+        }
+        region.getOwners().addPlayer(member);
+
+        ApplicableRegionSet set = mock.getApplicableSet();
+        assertTrue(set.canBuild(member));
+        assertFalse(set.canBuild(nonMember));
+        assertEquals("Value 99", set.getFlag(STRING1));
+    }
+
 }
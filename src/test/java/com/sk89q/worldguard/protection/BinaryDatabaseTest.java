@@ -0,0 +1,197 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldguard.protection.databases.BinaryDatabase;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.RegionGroup;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedPolygonalRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public class BinaryDatabaseTest {
+    File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("regions", ".dat");
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ProtectedRegion global = new GlobalProtectedRegion("__global__");
+        global.setFlag(DefaultFlag.TNT, StateFlag.State.DENY);
+
+        ProtectedRegion spawn = new ProtectedCuboidRegion("spawn",
+                new BlockVector(-100, 0, -100), new BlockVector(100, 255, 100));
+        spawn.setPriority(-5);
+        spawn.getOwners().addPlayer("tetsu");
+        spawn.getOwners().addGroup("admins");
+        spawn.getMembers().addPlayer("Ayumi");
+        spawn.setFlag(DefaultFlag.GREET_MESSAGE, "Welcome!");
+        spawn.setFlag(DefaultFlag.HEAL_AMOUNT, 3);
+        spawn.setFlag(DefaultFlag.PRICE, 12.5);
+        spawn.setFlag(DefaultFlag.NOTIFY_ENTER, true);
+        Set<String> commands = new HashSet<String>(Arrays.asList("/home", "/spawn"));
+        spawn.setFlag(DefaultFlag.BLOCKED_CMDS, commands);
+        spawn.setFlag(DefaultFlag.TNT.getRegionGroupFlag(), RegionGroup.MEMBERS);
+
+        List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+        points.add(new BlockVector2D(10, 10));
+        points.add(new BlockVector2D(-300000, 10));
+        points.add(new BlockVector2D(-300000, 5000));
+        points.add(new BlockVector2D(12, 4990));
+        ProtectedRegion shop = new ProtectedPolygonalRegion("shop", points, 60, 70);
+        shop.setParent(spawn);
+        shop.getOwners().addPlayer("tetsu");
+
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+        regions.put("__global__", global);
+        regions.put("spawn", spawn);
+        regions.put("shop", shop);
+
+        BinaryDatabase database = new BinaryDatabase(file, Logger.getLogger("test"));
+        database.setRegions(regions);
+        database.save();
+
+        database = new BinaryDatabase(file, Logger.getLogger("test"));
+        database.load();
+        Map<String, ProtectedRegion> loaded = database.getRegions();
+
+        assertEquals(3, loaded.size());
+        assertTrue(loaded.get("__global__") instanceof GlobalProtectedRegion);
+        assertEquals(StateFlag.State.DENY, loaded.get("__global__").getFlag(DefaultFlag.TNT));
+
+        ProtectedRegion loadedSpawn = loaded.get("spawn");
+        assertTrue(loadedSpawn instanceof ProtectedCuboidRegion);
+        assertEquals(spawn.getMinimumPoint(), loadedSpawn.getMinimumPoint());
+        assertEquals(spawn.getMaximumPoint(), loadedSpawn.getMaximumPoint());
+        assertEquals(-5, loadedSpawn.getPriority());
+        assertEquals(spawn.getOwners().getPlayers(), loadedSpawn.getOwners().getPlayers());
+        assertEquals(spawn.getOwners().getGroups(), loadedSpawn.getOwners().getGroups());
+        assertEquals(spawn.getMembers().getPlayers(), loadedSpawn.getMembers().getPlayers());
+        assertEquals(spawn.getFlags(), loadedSpawn.getFlags());
+
+        ProtectedRegion loadedShop = loaded.get("shop");
+        assertTrue(loadedShop instanceof ProtectedPolygonalRegion);
+        assertEquals(points, loadedShop.getPoints());
+        assertEquals(60, loadedShop.getMinimumPoint().getBlockY());
+        assertEquals(70, loadedShop.getMaximumPoint().getBlockY());
+        assertSame(loadedSpawn, loadedShop.getParent());
+
+        assertFalse(loadedShop.isDirty());
+        assertFalse(loadedSpawn.isDirty());
+    }
+
+    @Test
+    public void testLoadMissingFile() throws Exception {
+        file.delete();
+
+        BinaryDatabase database = new BinaryDatabase(file, Logger.getLogger("test"));
+        database.load();
+        assertTrue(database.getRegions().isEmpty());
+    }
+
+    @Test(expected = ProtectionDatabaseException.class)
+    public void testLoadTruncatedFile() throws Exception {
+        ProtectedRegion spawn = new ProtectedCuboidRegion("spawn",
+                new BlockVector(0, 0, 0), new BlockVector(10, 10, 10));
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+        regions.put("spawn", spawn);
+
+        BinaryDatabase database = new BinaryDatabase(file, Logger.getLogger("test"));
+        database.setRegions(regions);
+        database.save();
+
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.setLength(file.length() - 3);
+        output.close();
+
+        database.load();
+    }
+
+    @Test
+    public void testSaveOverLoadedFile() throws Exception {
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+        regions.put("spawn", new ProtectedCuboidRegion("spawn",
+                new BlockVector(0, 0, 0), new BlockVector(10, 10, 10)));
+
+        BinaryDatabase database = new BinaryDatabase(file, Logger.getLogger("test"));
+        database.setRegions(regions);
+        database.save();
+        database.load();
+
+        database.getRegions().put("home", new ProtectedCuboidRegion("home",
+                new BlockVector(20, 0, 20), new BlockVector(30, 10, 30)));
+        database.save();
+
+        BinaryDatabase loaded = new BinaryDatabase(file, Logger.getLogger("test"));
+        loaded.load();
+        assertEquals(new HashSet<String>(Arrays.asList("spawn", "home")),
+                loaded.getRegions().keySet());
+        assertFalse(new File(file.getParentFile(), file.getName() + ".bak").exists());
+    }
+
+    @Test
+    public void testLoadInterruptedSave() throws Exception {
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+        regions.put("spawn", new ProtectedCuboidRegion("spawn",
+                new BlockVector(0, 0, 0), new BlockVector(10, 10, 10)));
+
+        BinaryDatabase database = new BinaryDatabase(file, Logger.getLogger("test"));
+        database.setRegions(regions);
+        database.save();
+
+        // The old file was moved aside, but the new one never replaced it
+        File backupFile = new File(file.getParentFile(), file.getName() + ".bak");
+        backupFile.deleteOnExit();
+        assertTrue(file.renameTo(backupFile));
+
+        BinaryDatabase loaded = new BinaryDatabase(file, Logger.getLogger("test"));
+        loaded.load();
+        assertEquals(1, loaded.getRegions().size());
+        assertTrue(loaded.getRegions().containsKey("spawn"));
+    }
+}
@@ -0,0 +1,81 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.protection.managers.ChunkRegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public class ChunkRegionBucketTest {
+    ChunkRegionManager manager;
+    Vector point = new Vector(-20, 64, 40);
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new ChunkRegionManager(null);
+    }
+
+    @Test
+    public void testAddAfterQuery() {
+        assertEquals(0, manager.getApplicableRegions(point).size());
+        assertEquals(1, manager.getBucketCount());
+
+        manager.addRegion(new ProtectedCuboidRegion("spawn",
+                new BlockVector(-100, 0, -100), new BlockVector(100, 128, 100)));
+        assertEquals(0, manager.getBucketCount());
+        assertEquals(1, manager.getApplicableRegions(point).size());
+
+        manager.removeRegion("spawn");
+        assertEquals(0, manager.getApplicableRegions(point).size());
+    }
+
+    @Test
+    public void testParentChangeAfterQuery() throws Exception {
+        ProtectedRegion parent = new ProtectedCuboidRegion("parent",
+                new BlockVector(1000, 0, 1000), new BlockVector(1010, 10, 1010));
+        ProtectedRegion child = new ProtectedCuboidRegion("child",
+                new BlockVector(-30, 0, 30), new BlockVector(-10, 128, 50));
+        manager.addRegion(parent);
+        manager.addRegion(child);
+
+        assertEquals(1, manager.getApplicableRegions(point).size());
+
+        child.setParent(parent);
+        assertEquals(2, manager.getApplicableRegions(point).size());
+        assertEquals(2, manager.getApplicableRegionsIDs(point).size());
+    }
+
+    @Test
+    public void testUnloadChunk() {
+        manager.getApplicableRegions(point);
+        manager.getApplicableRegions(new Vector(500, 64, 500));
+        assertEquals(2, manager.getBucketCount());
+
+        manager.unloadChunk(-20 >> 4, 40 >> 4);
+        assertEquals(1, manager.getBucketCount());
+    }
+}
@@ -0,0 +1,271 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.protection.databases.BinaryDatabase;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabase;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
+import com.sk89q.worldguard.protection.databases.migrators.AbstractDatabaseMigrator;
+import com.sk89q.worldguard.protection.databases.migrators.MigrationException;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public class DatabaseMigratorTest {
+    static final Logger logger = Logger.getLogger("test");
+
+    File dir;
+    File progressFile;
+    Set<String> skipped;
+    int total;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("migration", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        progressFile = new File(dir, "migration.progress");
+        progressFile.deleteOnExit();
+        skipped = null;
+        total = 0;
+
+        for (String world : Arrays.asList("world", "nether", "end")) {
+            Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+            ProtectedRegion region = new ProtectedCuboidRegion(world + "-spawn",
+                    new BlockVector(0, 0, 0), new BlockVector(10, 10, 10));
+            regions.put(region.getId(), region);
+
+            BinaryDatabase database = new BinaryDatabase(file(world, "old"), logger);
+            database.setRegions(regions);
+            database.save();
+        }
+    }
+
+    File file(String world, String kind) {
+        File file = new File(dir, world + "." + kind);
+        file.deleteOnExit();
+        return file;
+    }
+
+    Set<String> readProgress() throws Exception {
+        Set<String> worlds = new HashSet<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(progressFile));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                worlds.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return worlds;
+    }
+
+    Map<String, ProtectedRegion> loadNew(String world) throws Exception {
+        BinaryDatabase database = new BinaryDatabase(file(world, "new"), logger);
+        database.load();
+        return database.getRegions();
+    }
+
+    FileMigrator createMigrator(String failingWorld) {
+        FileMigrator migrator = new FileMigrator(failingWorld);
+        migrator.setProgressFile(progressFile);
+        migrator.setProgressListener(new AbstractDatabaseMigrator.ProgressListener() {
+            @Override
+            public void worldsSkipped(Set<String> worlds) {
+                skipped = worlds;
+            }
+
+            @Override
+            public void worldMigrated(String world, int regions, int done, int total) {
+                assertEquals(1, regions);
+                DatabaseMigratorTest.this.total = total;
+            }
+        });
+        return migrator;
+    }
+
+    @Test
+    public void testMigrateAll() throws Exception {
+        FileMigrator migrator = createMigrator(null);
+        migrator.migrate();
+
+        assertEquals(new HashSet<String>(Arrays.asList("world", "nether", "end")),
+                new HashSet<String>(migrator.migrated));
+        assertNull(skipped);
+        assertEquals(3, total);
+        assertFalse(progressFile.exists());
+        assertTrue(loadNew("nether").containsKey("nether-spawn"));
+    }
+
+    @Test
+    public void testFailedMigrationContinues() throws Exception {
+        FileMigrator migrator = createMigrator("nether");
+        try {
+            migrator.migrate();
+            fail("Expected the migration to fail");
+        } catch (MigrationException e) {
+            assertEquals("Failed to migrate world 'nether' (2 of 3 worlds were migrated): "
+                    + "No storage for nether", e.getMessage());
+        }
+
+        // Only the worlds that were migrated are recorded
+        assertEquals(new HashSet<String>(Arrays.asList("world", "end")), readProgress());
+
+        migrator = createMigrator(null);
+        migrator.migrate();
+
+        assertEquals(new HashSet<String>(Arrays.asList("world", "end")), skipped);
+        assertEquals(Arrays.asList("nether"), migrator.migrated);
+        assertEquals(3, total);
+        assertFalse(progressFile.exists());
+
+        for (String world : Arrays.asList("world", "nether", "end")) {
+            assertTrue(loadNew(world).containsKey(world + "-spawn"));
+        }
+    }
+
+    @Test
+    public void testResetProgress() throws Exception {
+        FileMigrator migrator = createMigrator("nether");
+        try {
+            migrator.migrate();
+            fail("Expected the migration to fail");
+        } catch (MigrationException ignore) {
+        }
+        assertTrue(progressFile.exists());
+
+        migrator = createMigrator(null);
+        migrator.resetProgress();
+        assertFalse(progressFile.exists());
+        migrator.migrate();
+
+        assertNull(skipped);
+        assertEquals(3, migrator.migrated.size());
+        assertFalse(progressFile.exists());
+    }
+
+    @Test
+    public void testSkippedWorldsMustStillExist() throws Exception {
+        FileMigrator migrator = createMigrator("nether");
+        try {
+            migrator.migrate();
+            fail("Expected the migration to fail");
+        } catch (MigrationException ignore) {
+        }
+
+        // A world that is gone since the failed migration is not reported
+        file("world", "old").delete();
+        migrator = createMigrator(null);
+        migrator.migrate();
+
+        assertEquals(Collections.singleton("end"), skipped);
+        assertEquals(Arrays.asList("nether"), migrator.migrated);
+        assertEquals(2, total);
+        assertFalse(progressFile.exists());
+    }
+
+    /**
+     * Migrates between region files in a temporary directory. The world
+     * that is told to fail only fails once all other worlds are recorded
+     * as migrated, so that the progress file is predictable.
+     */
+    class FileMigrator extends AbstractDatabaseMigrator {
+        final String failingWorld;
+        final List<String> migrated = Collections.synchronizedList(new ArrayList<String>());
+
+        FileMigrator(String failingWorld) {
+            this.failingWorld = failingWorld;
+        }
+
+        @Override
+        protected Set<String> getWorldsFromOld() {
+            Set<String> worlds = new HashSet<String>();
+            for (String world : Arrays.asList("world", "nether", "end")) {
+                if (file(world, "old").exists()) {
+                    worlds.add(world);
+                }
+            }
+            return worlds;
+        }
+
+        @Override
+        protected Map<String, ProtectedRegion> getRegionsForWorldFromOld(String world)
+                throws MigrationException {
+            BinaryDatabase database = new BinaryDatabase(file(world, "old"), logger);
+            try {
+                database.load();
+            } catch (ProtectionDatabaseException e) {
+                throw new MigrationException(e);
+            }
+            return database.getRegions();
+        }
+
+        @Override
+        protected ProtectionDatabase getNewWorldStorage(String world)
+                throws MigrationException {
+            if (world.equals(failingWorld)) {
+                waitForOtherWorlds();
+                throw new MigrationException("No storage for " + world);
+            }
+            migrated.add(world);
+            return new BinaryDatabase(file(world, "new"), logger);
+        }
+
+        private void waitForOtherWorlds() throws MigrationException {
+            Set<String> others = getWorldsFromOld();
+            others.remove(failingWorld);
+            long end = System.currentTimeMillis() + 10000;
+            try {
+                while (!progressFile.exists() || !readProgress().equals(others)) {
+                    if (System.currentTimeMillis() > end) {
+                        throw new MigrationException("Other worlds were not migrated");
+                    }
+                    Thread.sleep(5);
+                }
+            } catch (Exception e) {
+                throw new MigrationException(e);
+            }
+        }
+    }
+}
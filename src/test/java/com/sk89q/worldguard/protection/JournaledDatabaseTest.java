@@ -0,0 +1,221 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.protection.databases.BinaryDatabase;
+import com.sk89q.worldguard.protection.databases.JournaledDatabase;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public class JournaledDatabaseTest {
+    File snapshotFile;
+    File journalFile;
+    Map<String, ProtectedRegion> regions;
+    ProtectedRegion spawn;
+    ProtectedRegion shop;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshotFile = File.createTempFile("regions", ".dat");
+        snapshotFile.delete();
+        snapshotFile.deleteOnExit();
+        journalFile = new File(snapshotFile.getPath() + ".journal");
+        journalFile.deleteOnExit();
+
+        spawn = new ProtectedCuboidRegion("spawn",
+                new BlockVector(0, 0, 0), new BlockVector(100, 100, 100));
+        shop = new ProtectedCuboidRegion("shop",
+                new BlockVector(10, 10, 10), new BlockVector(20, 20, 20));
+        shop.setParent(spawn);
+
+        regions = new HashMap<String, ProtectedRegion>();
+        regions.put("spawn", spawn);
+        regions.put("shop", shop);
+    }
+
+    private JournaledDatabase createDatabase(long compactSize) {
+        Logger logger = Logger.getLogger("test");
+        return new JournaledDatabase(new BinaryDatabase(snapshotFile, logger),
+                journalFile, compactSize, logger);
+    }
+
+    private Map<String, ProtectedRegion> reload() throws Exception {
+        JournaledDatabase database = createDatabase(Long.MAX_VALUE);
+        database.load();
+        return database.getRegions();
+    }
+
+    @Test
+    public void testChangesAreAppended() throws Exception {
+        JournaledDatabase database = createDatabase(Long.MAX_VALUE);
+        database.load();
+        database.setRegions(regions);
+        database.save();
+
+        assertFalse(snapshotFile.exists());
+        assertFalse(spawn.isDirty());
+
+        long length = journalFile.length();
+        shop.setFlag(DefaultFlag.TNT, StateFlag.State.DENY);
+        database.save();
+
+        // Only the changed region was written
+        long recordLength = journalFile.length() - length;
+        assertTrue(recordLength > 0);
+        assertTrue(recordLength < length);
+
+        Map<String, ProtectedRegion> loaded = reload();
+        assertEquals(2, loaded.size());
+        assertEquals(StateFlag.State.DENY, loaded.get("shop").getFlag(DefaultFlag.TNT));
+        assertSame(loaded.get("spawn"), loaded.get("shop").getParent());
+        assertFalse(loaded.get("shop").isDirty());
+    }
+
+    @Test
+    public void testNothingToSave() throws Exception {
+        JournaledDatabase database = createDatabase(Long.MAX_VALUE);
+        database.setRegions(regions);
+        database.save();
+
+        long length = journalFile.length();
+        database.save();
+        assertEquals(length, journalFile.length());
+    }
+
+    @Test
+    public void testNothingToSaveAfterLoad() throws Exception {
+        JournaledDatabase database = createDatabase(Long.MAX_VALUE);
+        database.setRegions(regions);
+        database.save();
+        long length = journalFile.length();
+
+        // Replaying the journal links the parents again
+        database = createDatabase(Long.MAX_VALUE);
+        database.load();
+        database.save();
+        database.save();
+        assertEquals(length, journalFile.length());
+    }
+
+    @Test
+    public void testIncompleteHeaderIsEmpty() throws Exception {
+        JournaledDatabase database = createDatabase(1);
+        database.setRegions(regions);
+        database.save();
+
+        // A crash while the journal was reset after a compaction
+        FileOutputStream output = new FileOutputStream(journalFile);
+        output.write(new byte[] { 0x57, 0x47, 0x52 });
+        output.close();
+
+        database = createDatabase(Long.MAX_VALUE);
+        database.load();
+        assertEquals(2, database.getRegions().size());
+
+        database.getRegions().get("spawn").setPriority(7);
+        database.save();
+
+        Map<String, ProtectedRegion> loaded = reload();
+        assertEquals(7, loaded.get("spawn").getPriority());
+        assertSame(loaded.get("spawn"), loaded.get("shop").getParent());
+    }
+
+    @Test
+    public void testRemovedRegions() throws Exception {
+        JournaledDatabase database = createDatabase(Long.MAX_VALUE);
+        database.setRegions(regions);
+        database.save();
+
+        regions.remove("shop");
+        database.save();
+
+        Map<String, ProtectedRegion> loaded = reload();
+        assertEquals(1, loaded.size());
+        assertNull(loaded.get("shop"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        JournaledDatabase database = createDatabase(1);
+        database.setRegions(regions);
+        database.save();
+
+        assertTrue(snapshotFile.exists());
+        assertEquals(8, journalFile.length());
+
+        // A changed parent is linked to the children from the snapshot
+        spawn.setPriority(5);
+        database.save();
+
+        Map<String, ProtectedRegion> loaded = reload();
+        assertEquals(5, loaded.get("spawn").getPriority());
+        assertSame(loaded.get("spawn"), loaded.get("shop").getParent());
+    }
+
+    @Test
+    public void testReplacedParent() throws Exception {
+        JournaledDatabase database = createDatabase(1);
+        database.setRegions(regions);
+        database.save();
+
+        database = createDatabase(Long.MAX_VALUE);
+        database.load();
+        database.getRegions().get("spawn").setPriority(3);
+        database.save();
+
+        Map<String, ProtectedRegion> loaded = reload();
+        assertEquals(3, loaded.get("spawn").getPriority());
+        assertSame(loaded.get("spawn"), loaded.get("shop").getParent());
+    }
+
+    @Test
+    public void testIncompleteRecordIsDropped() throws Exception {
+        JournaledDatabase database = createDatabase(Long.MAX_VALUE);
+        database.setRegions(regions);
+        database.save();
+        long length = journalFile.length();
+
+        FileOutputStream output = new FileOutputStream(journalFile, true);
+        output.write(new byte[] { 0, 0, 0, 100, 1, 2, 3, 4, 5 });
+        output.close();
+
+        Map<String, ProtectedRegion> loaded = reload();
+        assertEquals(2, loaded.size());
+        assertEquals(length, journalFile.length());
+    }
+}
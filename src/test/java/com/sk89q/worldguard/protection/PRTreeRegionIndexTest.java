@@ -0,0 +1,110 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.protection.managers.PRTreeRegionManager;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public class PRTreeRegionIndexTest {
+    static final int COUNT = 300;
+
+    RegionManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new PRTreeRegionManager(null);
+    }
+
+    ProtectedRegion createRegion(int i) {
+        return new ProtectedCuboidRegion("region" + i,
+                new BlockVector(i * 10, 0, 0), new BlockVector(i * 10 + 5, 5, 5));
+    }
+
+    Vector inside(int i) {
+        return new Vector(i * 10 + 2, 2, 2);
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        for (int i = 0; i < COUNT; i++) {
+            manager.addRegion(createRegion(i));
+        }
+
+        for (int i = 0; i < COUNT; i += 2) {
+            manager.removeRegion("region" + i);
+        }
+
+        for (int i = 0; i < COUNT; i++) {
+            List<String> ids = manager.getApplicableRegionsIDs(inside(i));
+            if (i % 2 == 0) {
+                assertTrue(ids.isEmpty());
+            } else {
+                assertEquals(1, ids.size());
+                assertEquals("region" + i, ids.get(0));
+            }
+        }
+    }
+
+    @Test
+    public void testReplace() {
+        for (int i = 0; i < COUNT; i++) {
+            manager.addRegion(createRegion(i));
+        }
+
+        // Move every region far away under the same ID
+        for (int i = 0; i < COUNT; i++) {
+            manager.addRegion(new ProtectedCuboidRegion("region" + i,
+                    new BlockVector(i * 10, 100, 0), new BlockVector(i * 10 + 5, 105, 5)));
+        }
+
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(0, manager.getApplicableRegions(inside(i)).size());
+            assertEquals(1, manager.getApplicableRegions(inside(i).add(0, 100, 0)).size());
+        }
+        assertEquals(COUNT, manager.size());
+    }
+
+    @Test
+    public void testSetRegionsDiscardsChanges() {
+        for (int i = 0; i < COUNT; i++) {
+            manager.addRegion(createRegion(i));
+        }
+
+        manager.setRegions(new HashMap<String, ProtectedRegion>());
+
+        for (int i = 0; i < COUNT; i++) {
+            assertFalse(manager.getApplicableRegions(inside(i)).iterator().hasNext());
+        }
+    }
+}
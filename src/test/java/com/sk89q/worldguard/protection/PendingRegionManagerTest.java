@@ -0,0 +1,77 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.TestPlayer;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.managers.PendingRegionManager;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public class PendingRegionManagerTest {
+    RegionManager manager = new PendingRegionManager();
+
+    @Test
+    public void testDeniesEverywhere() {
+        TestPlayer player = new TestPlayer("tetsu");
+        ApplicableRegionSet set = manager.getApplicableRegions(new Vector(10, 64, -2000));
+
+        assertFalse(set.canBuild(player));
+        assertFalse(set.allows(DefaultFlag.PVP));
+        assertFalse(set.allows(DefaultFlag.TNT));
+        assertFalse(set.allows(DefaultFlag.CHEST_ACCESS, player));
+        assertTrue(set.allows(DefaultFlag.ENTRY, player));
+        assertTrue(set.allows(DefaultFlag.SEND_CHAT));
+    }
+
+    @Test
+    public void testIgnoresChanges() {
+        ProtectedRegion region = new ProtectedCuboidRegion("spawn",
+                new BlockVector(0, 0, 0), new BlockVector(10, 10, 10));
+        manager.addRegion(region);
+
+        assertEquals(0, manager.size());
+        assertNull(manager.getRegion("spawn"));
+        assertTrue(manager.overlapsUnownedRegion(region, new TestPlayer("tetsu")));
+    }
+
+    @Test(expected = ProtectionDatabaseException.class)
+    public void testSaveFails() throws Exception {
+        manager.save();
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testSaveChangesFails() throws Exception {
+        manager.saveChanges().get();
+    }
+}
@@ -0,0 +1,134 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public abstract class RegionAllowsAllTest {
+    RegionManager manager;
+    ProtectedRegion courtyard;
+    ProtectedRegion fountain;
+
+    protected abstract RegionManager createRegionManager() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = createRegionManager();
+
+        courtyard = new ProtectedCuboidRegion("courtyard",
+                new BlockVector(0, 0, 0), new BlockVector(20, 20, 20));
+        manager.addRegion(courtyard);
+
+        fountain = new ProtectedCuboidRegion("fountain",
+                new BlockVector(6, 0, 6), new BlockVector(14, 20, 14));
+        fountain.setPriority(1);
+        manager.addRegion(fountain);
+    }
+
+    private List<Vector> explosion(int x, int y, int z) {
+        List<Vector> points = new ArrayList<Vector>();
+        for (int dx = -3; dx <= 3; dx++) {
+            for (int dz = -3; dz <= 3; dz++) {
+                points.add(new Vector(x + dx + 0.5, y, z + dz + 0.5));
+            }
+        }
+        return points;
+    }
+
+    private boolean allowsEach(StateFlag flag, List<Vector> points) {
+        for (Vector pt : points) {
+            if (!manager.getApplicableRegions(pt).allows(flag)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void testNoFlagSet() {
+        List<Vector> points = explosion(10, 5, 10);
+        assertTrue(manager.allowsAll(DefaultFlag.TNT, points));
+        assertTrue(allowsEach(DefaultFlag.TNT, points));
+    }
+
+    @Test
+    public void testGlobalRegionDefault() {
+        ProtectedRegion global = new GlobalProtectedRegion("__global__");
+        global.setFlag(DefaultFlag.TNT, StateFlag.State.DENY);
+        manager.addRegion(global);
+
+        List<Vector> points = explosion(100, 5, 100);
+        assertFalse(manager.allowsAll(DefaultFlag.TNT, points));
+        assertFalse(allowsEach(DefaultFlag.TNT, points));
+    }
+
+    @Test
+    public void testDenyInPart() {
+        fountain.setFlag(DefaultFlag.TNT, StateFlag.State.DENY);
+
+        assertFalse(manager.allowsAll(DefaultFlag.TNT, explosion(10, 5, 10)));
+        assertFalse(manager.allowsAll(DefaultFlag.TNT, explosion(5, 5, 10)));
+        assertTrue(manager.allowsAll(DefaultFlag.TNT, explosion(2, 5, 2)));
+        assertTrue(allowsEach(DefaultFlag.TNT, explosion(2, 5, 2)));
+    }
+
+    @Test
+    public void testHigherPriorityAllow() {
+        courtyard.setFlag(DefaultFlag.TNT, StateFlag.State.DENY);
+        fountain.setFlag(DefaultFlag.TNT, StateFlag.State.ALLOW);
+
+        assertTrue(manager.allowsAll(DefaultFlag.TNT, explosion(10, 5, 10)));
+        assertFalse(manager.allowsAll(DefaultFlag.TNT, explosion(6, 5, 10)));
+    }
+
+    @Test
+    public void testInheritedFromParent() throws Exception {
+        ProtectedRegion parent = new ProtectedCuboidRegion("parent",
+                new BlockVector(500, 0, 500), new BlockVector(510, 10, 510));
+        parent.setFlag(DefaultFlag.TNT, StateFlag.State.DENY);
+        manager.addRegion(parent);
+        courtyard.setParent(parent);
+
+        List<Vector> points = explosion(2, 5, 2);
+        assertFalse(manager.allowsAll(DefaultFlag.TNT, points));
+        assertFalse(allowsEach(DefaultFlag.TNT, points));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildFlag() {
+        manager.allowsAll(DefaultFlag.BUILD, explosion(10, 5, 10));
+    }
+}
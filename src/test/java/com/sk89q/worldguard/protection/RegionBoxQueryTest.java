@@ -0,0 +1,118 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedPolygonalRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public abstract class RegionBoxQueryTest {
+    RegionManager manager;
+
+    protected abstract RegionManager createRegionManager() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = createRegionManager();
+
+        manager.addRegion(new GlobalProtectedRegion("__global__"));
+
+        ProtectedRegion market = new ProtectedCuboidRegion("market",
+                new BlockVector(0, 0, 0), new BlockVector(20, 20, 20));
+        manager.addRegion(market);
+
+        ProtectedRegion stall = new ProtectedCuboidRegion("stall",
+                new BlockVector(5, 0, 5), new BlockVector(8, 10, 8));
+        stall.setPriority(5);
+        manager.addRegion(stall);
+
+        // A triangle whose bounding box covers (100, 100) to (120, 120)
+        List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+        points.add(new BlockVector2D(100, 100));
+        points.add(new BlockVector2D(120, 100));
+        points.add(new BlockVector2D(100, 120));
+        manager.addRegion(new ProtectedPolygonalRegion("wedge", points, 0, 20));
+    }
+
+    private Set<String> ids(Iterable<ProtectedRegion> regions) {
+        Set<String> ids = new HashSet<String>();
+        for (ProtectedRegion region : regions) {
+            ids.add(region.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testIntersectingRegions() {
+        assertEquals(new HashSet<String>(Arrays.asList("market", "stall")),
+                ids(manager.getIntersectingRegions(new Vector(-5, 0, -5), new Vector(6, 5, 6))));
+        assertEquals(new HashSet<String>(Arrays.asList("market")),
+                ids(manager.getIntersectingRegions(new Vector(15, 5, 15), new Vector(10, 0, 10))));
+        assertTrue(manager.getIntersectingRegions(new Vector(50, 0, 50), new Vector(60, 5, 60)).isEmpty());
+    }
+
+    @Test
+    public void testBoundingBoxOnly() {
+        // Clear of the triangle, but inside its bounding box
+        Vector min = new Vector(115, 5, 115);
+        Vector max = new Vector(118, 6, 118);
+
+        assertEquals(1, manager.getIntersectingRegions(min, max).size());
+        assertEquals(0, manager.getApplicableRegions(min, max).size());
+        assertEquals(1, manager.getApplicableRegions(new Vector(101, 5, 101), max).size());
+    }
+
+    @Test
+    public void testApplicableRegionsOrder() {
+        ApplicableRegionSet set = manager.getApplicableRegions(
+                new Vector(0, 0, 0), new Vector(10, 10, 10));
+
+        assertEquals(2, set.size());
+        assertEquals("stall", set.iterator().next().getId());
+    }
+
+    @Test
+    public void testAddedRegion() {
+        manager.addRegion(new ProtectedCuboidRegion("dock",
+                new BlockVector(50, 0, 50), new BlockVector(55, 5, 55)));
+
+        assertEquals(1, manager.getIntersectingRegions(new Vector(52, 0, 52), new Vector(60, 5, 60)).size());
+
+        manager.removeRegion("dock");
+        assertTrue(manager.getIntersectingRegions(new Vector(52, 0, 52), new Vector(60, 5, 60)).isEmpty());
+    }
+}
@@ -0,0 +1,144 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.domains.DefaultDomain;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.RegionChangeEvent;
+import com.sk89q.worldguard.protection.managers.RegionChangeListener;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public abstract class RegionChangeTest {
+    RegionManager manager;
+    ProtectedRegion region;
+    List<RegionChangeEvent> events;
+
+    protected abstract RegionManager createRegionManager() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = createRegionManager();
+        region = new ProtectedCuboidRegion("spawn",
+                new BlockVector(0, 0, 0), new BlockVector(10, 10, 10));
+        events = new ArrayList<RegionChangeEvent>();
+        manager.addChangeListener(new RegionChangeListener() {
+            public void regionChanged(RegionChangeEvent event) {
+                events.add(event);
+            }
+        });
+    }
+
+    @Test
+    public void testAddRemove() {
+        long version = manager.getVersion();
+
+        manager.addRegion(region);
+        manager.removeRegion("spawn");
+
+        assertEquals(2, events.size());
+        assertEquals(RegionChangeEvent.Type.ADDED, events.get(0).getType());
+        assertEquals(RegionChangeEvent.Type.REMOVED, events.get(1).getType());
+        assertSame(region, events.get(1).getRegion());
+        assertEquals(version + 2, manager.getVersion());
+        assertEquals(manager.getVersion(), events.get(1).getVersion());
+    }
+
+    @Test
+    public void testRegionChanges() throws Exception {
+        ProtectedRegion parent = new ProtectedCuboidRegion("parent",
+                new BlockVector(0, 0, 0), new BlockVector(20, 20, 20));
+        manager.addRegion(parent);
+        manager.addRegion(region);
+        events.clear();
+
+        region.setFlag(DefaultFlag.BUILD, StateFlag.State.DENY);
+        region.setPriority(5);
+        region.setParent(parent);
+        region.getOwners().addPlayer("alice");
+        region.getMembers().addGroup("builders");
+        region.setMembers(new DefaultDomain());
+
+        assertEquals(6, events.size());
+        assertEquals(ProtectedRegion.Property.FLAGS, events.get(0).getProperty());
+        assertEquals(ProtectedRegion.Property.PRIORITY, events.get(1).getProperty());
+        assertEquals(ProtectedRegion.Property.PARENT, events.get(2).getProperty());
+        assertEquals(ProtectedRegion.Property.OWNERS, events.get(3).getProperty());
+        assertEquals(ProtectedRegion.Property.MEMBERS, events.get(4).getProperty());
+        assertEquals(ProtectedRegion.Property.MEMBERS, events.get(5).getProperty());
+        for (RegionChangeEvent event : events) {
+            assertEquals(RegionChangeEvent.Type.CHANGED, event.getType());
+            assertSame(region, event.getRegion());
+        }
+
+        region.getMembers().addPlayer("bob");
+        assertEquals(7, events.size());
+    }
+
+    @Test
+    public void testRemovedRegionNotObserved() {
+        manager.addRegion(region);
+        manager.removeRegion("spawn");
+        events.clear();
+        long version = manager.getVersion();
+
+        region.setPriority(10);
+        region.getOwners().addPlayer("alice");
+
+        assertTrue(events.isEmpty());
+        assertEquals(version, manager.getVersion());
+    }
+
+    @Test
+    public void testReload() {
+        manager.addRegion(region);
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+        ProtectedRegion other = new ProtectedCuboidRegion("other",
+                new BlockVector(0, 0, 0), new BlockVector(10, 10, 10));
+        regions.put("other", other);
+        events.clear();
+
+        manager.setRegions(regions);
+        assertEquals(1, events.size());
+        assertEquals(RegionChangeEvent.Type.RELOADED, events.get(0).getType());
+        assertNull(events.get(0).getRegion());
+
+        region.setPriority(10);
+        other.setPriority(10);
+        assertEquals(2, events.size());
+        assertSame(other, events.get(1).getRegion());
+    }
+}
@@ -178,4 +178,23 @@ public void testPlayer2BuildAccess() {
         appl = manager.getApplicableRegions(inFountain);
         assertTrue(appl.canBuild(player2));
     }
+
+    @Test
+    public void testOverlapsUnownedRegion() {
+        ProtectedRegion inFountainClaim = new ProtectedCuboidRegion("claim",
+                new BlockVector(1, 1, 1), new BlockVector(3, 3, 3));
+        ProtectedRegion inCourtyardClaim = new ProtectedCuboidRegion("claim",
+                new BlockVector(7, 7, 7), new BlockVector(9, 9, 9));
+        ProtectedRegion outsideClaim = new ProtectedCuboidRegion("claim",
+                new BlockVector(50, 0, 50), new BlockVector(60, 10, 60));
+
+        // Nobody owns the fountain
+        assertTrue(manager.overlapsUnownedRegion(inFountainClaim, player1));
+        assertTrue(manager.overlapsUnownedRegion(inFountainClaim, player2));
+        // Player 1 owns the courtyard
+        assertFalse(manager.overlapsUnownedRegion(inCourtyardClaim, player1));
+        assertTrue(manager.overlapsUnownedRegion(inCourtyardClaim, player2));
+        // Nothing is there
+        assertFalse(manager.overlapsUnownedRegion(outsideClaim, player2));
+    }
 }
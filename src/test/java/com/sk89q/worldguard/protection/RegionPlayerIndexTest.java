@@ -0,0 +1,183 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.TestPlayer;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public abstract class RegionPlayerIndexTest {
+    RegionManager manager;
+    TestPlayer player;
+
+    protected abstract RegionManager createRegionManager() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = createRegionManager();
+        player = new TestPlayer("Tetsu");
+        player.addGroup("builders");
+    }
+
+    private ProtectedRegion region(String id) {
+        return new ProtectedCuboidRegion(id,
+                new BlockVector(0, 0, 0), new BlockVector(10, 10, 10));
+    }
+
+    private Set<String> regionsOf(String name) {
+        Set<String> ids = new HashSet<String>();
+        for (ProtectedRegion region : manager.getRegionsOfPlayer(name)) {
+            ids.add(region.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testRegionCount() {
+        ProtectedRegion home = region("home");
+        home.getOwners().addPlayer("tetsu");
+        manager.addRegion(home);
+
+        ProtectedRegion workshop = region("workshop");
+        workshop.getOwners().addGroup("builders");
+        workshop.getOwners().addPlayer("tetsu");
+        manager.addRegion(workshop);
+
+        ProtectedRegion garden = region("garden");
+        garden.getMembers().addPlayer("tetsu");
+        manager.addRegion(garden);
+
+        assertEquals(2, manager.getRegionCountOfPlayer(player));
+        assertEquals(0, manager.getRegionCountOfPlayer(new TestPlayer("alex")));
+
+        workshop.getOwners().removePlayer("tetsu");
+        assertEquals(2, manager.getRegionCountOfPlayer(player));
+
+        workshop.getOwners().removeGroup("builders");
+        assertEquals(1, manager.getRegionCountOfPlayer(player));
+
+        garden.getOwners().addPlayer("TETSU");
+        assertEquals(2, manager.getRegionCountOfPlayer(player));
+
+        manager.removeRegion("home");
+        assertEquals(1, manager.getRegionCountOfPlayer(player));
+    }
+
+    @Test
+    public void testRegionsOfPlayer() throws Exception {
+        ProtectedRegion town = region("town");
+        town.getMembers().addPlayer("tetsu");
+        manager.addRegion(town);
+
+        ProtectedRegion plot = region("plot");
+        manager.addRegion(plot);
+        manager.addRegion(region("elsewhere"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("town")), regionsOf("Tetsu"));
+
+        plot.setParent(town);
+        assertEquals(new HashSet<String>(Arrays.asList("town", "plot")), regionsOf("Tetsu"));
+
+        plot.setParent(null);
+        plot.getOwners().addPlayer("tetsu");
+        assertEquals(new HashSet<String>(Arrays.asList("town", "plot")), regionsOf("tetsu"));
+
+        town.getMembers().removeAll();
+        assertEquals(new HashSet<String>(Arrays.asList("plot")), regionsOf("tetsu"));
+    }
+
+    private Set<String> regionsOfGroup(String name) {
+        Set<String> ids = new HashSet<String>();
+        for (ProtectedRegion region : manager.getRegionsOfGroup(name)) {
+            ids.add(region.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testRegionsOfGroup() throws Exception {
+        ProtectedRegion town = region("town");
+        town.getMembers().addGroup("builders");
+        manager.addRegion(town);
+
+        ProtectedRegion workshop = region("workshop");
+        workshop.getOwners().addGroup("Builders");
+        manager.addRegion(workshop);
+
+        ProtectedRegion plot = region("plot");
+        manager.addRegion(plot);
+        manager.addRegion(region("elsewhere"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("town", "workshop")),
+                regionsOfGroup("BUILDERS"));
+
+        plot.setParent(town);
+        assertEquals(new HashSet<String>(Arrays.asList("town", "workshop", "plot")),
+                regionsOfGroup("builders"));
+
+        town.getMembers().removeGroup("builders");
+        assertEquals(new HashSet<String>(Arrays.asList("workshop")), regionsOfGroup("builders"));
+
+        manager.removeRegion("workshop");
+        assertTrue(regionsOfGroup("builders").isEmpty());
+    }
+
+    @Test
+    public void testReplacedRegion() {
+        ProtectedRegion home = region("home");
+        home.getOwners().addPlayer("tetsu");
+        manager.addRegion(home);
+
+        manager.addRegion(region("home"));
+        assertEquals(0, manager.getRegionCountOfPlayer(player));
+
+        // The replaced region is no longer indexed
+        home.getOwners().addPlayer("alex");
+        assertEquals(0, manager.getRegionCountOfPlayer(new TestPlayer("alex")));
+    }
+
+    @Test
+    public void testSetRegions() {
+        manager.addRegion(region("old"));
+
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+        ProtectedRegion home = region("home");
+        home.getOwners().addPlayer("tetsu");
+        regions.put("home", home);
+
+        manager.setRegions(regions);
+        assertEquals(1, manager.getRegionCountOfPlayer(player));
+        assertTrue(regionsOf("alex").isEmpty());
+    }
+}
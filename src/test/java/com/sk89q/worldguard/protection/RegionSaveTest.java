@@ -0,0 +1,271 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.protection.databases.AbstractProtectionDatabase;
+import com.sk89q.worldguard.protection.databases.ProtectionDatabaseException;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.PRTreeRegionManager;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public class RegionSaveTest {
+    MemoryDatabase database;
+    RegionManager manager;
+    ProtectedRegion parent;
+    ProtectedRegion child;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new MemoryDatabase();
+        manager = new PRTreeRegionManager(database);
+
+        parent = new ProtectedCuboidRegion("parent",
+                new BlockVector(0, 0, 0), new BlockVector(20, 20, 20));
+        child = new ProtectedCuboidRegion("child",
+                new BlockVector(5, 5, 5), new BlockVector(10, 10, 10));
+        child.setParent(parent);
+        child.getOwners().addPlayer("tetsu");
+        manager.addRegion(parent);
+        manager.addRegion(child);
+    }
+
+    @Test
+    public void testSavesCopies() throws Exception {
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, database.saved.size());
+        Map<String, ProtectedRegion> saved = database.saved.get(0);
+        ProtectedRegion savedChild = saved.get("child");
+
+        assertNotSame(child, savedChild);
+        assertSame(saved.get("parent"), savedChild.getParent());
+        assertTrue(savedChild.getOwners().contains("tetsu"));
+
+        // Later changes don't reach the saved copy
+        child.setFlag(DefaultFlag.TNT, StateFlag.State.DENY);
+        assertEquals(null, savedChild.getFlag(DefaultFlag.TNT));
+    }
+
+    @Test
+    public void testCoalescesQueuedSaves() throws Exception {
+        database.block = new CountDownLatch(1);
+
+        Future<Void> first = manager.saveChanges();
+        database.started.await(5, TimeUnit.SECONDS);
+
+        Future<Void> second = manager.saveChanges();
+        child.setPriority(10);
+        Future<Void> third = manager.saveChanges();
+        assertSame(second, third);
+
+        database.block.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, database.saved.size());
+        assertEquals(10, database.saved.get(1).get("child").getPriority());
+    }
+
+    @Test
+    public void testDirtyStateMovesToCopies() throws Exception {
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        assertTrue(database.dirty.get(0).contains("child"));
+        assertFalse(child.isDirty());
+        assertFalse(parent.isDirty());
+
+        child.setPriority(10);
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        assertTrue(database.dirty.get(1).contains("child"));
+        assertFalse(database.dirty.get(1).contains("parent"));
+    }
+
+    @Test
+    public void testUnchangedRegionsAreNotDirty() throws Exception {
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        Map<String, ProtectedRegion> saved = database.saved.get(1);
+        assertSame(saved.get("parent"), saved.get("child").getParent());
+        assertTrue(database.dirty.get(1).isEmpty());
+        assertFalse(child.isDirty());
+    }
+
+    @Test
+    public void testCoalescedSavesKeepDirtyState() throws Exception {
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+        database.block = new CountDownLatch(1);
+        database.started = new CountDownLatch(1);
+
+        child.setPriority(10);
+        Future<Void> first = manager.saveChanges();
+        database.started.await(5, TimeUnit.SECONDS);
+
+        // Both of these are written by one save
+        parent.setPriority(5);
+        manager.saveChanges();
+        child.setPriority(20);
+        manager.saveChanges();
+        parent.setPriority(6);
+        Future<Void> last = manager.saveChanges();
+
+        database.block.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        last.get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, database.saved.size());
+        assertTrue(database.dirty.get(2).contains("child"));
+        assertTrue(database.dirty.get(2).contains("parent"));
+    }
+
+    @Test
+    public void testFailedSaveRestoresDirtyState() throws Exception {
+        database.fail = true;
+
+        try {
+            manager.saveChanges().get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+        }
+
+        assertTrue(child.isDirty());
+        assertTrue(parent.isDirty());
+
+        database.fail = false;
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        assertFalse(child.isDirty());
+        assertTrue(database.dirty.get(0).contains("child"));
+    }
+
+    @Test
+    public void testUnchangedRegionsAreNotCopiedAgain() throws Exception {
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        child.setPriority(10);
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        Map<String, ProtectedRegion> first = database.saved.get(0);
+        Map<String, ProtectedRegion> second = database.saved.get(1);
+        assertSame(first.get("parent"), second.get("parent"));
+        assertNotSame(first.get("child"), second.get("child"));
+        assertEquals(10, second.get("child").getPriority());
+
+        // A copied parent is linked to new copies of its children
+        parent.setPriority(5);
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        Map<String, ProtectedRegion> third = database.saved.get(2);
+        assertNotSame(second.get("child"), third.get("child"));
+        assertSame(third.get("parent"), third.get("child").getParent());
+        assertEquals(5, third.get("parent").getPriority());
+        assertEquals(10, third.get("child").getPriority());
+        assertTrue(database.dirty.get(2).contains("parent"));
+        assertFalse(database.dirty.get(2).contains("child"));
+    }
+
+    @Test
+    public void testSaveReplacesOlderCopies() throws Exception {
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+
+        child.setPriority(10);
+        manager.save();
+        child.setDirty(false);
+
+        manager.saveChanges().get(5, TimeUnit.SECONDS);
+        assertEquals(10, database.saved.get(2).get("child").getPriority());
+    }
+
+    @Test
+    public void testFlushSaves() {
+        manager.saveChanges();
+        manager.flushSaves();
+        assertEquals(1, database.saved.size());
+    }
+
+    private static class MemoryDatabase extends AbstractProtectionDatabase {
+        final List<Map<String, ProtectedRegion>> saved =
+                Collections.synchronizedList(new ArrayList<Map<String, ProtectedRegion>>());
+        final List<Set<String>> dirty =
+                Collections.synchronizedList(new ArrayList<Set<String>>());
+        volatile CountDownLatch started = new CountDownLatch(1);
+        volatile CountDownLatch block;
+        volatile boolean fail;
+        private Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+
+        public void load() throws ProtectionDatabaseException {
+        }
+
+        public void save() throws ProtectionDatabaseException {
+            started.countDown();
+            if (block != null) {
+                try {
+                    block.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new ProtectionDatabaseException(e);
+                }
+            }
+            if (fail) {
+                throw new ProtectionDatabaseException("Failed");
+            }
+            Set<String> dirtyIds = new HashSet<String>();
+            for (Map.Entry<String, ProtectedRegion> entry : regions.entrySet()) {
+                if (entry.getValue().isDirty()) {
+                    dirtyIds.add(entry.getKey());
+                }
+            }
+            dirty.add(dirtyIds);
+            saved.add(regions);
+        }
+
+        public Map<String, ProtectedRegion> getRegions() {
+            return regions;
+        }
+
+        public void setRegions(Map<String, ProtectedRegion> regions) {
+            this.regions = regions;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.protection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+public abstract class RegionUpdateTest {
+    RegionManager manager;
+
+    protected abstract RegionManager createRegionManager() throws Exception;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = createRegionManager();
+        manager.setRegions(load());
+    }
+
+    /**
+     * Creates the regions as they would be read from the database.
+     */
+    private Map<String, ProtectedRegion> load() throws Exception {
+        Map<String, ProtectedRegion> regions = new HashMap<String, ProtectedRegion>();
+
+        ProtectedRegion town = new ProtectedCuboidRegion("town",
+                new BlockVector(0, 0, 0), new BlockVector(100, 100, 100));
+        town.getOwners().addPlayer("tetsu");
+        town.setFlag(DefaultFlag.PVP, StateFlag.State.DENY);
+        regions.put("town", town);
+
+        ProtectedRegion shop = new ProtectedCuboidRegion("shop",
+                new BlockVector(10, 0, 10), new BlockVector(20, 10, 20));
+        shop.setPriority(1);
+        shop.setParent(town);
+        regions.put("shop", shop);
+
+        ProtectedRegion farm = new ProtectedCuboidRegion("farm",
+                new BlockVector(200, 0, 200), new BlockVector(300, 100, 300));
+        regions.put("farm", farm);
+
+        return regions;
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        ProtectedRegion town = manager.getRegion("town");
+        ProtectedRegion shop = manager.getRegion("shop");
+
+        assertEquals(0, manager.updateRegions(load()));
+        assertSame(town, manager.getRegion("town"));
+        assertSame(shop, manager.getRegion("shop"));
+    }
+
+    @Test
+    public void testChangedAndAdded() throws Exception {
+        ProtectedRegion town = manager.getRegion("town");
+        ProtectedRegion shop = manager.getRegion("shop");
+
+        Map<String, ProtectedRegion> regions = load();
+        regions.get("farm").getMembers().addPlayer("Ayumi");
+        regions.put("mine", new ProtectedCuboidRegion("mine",
+                new BlockVector(-50, 0, -50), new BlockVector(-40, 10, -40)));
+
+        assertEquals(2, manager.updateRegions(regions));
+        assertSame(town, manager.getRegion("town"));
+        assertSame(shop, manager.getRegion("shop"));
+        assertSame(regions.get("farm"), manager.getRegion("farm"));
+        assertSame(regions.get("mine"), manager.getRegion("mine"));
+        assertEquals(1, manager.getApplicableRegions(new Vector(-45, 5, -45)).size());
+        assertFalse(manager.getRegion("farm").isDirty());
+    }
+
+    @Test
+    public void testChangedParent() throws Exception {
+        Map<String, ProtectedRegion> regions = load();
+        regions.get("town").setFlag(DefaultFlag.PVP, StateFlag.State.ALLOW);
+
+        assertEquals(2, manager.updateRegions(regions));
+        assertSame(regions.get("town"), manager.getRegion("shop").getParent());
+        assertEquals(2, manager.getApplicableRegions(new Vector(15, 5, 15)).size());
+    }
+
+    @Test
+    public void testChangedChild() throws Exception {
+        ProtectedRegion town = manager.getRegion("town");
+
+        Map<String, ProtectedRegion> regions = load();
+        regions.get("shop").setPriority(5);
+
+        assertEquals(1, manager.updateRegions(regions));
+        assertSame(town, manager.getRegion("town"));
+        assertSame(town, manager.getRegion("shop").getParent());
+    }
+
+    @Test
+    public void testRemoved() throws Exception {
+        Map<String, ProtectedRegion> regions = load();
+        regions.remove("farm");
+
+        assertEquals(1, manager.updateRegions(regions));
+        assertNull(manager.getRegion("farm"));
+        assertEquals(0, manager.getApplicableRegions(new Vector(250, 5, 250)).size());
+        assertEquals(2, manager.size());
+    }
+}
@@ -0,0 +1,128 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.sql.SQLException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+    MockDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new MockDatabase();
+    }
+
+    private ConnectionPool acquire() {
+        return ConnectionPool.acquire(database.getDsn(), "user", "pass");
+    }
+
+    @Test
+    public void testReleasedConnectionIsReused() throws Exception {
+        ConnectionPool pool = acquire();
+
+        PooledConnection conn = pool.borrow();
+        PooledConnection other = pool.borrow();
+        assertNotSame(conn, other);
+        pool.release(conn);
+        pool.release(other);
+
+        assertSame(other, pool.borrow());
+        assertEquals(2, database.opened.get());
+        assertEquals(0, database.closed.get());
+
+        pool.close();
+        assertEquals(1, database.closed.get());
+    }
+
+    @Test
+    public void testConnectionsInTransactionAreClosed() throws Exception {
+        ConnectionPool pool = acquire();
+
+        PooledConnection conn = pool.borrow();
+        conn.getConnection().setAutoCommit(false);
+        pool.release(conn);
+        assertEquals(1, database.closed.get());
+
+        assertNotSame(conn, pool.borrow());
+        assertEquals(2, database.opened.get());
+        pool.close();
+    }
+
+    @Test
+    public void testIdleConnectionsAreChecked() throws Exception {
+        ConnectionPool pool = acquire();
+
+        // Recently used connections are not checked
+        PooledConnection conn = pool.borrow();
+        pool.release(conn);
+        conn = pool.borrow();
+        assertEquals(0, database.validations.get());
+
+        conn.setLastUsed(0);
+        pool.release(conn);
+        conn.setLastUsed(0);
+        assertSame(conn, pool.borrow());
+        assertEquals(1, database.validations.get());
+
+        // Broken connections are replaced
+        pool.release(conn);
+        conn.setLastUsed(0);
+        database.valid = false;
+        assertNotSame(conn, pool.borrow());
+        assertEquals(2, database.validations.get());
+        assertEquals(1, database.closed.get());
+        assertEquals(2, database.opened.get());
+        pool.close();
+    }
+
+    @Test
+    public void testPoolIsSharedUntilLastClose() throws Exception {
+        ConnectionPool pool = acquire();
+        assertSame(pool, acquire());
+
+        pool.release(pool.borrow());
+        pool.close();
+
+        // Still in use by the second user
+        assertEquals(0, database.closed.get());
+        pool.release(pool.borrow());
+        assertEquals(1, database.opened.get());
+
+        pool.close();
+        assertEquals(1, database.closed.get());
+        ConnectionPool again = acquire();
+        assertNotSame(pool, again);
+        again.close();
+    }
+
+    @Test(expected = SQLException.class)
+    public void testClosedPoolCannotBeBorrowedFrom() throws Exception {
+        ConnectionPool pool = acquire();
+        pool.close();
+        pool.borrow();
+    }
+}
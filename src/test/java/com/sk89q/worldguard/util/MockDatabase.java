@@ -0,0 +1,241 @@
+// $Id$
+/*
+ * WorldGuard
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldguard.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A database driver that only records what is done with its connections.
+ * Every instance is registered with its own DSN.
+ */
+public class MockDatabase implements Driver {
+    private static final AtomicInteger lastId = new AtomicInteger();
+
+    private final String dsn = "jdbc:mock:" + lastId.incrementAndGet();
+
+    /**
+     * The statements that were executed, and the number of parameters they
+     * were executed with.
+     */
+    public final List<String> updates = Collections.synchronizedList(new ArrayList<String>());
+    public final List<Integer> parameters = Collections.synchronizedList(new ArrayList<Integer>());
+
+    /**
+     * The number of connections opened, closed and checked.
+     */
+    public final AtomicInteger opened = new AtomicInteger();
+    public final AtomicInteger closed = new AtomicInteger();
+    public final AtomicInteger validations = new AtomicInteger();
+
+    /**
+     * Whether connections pass a health check.
+     */
+    public volatile boolean valid = true;
+
+    private final Semaphore updating = new Semaphore(0);
+    private volatile CountDownLatch gate;
+
+    public MockDatabase() throws SQLException {
+        DriverManager.registerDriver(this);
+    }
+
+    public String getDsn() {
+        return dsn;
+    }
+
+    /**
+     * Make updates wait until {@link #unblock()} is called.
+     */
+    public void block() {
+        gate = new CountDownLatch(1);
+    }
+
+    /**
+     * Let waiting and following updates run.
+     */
+    public void unblock() {
+        CountDownLatch gate = this.gate;
+        this.gate = null;
+        if (gate != null) {
+            gate.countDown();
+        }
+    }
+
+    /**
+     * Wait until an update has started.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    public void awaitUpdate() throws InterruptedException {
+        updating.acquire();
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        opened.incrementAndGet();
+        return (Connection) proxy(Connection.class, new ConnectionHandler());
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return dsn.equals(url);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(MockDatabase.class.getClassLoader(),
+                new Class<?>[] { type }, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else {
+            return null;
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private boolean isClosed;
+        private boolean autoCommit = true;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (name.equals("prepareStatement")) {
+                return proxy(PreparedStatement.class, new StatementHandler((String) args[0]));
+            } else if (name.equals("close")) {
+                if (!isClosed) {
+                    isClosed = true;
+                    closed.incrementAndGet();
+                }
+                return null;
+            } else if (name.equals("isClosed")) {
+                return isClosed;
+            } else if (name.equals("isValid")) {
+                validations.incrementAndGet();
+                return valid;
+            } else if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            } else if (name.equals("setAutoCommit")) {
+                autoCommit = (Boolean) args[0];
+                return null;
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final String sql;
+        private int count;
+
+        private StatementHandler(String sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (name.startsWith("set") && args != null && args.length == 2
+                    && args[0] instanceof Integer) {
+                count = Math.max(count, (Integer) args[0]);
+                return null;
+            } else if (name.equals("executeUpdate")) {
+                updating.release();
+                CountDownLatch gate = MockDatabase.this.gate;
+                if (gate != null) {
+                    gate.await();
+                }
+                updates.add(sql);
+                parameters.add(count);
+                count = 0;
+                return 1;
+            } else if (name.equals("executeQuery") || name.equals("getGeneratedKeys")) {
+                return proxy(ResultSet.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return defaultValue(method.getReturnType());
+                    }
+                });
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+
+            return defaultValue(method.getReturnType());
+        }
+    }
+}